@@ -0,0 +1,85 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.internal.LinkedTreeMap;
+
+import edu.wisc.icecube.filecatalog.Client.Operation;
+import edu.wisc.icecube.filecatalog.gson.Creation;
+
+/**
+ * Round trips of the single file operations against the in-process stub. Since the stub answers
+ * instantly, the numbers are dominated by the client and the HTTP stack.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientBenchmark {
+	private static final String UPDATE = "{\"backup\": true}";
+
+	private long created = 0;
+
+	/**
+	 * Caches all `uid`s and `etag`s, so that the warm benchmarks never fall back to a query.
+	 */
+	@Setup(Level.Trial)
+	public void warmUp(final StubState state) throws IOException, URISyntaxException {
+		for(String mongoId: state.mongoIds) {
+			state.client.get(mongoId);
+		}
+	}
+
+	@Benchmark
+	public LinkedTreeMap<?, ?> get(final StubState state) throws IOException, URISyntaxException {
+		return state.client.get(state.mongoIds[state.next()]);
+	}
+
+	@Benchmark
+	public Creation create(final StubState state) throws IOException, URISyntaxException {
+		final String uid = "benchmark-created-" + (created++);
+		return state.client.create(StubState.metadata(uid, created).toString());
+	}
+
+	@Benchmark
+	public LinkedTreeMap<?, ?> updateWarmEtag(final StubState state) throws IOException, URISyntaxException {
+		return state.client.updateOrReplace(state.mongoIds[state.next()], UPDATE, false, Operation.UPDATE);
+	}
+
+	@Benchmark
+	public LinkedTreeMap<?, ?> updateColdEtag(final StubState state) throws IOException, URISyntaxException {
+		final String mongoId = state.mongoIds[state.next()];
+
+		state.client.getCache().deleteEtag(mongoId);
+		return state.client.updateOrReplace(mongoId, UPDATE, false, Operation.UPDATE);
+	}
+
+	@Benchmark
+	public String getMongoIdByUidWarm(final StubState state) throws IOException, URISyntaxException {
+		return state.client.getMongoIdByUid(state.uids[state.next()]);
+	}
+
+	@Benchmark
+	public String getMongoIdByUidCold(final StubState state) throws IOException, URISyntaxException {
+		final String uid = state.uids[state.next()];
+
+		state.client.getCache().deleteUid(uid);
+		return state.client.getMongoIdByUid(uid);
+	}
+}
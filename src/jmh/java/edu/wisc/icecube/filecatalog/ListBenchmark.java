@@ -0,0 +1,48 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.wisc.icecube.filecatalog.gson.FileList;
+
+/**
+ * Fetching and parsing one page of the file list at different page sizes, with the default keys and with
+ * a projection of one or all metadata keys.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListBenchmark {
+	@Param({"1", "100", "1000"})
+	public int pageSize;
+
+	@Benchmark
+	public FileList getList(final StubState state) throws IOException, URISyntaxException {
+		return state.client.getList(null, pageSize, 0);
+	}
+
+	@Benchmark
+	public FileList getListChecksum(final StubState state) throws IOException, URISyntaxException {
+		return state.client.getList(null, pageSize, 0, "checksum");
+	}
+
+	@Benchmark
+	public FileList getListAllKeys(final StubState state) throws IOException, URISyntaxException {
+		return state.client.getList(null, pageSize, 0, "filesize", "locations", "checksum", "meta_modify_date");
+	}
+}
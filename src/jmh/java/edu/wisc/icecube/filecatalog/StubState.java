@@ -0,0 +1,83 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Starts a {@link FileCatalogStub} with {@link #FILES} files and a {@link Client} that talks to it.
+ *
+ * <b>Note:</b> The stub runs in the benchmark JVM, so the allocation rate reported by <code>-prof gc</code>
+ * includes the allocations of the stub. Compare numbers between revisions of the client, not in absolute terms.
+ */
+@State(Scope.Benchmark)
+public class StubState {
+	public static final int FILES = 1000;
+
+	/**
+	 * Records the {@link ClientMetrics} of the client. Compare with <code>-p metrics=false,true</code>.
+	 */
+	@Param({"false"})
+	public boolean metrics;
+
+	public FileCatalogStub stub;
+	public Client client;
+	public String[] mongoIds;
+	public String[] uids;
+
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, URISyntaxException {
+		stub = new FileCatalogStub();
+		client = new Client(stub.getUri(), metrics ? ClientConfig.custom().setMetrics(new RecordingClientMetrics()).build() : ClientConfig.DEFAULT);
+		mongoIds = new String[FILES];
+		uids = new String[FILES];
+
+		for(int i = 0; i < FILES; ++i) {
+			uids[i] = "benchmark-" + i;
+			mongoIds[i] = stub.put(metadata(uids[i], i));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		client.close();
+		stub.close();
+	}
+
+	/**
+	 * @return The index of the next file, round robin.
+	 */
+	public int next() {
+		next = (next + 1) % FILES;
+		return next;
+	}
+
+	/**
+	 * @param uid
+	 * @param seed
+	 * @return Metadata like the file_catalog expects it for a new file.
+	 */
+	public static JsonObject metadata(final String uid, long seed) {
+		final JsonArray locations = new JsonArray();
+		locations.add("/data/exp/IceCube/2016/filtered/level2/" + uid + ".i3.bz2");
+
+		final JsonObject md = new JsonObject();
+		md.addProperty("uid", uid);
+		md.addProperty("checksum", String.format("%0128x", seed));
+		md.add("locations", locations);
+		md.addProperty("filesize", 1024 * seed);
+
+		return md;
+	}
+}
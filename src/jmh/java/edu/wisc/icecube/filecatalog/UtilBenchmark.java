@@ -0,0 +1,65 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.message.BasicStatusLine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The helpers that run on every request, without any I/O.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UtilBenchmark {
+	private final URI base = URI.create("http://localhost:8888/api");
+	private final String mongoId = "57fd49163a7d4957ca064089";
+	private final StatusLine notFound = new BasicStatusLine(HttpVersion.HTTP_1_1, 404, "Not Found");
+
+	private final URI files = URI.create("http://localhost:8888/api/files");
+
+	@Benchmark
+	public URI joinURIs() throws URISyntaxException {
+		return Client.joinURIs(base, "files", mongoId);
+	}
+
+	/**
+	 * How the URI of a file was built before the files endpoint was cached.
+	 */
+	@Benchmark
+	public URI joinURIsEncoded() throws URISyntaxException, UnsupportedEncodingException {
+		return Client.joinURIs(base, "files", URLEncoder.encode(mongoId, "UTF-8"));
+	}
+
+	@Benchmark
+	public URI fileUri() throws URISyntaxException, UnsupportedEncodingException {
+		return Client.fileUri(files, mongoId);
+	}
+
+	@Benchmark
+	public Error errorFactory() {
+		return Error.errorFactory(notFound, "{\"message\": \"File not found\"}");
+	}
+
+	@Benchmark
+	public Error errorFactoryWithoutStackTrace() {
+		return Error.errorFactory(notFound, "{\"message\": \"File not found\"}", false);
+	}
+}
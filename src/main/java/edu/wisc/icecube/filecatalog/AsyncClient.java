@@ -0,0 +1,1138 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.CloseableHttpPipeliningClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.util.EntityUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.internal.LinkedTreeMap;
+
+import edu.wisc.icecube.filecatalog.Client.CappedKeepAliveStrategy;
+import edu.wisc.icecube.filecatalog.Client.Operation;
+import edu.wisc.icecube.filecatalog.Client.ResponseHandleBuilder;
+import edu.wisc.icecube.filecatalog.Error.ConflictError;
+import edu.wisc.icecube.filecatalog.Error.PreconditionFailedError;
+import edu.wisc.icecube.filecatalog.gson.BasicMetaData;
+import edu.wisc.icecube.filecatalog.gson.Creation;
+import edu.wisc.icecube.filecatalog.gson.FileList;
+
+/**
+ * Non-blocking counterpart of {@link Client}. All methods return immediately with a {@link CompletableFuture}
+ * and the requests are executed by a small number of I/O threads. The responses are handled exactly like
+ * in {@link Client}: the `uid`/`mongo_id` mappings and etags are cached and server side errors complete the
+ * future exceptionally with the corresponding {@link Error}.
+ *
+ * At most {@link ClientConfig#getMaxInFlight()} requests are executed concurrently. Further requests are
+ * queued without blocking the caller.
+ *
+ * <b>Example:</b>
+ * <pre>try(final AsyncClient c = new AsyncClient("http://localhost", 8888)) {
+ * 	final List&lt;CompletableFuture&lt;LinkedTreeMap&lt;?, ?&gt;&gt;&gt; results = new ArrayList&lt;&gt;();
+ *
+ * 	for(String mongoId: mongoIds) {
+ * 		results.add(c.get(mongoId));
+ * 	}
+ *
+ * 	CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).join();
+ * }</pre>
+ */
+public class AsyncClient implements Closeable {
+	protected URI uri;
+	/**
+	 * The files endpoint, `<uri>/api/files`
+	 */
+	protected final URI files;
+	protected final Gson gson;
+	private final BoundedLruMap<String, Gson> projections = new BoundedLruMap<>(16);
+	protected final Cache cache;
+	protected final ClientConfig config;
+	protected final PoolingNHttpClientConnectionManager connectionManager;
+	protected final CloseableHttpAsyncClient httpClient;
+
+	private final Semaphore inFlight;
+	private final Queue<Runnable> pending;
+	private final ScheduledExecutorService scheduler;
+	private final Pipeline pipeline;
+	private final Map<String, CompletableFuture<String>> lookups = new ConcurrentHashMap<>();
+	private final Queue<String> pendingLookups = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean lookupScheduled = new AtomicBoolean();
+
+	public AsyncClient(final URI uri) throws URISyntaxException, IOReactorException {
+		this(uri, ClientConfig.DEFAULT);
+	}
+
+	public AsyncClient(final URI uri, final ClientConfig config) throws URISyntaxException, IOReactorException {
+		this(uri, config, new Cache());
+	}
+
+	/**
+	 * Creates an asynchronous client that uses the given cache. Pass {@link Client#getCache()} in order to
+	 * share the `uid`/`mongo_id` and `etag` mappings with a synchronous client.
+	 *
+	 * @param uri
+	 * @param config
+	 * @param cache
+	 * @throws URISyntaxException
+	 * @throws IOReactorException If the I/O reactor cannot be started.
+	 */
+	public AsyncClient(final URI uri, final ClientConfig config, final Cache cache) throws URISyntaxException, IOReactorException {
+		this.uri = Client.joinURIs(uri, "api");
+		this.files = Client.joinURIs(this.uri, "files");
+		this.gson = Client.createGson();
+		this.cache = cache;
+		this.config = config;
+		this.inFlight = new Semaphore(config.getMaxInFlight());
+		this.pending = new ConcurrentLinkedQueue<>();
+		this.connectionManager = createConnectionManager(config);
+		this.httpClient = createHttpClient(config, connectionManager);
+		this.httpClient.start();
+		this.scheduler = createScheduler(config, connectionManager);
+		this.pipeline = config.getPipelineDepth() > 0
+				? new Pipeline((CloseableHttpPipeliningClient) httpClient, this.uri, createRequestConfig(config), config.getPipelineDepth(), scheduler)
+				: null;
+	}
+
+	public AsyncClient(final String uri) throws URISyntaxException, IOReactorException {
+		this(new URI(uri));
+	}
+
+	public AsyncClient(final String uri, int port) throws URISyntaxException, IOReactorException {
+		this(new URIBuilder(uri).setPort(port).build());
+	}
+
+	public AsyncClient(final String uri, int port, final ClientConfig config) throws URISyntaxException, IOReactorException {
+		this(new URIBuilder(uri).setPort(port).build(), config);
+	}
+
+	/**
+	 * Creates the connection pool that is owned by this client.
+	 *
+	 * @param config
+	 * @return
+	 * @throws IOReactorException
+	 */
+	protected PoolingNHttpClientConnectionManager createConnectionManager(final ClientConfig config) throws IOReactorException {
+		final PoolingNHttpClientConnectionManager cm = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor());
+		cm.setMaxTotal(config.getMaxTotal());
+		cm.setDefaultMaxPerRoute(config.getMaxPerRoute());
+
+		return cm;
+	}
+
+	/**
+	 * Creates the HTTP client that executes all requests of this client over the given connection pool. If
+	 * pipelining is enabled, this is a {@link CloseableHttpPipeliningClient}.
+	 *
+	 * @see ClientConfig.Builder#setPipelineDepth(int)
+	 * @param config
+	 * @param cm
+	 * @return
+	 */
+	protected CloseableHttpAsyncClient createHttpClient(final ClientConfig config, final PoolingNHttpClientConnectionManager cm) {
+		if(config.getPipelineDepth() > 0) {
+			// The pipelining client cannot be customized, the timeouts are set per batch
+			return HttpAsyncClients.createPipelining(cm);
+		}
+
+		final RequestConfig requestConfig = createRequestConfig(config);
+
+		ConnectionKeepAliveStrategy keepAliveStrategy = config.getKeepAliveStrategy();
+		if(null == keepAliveStrategy) {
+			keepAliveStrategy = new CappedKeepAliveStrategy(config.getKeepAlive());
+		}
+
+		return HttpAsyncClients.custom()
+				.setConnectionManager(cm)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(keepAliveStrategy)
+				.build();
+	}
+
+	private static RequestConfig createRequestConfig(final ClientConfig config) {
+		return RequestConfig.custom()
+				.setConnectTimeout(config.getConnectTimeout())
+				.setSocketTimeout(config.getSocketTimeout())
+				.setConnectionRequestTimeout(config.getConnectionRequestTimeout())
+				.build();
+	}
+
+	/**
+	 * Creates the thread that delays rate limited requests and retries. The async client builder does not support
+	 * the eviction of idle connections, so this thread evicts them, too.
+	 *
+	 * @param config
+	 * @param cm
+	 * @return
+	 */
+	private static ScheduledExecutorService createScheduler(final ClientConfig config, final PoolingNHttpClientConnectionManager cm) {
+		final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("file-catalog-async-scheduler"));
+		final long maxIdleTime = config.getMaxIdleTime();
+
+		if(maxIdleTime > 0) {
+			final long period = Math.max(maxIdleTime / 2, 1000);
+			scheduler.scheduleWithFixedDelay(() -> {
+				cm.closeExpiredConnections();
+				cm.closeIdleConnections(maxIdleTime, TimeUnit.MILLISECONDS);
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+
+		return scheduler;
+	}
+
+	/**
+	 * Executes the request asynchronously. If {@link ClientConfig#getMaxInFlight()} requests are already running,
+	 * the request is queued. The <code>handler</code> is executed by an I/O thread once the response has been received.
+	 *
+	 * Rate limiting and retries work like in {@link Client#execute(HttpUriRequest, ResponseHandler)}, but the waiting
+	 * is scheduled instead of blocking a thread. A request keeps its in-flight slot while it is waiting.
+	 *
+	 * @param request
+	 * @param handler
+	 * @return A future that is completed with the result of the <code>handler</code>
+	 */
+	protected <T> CompletableFuture<T> execute(final HttpUriRequest request, final ResponseHandler<? extends T> handler) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+
+		pending.add(() -> send(request, handler, future, 0));
+
+		dispatch();
+
+		return future;
+	}
+
+	/**
+	 * Sends the request as soon as the rate limiter allows it.
+	 */
+	private <T> void send(final HttpUriRequest request, final ResponseHandler<? extends T> handler, final CompletableFuture<T> future, int attempt) {
+		final RateLimiter rateLimiter = config.getRateLimiter();
+		final long wait = null == rateLimiter ? 0 : rateLimiter.reserve();
+
+		if(wait > 0) {
+			schedule(() -> sendNow(request, handler, future, attempt), wait, TimeUnit.NANOSECONDS, future);
+		} else {
+			sendNow(request, handler, future, attempt);
+		}
+	}
+
+	private <T> void sendNow(final HttpUriRequest request, final ResponseHandler<? extends T> handler, final CompletableFuture<T> future, int attempt) {
+		final RateLimiter rateLimiter = config.getRateLimiter();
+		final RetryPolicy retryPolicy = config.getRetryPolicy();
+		final ClientMetrics metrics = config.getMetrics();
+		final ClientMetrics.Operation operation = ClientMetrics.NONE == metrics ? null : ClientMetrics.Operation.of(request);
+		final MeteredResponseHandler<T> meteredHandler = new MeteredResponseHandler<>(handler);
+		final long start = System.nanoTime();
+
+		if(attempt > 0) {
+			metrics.onRetry(operation, attempt);
+		}
+
+		final FutureCallback<HttpResponse> callback = new FutureCallback<HttpResponse>() {
+			@Override
+			public void completed(final HttpResponse response) {
+				try {
+					final T result = meteredHandler.handleResponse(response);
+
+					if(null != rateLimiter) {
+						rateLimiter.onSuccess();
+					}
+
+					future.complete(result);
+					release();
+				} catch(Error e) {
+					metrics.onError(operation, e);
+
+					if(null != rateLimiter) {
+						rateLimiter.onError(e);
+					}
+
+					if(retryPolicy.isRetryable(request, e, attempt)) {
+						schedule(() -> send(request, handler, future, attempt + 1),
+								 retryPolicy.getDelay(attempt, e.getRetryAfter()), TimeUnit.MILLISECONDS, future);
+					} else {
+						future.completeExceptionally(e);
+						release();
+					}
+				} catch(IOException | RuntimeException e) {
+					future.completeExceptionally(e);
+					release();
+				} finally {
+					EntityUtils.consumeQuietly(response.getEntity());
+					metrics.onResponse(operation, meteredHandler.getStatusCode(), System.nanoTime() - start, meteredHandler.getBytes());
+				}
+			}
+
+			@Override
+			public void failed(final Exception ex) {
+				metrics.onResponse(operation, 0, System.nanoTime() - start, 0);
+				future.completeExceptionally(ex);
+				release();
+			}
+
+			@Override
+			public void cancelled() {
+				future.cancel(false);
+				release();
+			}
+		};
+
+		try {
+			if(null == pipeline) {
+				httpClient.execute(request, callback);
+			} else if(Pipeline.isPipelined(request)) {
+				pipeline.execute(request, callback);
+			} else {
+				// Requests with a body go over a pooled connection of their own
+				httpClient.execute(request, pipeline.createContext(), callback);
+			}
+		} catch(RuntimeException e) {
+			// E.g. the client has already been closed
+			future.completeExceptionally(e);
+			release();
+		}
+	}
+
+	/**
+	 * Runs the task after the delay. If the client has been closed in the meantime, the future fails.
+	 */
+	private void schedule(final Runnable task, long delay, final TimeUnit unit, final CompletableFuture<?> future) {
+		try {
+			scheduler.schedule(task, delay, unit);
+		} catch(RejectedExecutionException e) {
+			future.completeExceptionally(e);
+			release();
+		}
+	}
+
+	/**
+	 * Starts queued requests as long as the in-flight limit allows it.
+	 */
+	private void dispatch() {
+		while(!pending.isEmpty() && inFlight.tryAcquire()) {
+			final Runnable task = pending.poll();
+
+			if(null == task) {
+				// Another thread took it
+				inFlight.release();
+			} else {
+				task.run();
+			}
+		}
+	}
+
+	private void release() {
+		inFlight.release();
+		dispatch();
+	}
+
+	/**
+	 * Looks the `mongo_id` of the `uid` up in the cache and reports the lookup to the {@link ClientMetrics}.
+	 *
+	 * @param uid
+	 * @return The `mongo_id` or <code>null</code> if it is not cached.
+	 */
+	protected String getCachedMongoId(final String uid) {
+		final String mongoId = cache.getMongoId(uid);
+		config.getMetrics().onCacheLookup(ClientMetrics.Lookup.MONGO_ID, null != mongoId);
+
+		return mongoId;
+	}
+
+	/**
+	 * Looks the etag of the `mongo_id` up in the cache and reports the lookup to the {@link ClientMetrics}.
+	 *
+	 * @param mongoId
+	 * @return The etag or <code>null</code> if it is not cached.
+	 */
+	protected String getCachedEtag(final String mongoId) {
+		final String etag = cache.getEtag(mongoId);
+		config.getMetrics().onCacheLookup(ClientMetrics.Lookup.ETAG, null != etag);
+
+		return etag;
+	}
+
+	/**
+	 * @return The cache of this client.
+	 */
+	public Cache getCache() {
+		return cache;
+	}
+
+	/**
+	 * @return The configuration of this client.
+	 */
+	public ClientConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * @return Number of requests that are queued because the in-flight limit has been reached.
+	 */
+	public int getQueuedRequests() {
+		return pending.size();
+	}
+
+	/**
+	 * Closes the HTTP client and shuts down the connection pool of this client. Requests that have
+	 * not completed yet fail.
+	 */
+	@Override
+	public void close() throws IOException {
+		scheduler.shutdownNow();
+
+		httpClient.close();
+	}
+
+	/**
+	 * Queries the server to get the file list.
+	 *
+	 * Caches automatically the `uid`/`mongo_id` mapping.
+	 *
+	 * @see Client#getList(URI)
+	 * @param uri The URI with all parameters
+	 * @return The server response represented in {@link FileList}
+	 */
+	protected CompletableFuture<FileList> getList(final URI uri) {
+		return getList(uri, gson);
+	}
+
+	/**
+	 * @see Client#getList(URI, Gson)
+	 * @param uri The URI with all parameters
+	 * @param parser
+	 * @return The server response represented in {@link FileList}
+	 */
+	protected CompletableFuture<FileList> getList(final URI uri, final Gson parser) {
+		return execute(new HttpGet(uri), new ResponseHandleBuilder<FileList>(parser, FileList.class, HttpStatus.SC_OK)
+				.setErrorStackTraces(config.isErrorStackTraces())).thenApply(list -> {
+			for(BasicMetaData mapping: list.getEmbedded().getFiles()) {
+				if(null != mapping.getUid() && null != mapping.getMongoId()) {
+					cache.setMongoId(mapping.getUid(), mapping.getMongoId());
+				}
+			}
+
+			return list;
+		});
+	}
+
+	/**
+	 * @see Client#getList()
+	 * @return The server response represented in {@link FileList}
+	 */
+	public CompletableFuture<FileList> getList() {
+		return getList(null, null, null);
+	}
+
+	/**
+	 * @see Client#getList(String)
+	 * @param query
+	 * @return The server response represented in {@link FileList}
+	 */
+	public CompletableFuture<FileList> getList(final String query) {
+		return getList(query, null, null);
+	}
+
+	/**
+	 * @see Client#getList(Integer, Integer)
+	 * @param limit
+	 * @param start
+	 * @return The server response represented in {@link FileList}
+	 */
+	public CompletableFuture<FileList> getList(final Integer limit, final Integer start) {
+		return getList(null, limit, start);
+	}
+
+	/**
+	 * @see Client#getList(String, Integer, Integer)
+	 * @param query
+	 * @param limit
+	 * @param start
+	 * @return The server response represented in {@link FileList}
+	 */
+	public CompletableFuture<FileList> getList(final String query, final Integer limit, final Integer start) {
+		return getList(query, limit, start, (String[]) null);
+	}
+
+	/**
+	 * @see Client#getList(String, Integer, Integer, String...)
+	 * @param query
+	 * @param limit
+	 * @param start
+	 * @param keys The keys or nothing for the default keys of the server (`mongo_id` and `uid`)
+	 * @return The server response represented in {@link FileList}
+	 */
+	public CompletableFuture<FileList> getList(final String query, final Integer limit, final Integer start, final String... keys) {
+		try {
+			final URIBuilder uri = new URIBuilder(files);
+			final String projection = Client.joinKeys(keys);
+
+			if(null != query) {
+				uri.setParameter("query", query);
+			}
+
+			if(null != limit) {
+				uri.setParameter("limit", limit.toString());
+			}
+
+			if(null != start) {
+				uri.setParameter("start", start.toString());
+			}
+
+			if(null != projection) {
+				uri.setParameter("keys", projection);
+			}
+
+			return getList(uri.build(), getGson(projection));
+		} catch(URISyntaxException | IllegalArgumentException e) {
+			return failed(e);
+		}
+	}
+
+	/**
+	 * @see Client#getListAfter(String, int, String, String...)
+	 * @param query
+	 * @param limit
+	 * @param after The last `mongo_id` of the previous page or <code>null</code> for the first page
+	 * @param keys The keys or nothing for the default keys of the server (`mongo_id` and `uid`)
+	 * @return The server response represented in {@link FileList}
+	 */
+	public CompletableFuture<FileList> getListAfter(final String query, int limit, final String after, final String... keys) {
+		return getList(Client.keysetQuery(query, after), limit, null, keys);
+	}
+
+	/**
+	 * @see Client#create(String)
+	 * @param metadata JSON style string
+	 * @return Response of server represented as {@link Creation}
+	 */
+	public CompletableFuture<Creation> create(final String metadata) {
+		if(null == metadata || metadata.isEmpty()) {
+			return failed(new IllegalArgumentException("No metadata given"));
+		}
+
+		final HttpPost request = new HttpPost(files);
+		request.setEntity(new StringEntity(metadata, ContentType.APPLICATION_JSON));
+
+		return execute(request, new ResponseHandleBuilder<Creation>(gson, Creation.class, HttpStatus.SC_CREATED, HttpStatus.SC_OK)
+				.setErrorStackTraces(config.isErrorStackTraces())).thenApply(creation -> {
+			try {
+				// Cache `uid`/`mongo_id`
+				cache.setMongoId(Client.findUid(metadata), Client.getMongoIdFromPath(creation.getFile()));
+			} catch(ClientException e) {
+				throw new CompletionException(e);
+			}
+
+			return creation;
+		});
+	}
+
+	/**
+	 * @see Client#create(Object)
+	 * @param metadata An object that is serialized with gson, e.g. a {@link java.util.Map}
+	 * @return Response of server represented as {@link Creation}
+	 */
+	public CompletableFuture<Creation> create(final Object metadata) {
+		if(metadata instanceof String) {
+			return create((String) metadata);
+		}
+
+		return create(JsonEntity.of(gson, metadata));
+	}
+
+	/**
+	 * @see Client#create(MetadataWriter)
+	 * @param metadata
+	 * @return Response of server represented as {@link Creation}
+	 */
+	public CompletableFuture<Creation> create(final MetadataWriter metadata) {
+		return create(new JsonEntity(metadata));
+	}
+
+	private CompletableFuture<Creation> create(final JsonEntity entity) {
+		final HttpPost request = new HttpPost(files);
+		request.setEntity(entity);
+
+		return execute(request, new ResponseHandleBuilder<Creation>(gson, Creation.class, HttpStatus.SC_CREATED, HttpStatus.SC_OK)
+				.setErrorStackTraces(config.isErrorStackTraces())).thenApply(creation -> {
+			// Cache `uid`/`mongo_id`, the `uid` has been picked up while the body has been written
+			if(null != entity.getUid()) {
+				cache.setMongoId(entity.getUid(), Client.getMongoIdFromPath(creation.getFile()));
+			}
+
+			return creation;
+		});
+	}
+
+	/**
+	 * @see Client#get(String)
+	 * @param mongoId
+	 * @return The metadata
+	 */
+	public CompletableFuture<LinkedTreeMap<?, ?>> get(final String mongoId) {
+		return get(mongoId, Object.class).thenApply(metadata -> (LinkedTreeMap<?, ?>) metadata);
+	}
+
+	/**
+	 * @see Client#get(String, Class)
+	 * @param mongoId
+	 * @param type
+	 * @return The metadata
+	 */
+	public <T> CompletableFuture<T> get(final String mongoId, final Class<T> type) {
+		return get(mongoId, type, (String[]) null);
+	}
+
+	/**
+	 * @see Client#get(String, Class, String...)
+	 * @param mongoId
+	 * @param type
+	 * @param keys The keys or nothing for all keys
+	 * @return The metadata
+	 */
+	public <T> CompletableFuture<T> get(final String mongoId, final Class<T> type, final String... keys) {
+		final String projection;
+		final HttpGet request;
+		try {
+			projection = Client.joinKeys(keys);
+
+			URI uri = fileUri(mongoId);
+			if(null != projection) {
+				uri = new URIBuilder(uri).setParameter("keys", projection).build();
+			}
+
+			request = new HttpGet(uri);
+		} catch(URISyntaxException | UnsupportedEncodingException | IllegalArgumentException e) {
+			return failed(e);
+		}
+
+		final ResponseHandleBuilder<T> rhandler = new ResponseHandleBuilder<T>(getGson(projection), type, HttpStatus.SC_OK, true)
+				.setErrorStackTraces(config.isErrorStackTraces());
+
+		return execute(request, rhandler).thenApply(metadata -> {
+			// Cache etag
+			cache.setEtag(mongoId, rhandler.getEtag());
+
+			try {
+				// Cache `uid`/`mongo_id`
+				if(metadata instanceof LinkedTreeMap) {
+					cache.setMongoId(Client.findUid((LinkedTreeMap<?, ?>) metadata), mongoId);
+				} else if(metadata instanceof BasicMetaData && null != ((BasicMetaData) metadata).getUid()) {
+					cache.setMongoId(((BasicMetaData) metadata).getUid(), mongoId);
+				}
+			} catch(ClientException e) {
+				throw new CompletionException(e);
+			}
+
+			return metadata;
+		});
+	}
+
+	/**
+	 * @see Client#getByUid(String)
+	 * @param uid
+	 * @return The metadata
+	 */
+	public CompletableFuture<LinkedTreeMap<?, ?>> getByUid(final String uid) {
+		return getMongoIdByUid(uid).thenCompose(this::get);
+	}
+
+	/**
+	 * @see Client#getByUid(String, Class)
+	 * @param uid
+	 * @param type
+	 * @return The metadata
+	 */
+	public <T> CompletableFuture<T> getByUid(final String uid, final Class<T> type) {
+		return getMongoIdByUid(uid).thenCompose(mongoId -> get(mongoId, type));
+	}
+
+	/**
+	 * @see Client#getByUid(String, Class, String...)
+	 * @param uid
+	 * @param type
+	 * @param keys The keys or nothing for all keys
+	 * @return The metadata
+	 */
+	public <T> CompletableFuture<T> getByUid(final String uid, final Class<T> type, final String... keys) {
+		return getMongoIdByUid(uid).thenCompose(mongoId -> get(mongoId, type, keys));
+	}
+
+	/**
+	 * @see Client#update(String, String)
+	 * @param mongoId
+	 * @param metadata
+	 * @return The updated metadata
+	 */
+	public CompletableFuture<LinkedTreeMap<?, ?>> update(final String mongoId, final String metadata) {
+		return update(mongoId, metadata, false);
+	}
+
+	/**
+	 * @see Client#update(String, String, boolean)
+	 * @param mongoId
+	 * @param metadata
+	 * @param clearCache
+	 * @return The updated metadata
+	 */
+	public CompletableFuture<LinkedTreeMap<?, ?>> update(final String mongoId, final String metadata, final boolean clearCache) {
+		return updateOrReplace(mongoId, metadata, clearCache, Operation.UPDATE);
+	}
+
+	/**
+	 * @see Client#updateByUid(String, String)
+	 * @param uid
+	 * @param metadata
+	 * @return The updated metadata
+	 */
+	public CompletableFuture<LinkedTreeMap<?, ?>> updateByUid(final String uid, final String metadata) {
+		return updateByUid(uid, metadata, false);
+	}
+
+	/**
+	 * @see Client#updateByUid(String, String, boolean)
+	 * @param uid
+	 * @param metadata
+	 * @param clearCache
+	 * @return The updated metadata
+	 */
+	public CompletableFuture<LinkedTreeMap<?, ?>> updateByUid(final String uid, final String metadata, final boolean clearCache) {
+		return getMongoIdByUid(uid).thenCompose(mongoId -> update(mongoId, metadata, clearCache));
+	}
+
+	/**
+	 * @see Client#replace(String, String)
+	 * @param mongoId
+	 * @param metadata
+	 * @return The updated metadata
+	 */
+	public CompletableFuture<LinkedTreeMap<?, ?>> replace(final String mongoId, final String metadata) {
+		return replace(mongoId, metadata, false);
+	}
+
+	/**
+	 * @see Client#replace(String, String, boolean)
+	 * @param mongoId
+	 * @param metadata
+	 * @param clearCache
+	 * @return The updated metadata
+	 */
+	public CompletableFuture<LinkedTreeMap<?, ?>> replace(final String mongoId, final String metadata, final boolean clearCache) {
+		return updateOrReplace(mongoId, metadata, clearCache, Operation.REPLACE);
+	}
+
+	/**
+	 * @see Client#replaceByUid(String, String)
+	 * @param uid
+	 * @param metadata
+	 * @return The updated metadata
+	 */
+	public CompletableFuture<LinkedTreeMap<?, ?>> replaceByUid(final String uid, final String metadata) {
+		return replaceByUid(uid, metadata, false);
+	}
+
+	/**
+	 * @see Client#replaceByUid(String, String, boolean)
+	 * @param uid
+	 * @param metadata
+	 * @param clearCache
+	 * @return The updated metadata
+	 */
+	public CompletableFuture<LinkedTreeMap<?, ?>> replaceByUid(final String uid, final String metadata, final boolean clearCache) {
+		return getMongoIdByUid(uid).thenCompose(mongoId -> replace(mongoId, metadata, clearCache));
+	}
+
+	/**
+	 * @see Client#updateOrReplace(String, String, boolean, Operation)
+	 * @param mongoId
+	 * @param metadata
+	 * @param clearCache
+	 * @param operation
+	 * @return The updated metadata
+	 */
+	protected CompletableFuture<LinkedTreeMap<?, ?>> updateOrReplace(final String mongoId, final String metadata, final boolean clearCache, final Operation operation) {
+		if(null == metadata || metadata.isEmpty()) {
+			return failed(new IllegalArgumentException("No metadata given"));
+		}
+
+		if(config.isOptimisticUpdates()) {
+			// Recovers from a missing or stale etag, see Client#updateOrReplace()
+			return updateOrReplaceOptimistic(mongoId, metadata, getCachedEtag(mongoId), operation);
+		}
+
+		if(clearCache) {
+			cache.deleteEtag(mongoId);
+		}
+
+		final String etag = getCachedEtag(mongoId);
+
+		if(null == etag) {
+			// No etag in cache. get() caches it.
+			return get(mongoId).thenCompose(md -> {
+				final String queriedEtag = cache.getEtag(mongoId);
+
+				if(null == queriedEtag) {
+					return failed(new ClientException("Could not update file with `mongo_id` = " + mongoId + " because we could not find the etag"));
+				}
+
+				return updateOrReplace(mongoId, metadata, queriedEtag, operation);
+			});
+		}
+
+		return updateOrReplace(mongoId, metadata, etag, operation);
+	}
+
+	/**
+	 * Sends the update with the given etag, which may be <code>null</code>. If the etag does not match, the update
+	 * is sent once more with the current etag.
+	 *
+	 * @see ClientConfig.Builder#setOptimisticUpdates(boolean)
+	 */
+	private CompletableFuture<LinkedTreeMap<?, ?>> updateOrReplaceOptimistic(final String mongoId, final String metadata, final String etag, final Operation operation) {
+		return updateOrReplace(mongoId, metadata, etag, operation).<CompletableFuture<LinkedTreeMap<?, ?>>>handle((result, t) -> {
+			if(null == t) {
+				return CompletableFuture.<LinkedTreeMap<?, ?>>completedFuture(result);
+			}
+
+			final Throwable cause = t instanceof CompletionException && null != t.getCause() ? t.getCause() : t;
+
+			if(!(cause instanceof ConflictError || cause instanceof PreconditionFailedError)) {
+				return AsyncClient.<LinkedTreeMap<?, ?>>failed(cause);
+			}
+
+			final String currentEtag = ((Error) cause).getEtag();
+
+			if(null != currentEtag) {
+				return currentEtag.equals(etag) ? AsyncClient.<LinkedTreeMap<?, ?>>failed(cause) : updateOrReplace(mongoId, metadata, currentEtag, operation);
+			}
+
+			// The server did not tell us the current etag
+			cache.deleteEtag(mongoId);
+
+			return get(mongoId).thenCompose(md -> {
+				final String queriedEtag = cache.getEtag(mongoId);
+
+				if(null == queriedEtag || queriedEtag.equals(etag)) {
+					return AsyncClient.<LinkedTreeMap<?, ?>>failed(cause);
+				}
+
+				return updateOrReplace(mongoId, metadata, queriedEtag, operation);
+			});
+		}).thenCompose(future -> future);
+	}
+
+	private CompletableFuture<LinkedTreeMap<?, ?>> updateOrReplace(final String mongoId, final String metadata, final String etag, final Operation operation) {
+		HttpEntityEnclosingRequestBase request = null;
+
+		try {
+			final URI uri = fileUri(mongoId);
+
+			switch(operation) {
+				case REPLACE:
+					request = new HttpPut(uri);
+					break;
+
+				case UPDATE:
+					request = new HttpPatch(uri);
+					break;
+
+				default:
+					throw new UnsupportedOperationException("Operation " + operation + " is not supported.");
+			}
+		} catch(URISyntaxException | UnsupportedEncodingException e) {
+			return failed(e);
+		}
+
+		request.setEntity(new StringEntity(metadata, ContentType.APPLICATION_JSON));
+
+		if(null != etag) {
+			request.addHeader("If-None-Match", etag);
+		}
+
+		final ResponseHandleBuilder<Object> rhandler = new ResponseHandleBuilder<Object>(gson, Object.class, HttpStatus.SC_OK, true)
+				.setErrorStackTraces(config.isErrorStackTraces());
+
+		return execute(request, rhandler).thenApply(response -> {
+			// Cache etag
+			cache.setEtag(mongoId, rhandler.getEtag());
+
+			return (LinkedTreeMap<?, ?>) response;
+		});
+	}
+
+	/**
+	 * @see Client#delete(String)
+	 * @param mongoId
+	 * @return A future that is completed when the metadata has been deleted
+	 */
+	public CompletableFuture<Void> delete(final String mongoId) {
+		if(null == mongoId || 0 == mongoId.length()) {
+			return failed(new IllegalArgumentException("No mongo_id given"));
+		}
+
+		final HttpDelete request;
+		try {
+			request = new HttpDelete(fileUri(mongoId));
+		} catch(URISyntaxException | UnsupportedEncodingException e) {
+			return failed(e);
+		}
+
+		return execute(request, new ResponseHandleBuilder<Void>(gson, null, HttpStatus.SC_NO_CONTENT)
+				.setErrorStackTraces(config.isErrorStackTraces())).thenAccept(response -> {
+			cache.clearCacheByMongoId(mongoId);
+		});
+	}
+
+	/**
+	 * @see Client#deleteByUid(String)
+	 * @param uid
+	 * @return A future that is completed when the metadata has been deleted
+	 */
+	public CompletableFuture<Void> deleteByUid(final String uid) {
+		return getMongoIdByUid(uid).thenCompose(this::delete);
+	}
+
+	/**
+	 * Queries the `mongo_id` of an uncached `uid`. Lookups that are issued concurrently are batched: the
+	 * `uid`s are queried in chunks of {@link ClientConfig#getResolveChunkSize()} with one
+	 * <code>{"uid": {"$in": [...]}}</code> query per chunk, and concurrent lookups of the same `uid` share
+	 * one query.
+	 *
+	 * @see Client#getMongoIdByUid(String)
+	 * @param uid
+	 * @return The `mongo_id`. The future fails with a {@link ClientException} if the `uid` is not present in the file catalog.
+	 */
+	protected CompletableFuture<String> getMongoIdByUid(final String uid) {
+		final String mongoId = getCachedMongoId(uid);
+
+		if(null != mongoId) {
+			return CompletableFuture.completedFuture(mongoId);
+		}
+
+		final CompletableFuture<String> future = new CompletableFuture<>();
+		final CompletableFuture<String> running = lookups.putIfAbsent(uid, future);
+
+		if(null != running) {
+			return running;
+		}
+
+		pendingLookups.add(uid);
+
+		if(lookupScheduled.compareAndSet(false, true)) {
+			try {
+				scheduler.execute(this::flushLookups);
+			} catch(RejectedExecutionException e) {
+				// The client has been closed
+				lookupScheduled.set(false);
+				failLookups(Arrays.asList(uid), e);
+			}
+		}
+
+		return future;
+	}
+
+	/**
+	 * Finds the corresponding `mongo_id`s for many `uid`s at once.
+	 *
+	 * @see Client#resolveMongoIds(Collection)
+	 * @see #getMongoIdByUid(String)
+	 * @param uids
+	 * @return The `uid`/`mongo_id` mapping in the order of the given `uid`s. `uid`s that are not present
+	 * in the file catalog are not contained.
+	 */
+	public CompletableFuture<Map<String, String>> resolveMongoIds(final Collection<String> uids) {
+		final List<String> unique = new ArrayList<>(new LinkedHashSet<>(uids));
+		final List<CompletableFuture<String>> futures = new ArrayList<>();
+
+		for(String uid: unique) {
+			// Missing uids are not an error
+			futures.add(getMongoIdByUid(uid).exceptionally(e -> {
+				if(e instanceof ClientException || e.getCause() instanceof ClientException) {
+					return null;
+				}
+
+				throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+			}));
+		}
+
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+			final Map<String, String> result = new LinkedHashMap<>();
+
+			for(int i = 0; i < unique.size(); ++i) {
+				final String mongoId = futures.get(i).join();
+
+				if(null != mongoId) {
+					result.put(unique.get(i), mongoId);
+				}
+			}
+
+			return result;
+		});
+	}
+
+	/**
+	 * Sends the queued lookups in chunks.
+	 */
+	private void flushLookups() {
+		// Lookups that arrive from now on schedule another flush
+		lookupScheduled.set(false);
+
+		final int chunkSize = config.getResolveChunkSize();
+
+		while(!pendingLookups.isEmpty()) {
+			final List<String> chunk = new ArrayList<>(chunkSize);
+
+			for(String uid; chunk.size() < chunkSize && null != (uid = pendingLookups.poll());) {
+				chunk.add(uid);
+			}
+
+			if(!chunk.isEmpty()) {
+				resolveChunk(chunk, new HashSet<>(chunk), 0, null);
+			}
+		}
+	}
+
+	/**
+	 * Queries the `mongo_id`s of one chunk of `uid`s. Pages are fetched until all `uid`s have been found or the
+	 * server returns an empty page. The lookups of the `uid`s that have not been found fail.
+	 *
+	 * @see ClientConfig#isKeysetPagination()
+	 * @param uids The chunk
+	 * @param pending The `uid`s of the chunk that have not been found yet
+	 * @param start The number of files on the previous pages
+	 * @param after The last `mongo_id` of the previous page or <code>null</code>
+	 */
+	private void resolveChunk(final List<String> uids, final Set<String> pending, int start, final String after) {
+		final JsonArray in = new JsonArray();
+		for(String uid: uids) {
+			in.add(uid);
+		}
+
+		final JsonObject condition = new JsonObject();
+		condition.add("$in", in);
+
+		final JsonObject query = new JsonObject();
+		query.add("uid", condition);
+
+		final CompletableFuture<FileList> page = config.isKeysetPagination()
+				? getListAfter(query.toString(), uids.size(), after)
+				: getList(query.toString(), uids.size(), start);
+
+		page.whenComplete((list, e) -> {
+			if(null != e) {
+				failLookups(pending, e instanceof CompletionException ? e.getCause() : e);
+				return;
+			}
+
+			final BasicMetaData[] files = list.getEmbedded().getFiles();
+
+			for(BasicMetaData file: files) {
+				if(pending.remove(file.getUid())) {
+					completeLookup(file.getUid(), file.getMongoId());
+				}
+			}
+
+			if(0 == files.length || pending.isEmpty()) {
+				for(String uid: pending) {
+					failLookups(Arrays.asList(uid), new ClientException("The uid `" + uid +"` is not present in the file catalog"));
+				}
+			} else {
+				resolveChunk(uids, pending, start + files.length, files[files.length - 1].getMongoId());
+			}
+		});
+	}
+
+	private void completeLookup(final String uid, final String mongoId) {
+		final CompletableFuture<String> future = lookups.remove(uid);
+
+		if(null != future) {
+			future.complete(mongoId);
+		}
+	}
+
+	private void failLookups(final Collection<String> uids, final Throwable e) {
+		for(String uid: uids) {
+			final CompletableFuture<String> future = lookups.remove(uid);
+
+			if(null != future) {
+				future.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * @see Client#getGson(String)
+	 * @param keys The value of the `keys` parameter or <code>null</code>
+	 * @return The parser for the projection
+	 */
+	protected Gson getGson(final String keys) {
+		if(null == keys) {
+			return gson;
+		}
+
+		Gson projection = projections.get(keys);
+
+		if(null == projection) {
+			projection = Client.createGson(Arrays.asList(keys.split("\\|")));
+			projections.put(keys, projection);
+		}
+
+		return projection;
+	}
+
+	private URI fileUri(final String mongoId) throws URISyntaxException, UnsupportedEncodingException {
+		return Client.fileUri(files, mongoId);
+	}
+
+	private static <T> CompletableFuture<T> failed(final Throwable t) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		future.completeExceptionally(t);
+		return future;
+	}
+}
@@ -0,0 +1,182 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe map with a maximum size that evicts the least recently used entries.
+ *
+ * The map is split into independently locked segments (lock striping), so concurrent readers and writers
+ * of different keys rarely contend. The LRU order is maintained per segment, i.e. the eviction is an
+ * approximation of a global LRU that is exact if there is only one segment.
+ *
+ * @param <K>
+ * @param <V>
+ */
+class BoundedLruMap<K, V> {
+	private static final int MAX_SEGMENTS = 16;
+
+	private final Segment<K, V>[] segments;
+	private final int mask;
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxSize Maximum number of entries. Must be positive.
+	 */
+	BoundedLruMap(int maxSize) {
+		this(Math.min(maxSize, 16 * 1024), maxSize);
+	}
+
+	/**
+	 * @param initialCapacity Number of entries the map can hold before it has to grow
+	 * @param maxSize Maximum number of entries. Must be positive.
+	 */
+	@SuppressWarnings("unchecked")
+	BoundedLruMap(int initialCapacity, int maxSize) {
+		if(maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be positive");
+		}
+
+		if(initialCapacity < 0) {
+			throw new IllegalArgumentException("initialCapacity must not be negative");
+		}
+
+		// Every segment should hold at least a few entries
+		int n = 1;
+		while(n < MAX_SEGMENTS && n * 2 * 4 <= maxSize) {
+			n *= 2;
+		}
+
+		this.segments = (Segment<K, V>[]) new Segment<?, ?>[n];
+		this.mask = n - 1;
+
+		for(int i = 0; i < n; ++i) {
+			// Distribute the remainder over the first segments
+			final int capacity = maxSize / n + (i < maxSize % n ? 1 : 0);
+			this.segments[i] = new Segment<>(Math.min(initialCapacity / n + 1, capacity), capacity, this);
+		}
+	}
+
+	private Segment<K, V> segmentFor(final Object key) {
+		int h = null == key ? 0 : key.hashCode();
+		// Spread the bits since the segment is selected by the lower bits
+		h ^= (h >>> 16);
+		return segments[h & mask];
+	}
+
+	V get(final K key) {
+		final Segment<K, V> s = segmentFor(key);
+
+		synchronized(s) {
+			return s.get(key);
+		}
+	}
+
+	boolean containsKey(final K key) {
+		final Segment<K, V> s = segmentFor(key);
+
+		synchronized(s) {
+			return s.containsKey(key);
+		}
+	}
+
+	V put(final K key, final V value) {
+		final Segment<K, V> s = segmentFor(key);
+
+		synchronized(s) {
+			return s.put(key, value);
+		}
+	}
+
+	V remove(final K key) {
+		final Segment<K, V> s = segmentFor(key);
+
+		synchronized(s) {
+			return s.remove(key);
+		}
+	}
+
+	/**
+	 * Removes the entry only if it is currently mapped to the given value.
+	 *
+	 * @param key
+	 * @param value
+	 * @return <code>true</code> if the entry has been removed.
+	 */
+	boolean remove(final K key, final V value) {
+		final Segment<K, V> s = segmentFor(key);
+
+		synchronized(s) {
+			return s.remove(key, value);
+		}
+	}
+
+	/**
+	 * Returns the lock that guards the given key. Holding it makes a sequence of operations on this key
+	 * atomic, e.g. in order to keep a secondary index consistent. The lock is reentrant.
+	 *
+	 * @param key
+	 * @return
+	 */
+	Object lockFor(final K key) {
+		return segmentFor(key);
+	}
+
+	int size() {
+		int size = 0;
+
+		for(Segment<K, V> s: segments) {
+			synchronized(s) {
+				size += s.size();
+			}
+		}
+
+		return size;
+	}
+
+	void clear() {
+		for(Segment<K, V> s: segments) {
+			synchronized(s) {
+				s.clear();
+			}
+		}
+	}
+
+	long evictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Called with the lock of the key held when an entry is evicted because the map is full.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	protected void onEviction(final K key, final V value) {}
+
+	private static class Segment<K, V> extends LinkedHashMap<K, V> {
+		private static final long serialVersionUID = 7311263340215926741L;
+
+		private final int capacity;
+		private final BoundedLruMap<K, V> owner;
+
+		Segment(int initialCapacity, int capacity, final BoundedLruMap<K, V> owner) {
+			// Access order for LRU
+			super(initialCapacity, 0.75f, true);
+			this.capacity = capacity;
+			this.owner = owner;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+			if(size() > capacity) {
+				owner.evictions.increment();
+				owner.onEviction(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+
+			return false;
+		}
+	}
+}
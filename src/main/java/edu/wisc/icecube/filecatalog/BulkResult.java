@@ -0,0 +1,132 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The results of a bulk operation, e.g. {@link Client#createAll(Iterable)}. There is one {@link Item}
+ * per input item in the order of the input. A failed item does not fail the whole operation.
+ *
+ * @param <T> Type of the result of one item
+ */
+public class BulkResult<T> implements Iterable<BulkResult.Item<T>> {
+	private final List<Item<T>> items;
+	private final long elapsed;
+	private final int failed;
+
+	/**
+	 * @param items The items in the order of the input
+	 * @param elapsed Duration of the whole operation in nanoseconds
+	 */
+	public BulkResult(final List<Item<T>> items, long elapsed) {
+		this.items = Collections.unmodifiableList(items);
+		this.elapsed = elapsed;
+
+		int failed = 0;
+		for(Item<T> item: items) {
+			if(!item.isSuccess()) {
+				++failed;
+			}
+		}
+
+		this.failed = failed;
+	}
+
+	/**
+	 * @return All items in the order of the input.
+	 */
+	public List<Item<T>> getItems() {
+		return items;
+	}
+
+	@Override
+	public Iterator<Item<T>> iterator() {
+		return items.iterator();
+	}
+
+	/**
+	 * @return Number of items.
+	 */
+	public int size() {
+		return items.size();
+	}
+
+	/**
+	 * @return Number of items that have succeeded.
+	 */
+	public int getSucceeded() {
+		return items.size() - failed;
+	}
+
+	/**
+	 * @return Number of items that have failed.
+	 */
+	public int getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @param unit
+	 * @return Duration of the whole operation.
+	 */
+	public long getElapsed(final TimeUnit unit) {
+		return unit.convert(elapsed, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return Processed items per second.
+	 */
+	public double getThroughput() {
+		return 0 == elapsed ? 0 : items.size() * 1e9 / elapsed;
+	}
+
+	@Override
+	public String toString() {
+		return "BulkResult [size=" + items.size() + ", succeeded=" + getSucceeded() + ", failed=" + failed
+				+ ", elapsed=" + getElapsed(TimeUnit.MILLISECONDS) + "ms, throughput=" + String.format("%.1f", getThroughput()) + "/s]";
+	}
+
+	/**
+	 * The result of one item: either a result or the exception that has been thrown.
+	 *
+	 * @param <T>
+	 */
+	public static class Item<T> {
+		private final int index;
+		private final T result;
+		private final Exception error;
+
+		public Item(int index, final T result, final Exception error) {
+			this.index = index;
+			this.result = result;
+			this.error = error;
+		}
+
+		/**
+		 * @return Position of the item in the input.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return The result or <code>null</code> if the item has failed.
+		 */
+		public T getResult() {
+			return result;
+		}
+
+		/**
+		 * @return The exception, e.g. an {@link Error}, or <code>null</code> if the item has succeeded.
+		 */
+		public Exception getError() {
+			return error;
+		}
+
+		public boolean isSuccess() {
+			return null == error;
+		}
+	}
+}
@@ -1,112 +1,355 @@
 package edu.wisc.icecube.filecatalog;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Caches the `uid`/`mongo_id` mappings and the `etag`s of the files.
+ *
+ * The cache is thread-safe and bounded: each of the two mappings holds at most <code>maxSize</code> entries.
+ * If a mapping is full, the least recently used entry is evicted. Optionally, `etag`s expire after a given time.
+ *
+ * The `uid`/`mongo_id` mapping is bidirectional, so that it can be invalidated by either key in constant time.
+ *
+ * @see #getStats()
+ */
 public class Cache {
-	protected Map<String, String> mongoId;
-	protected Map<String, String> etag;
-	
+	/**
+	 * Default maximum number of entries per mapping.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 100000;
+
+	/**
+	 * Default initial capacity per mapping.
+	 */
+	public static final int DEFAULT_INITIAL_CAPACITY = 20;
+
+	private final BoundedLruMap<String, String> mongoId;
+	private final Map<String, String> uid;
+	private final BoundedLruMap<String, Etag> etag;
+
+	private final long etagTtl;
+	private final LongAdder mongoIdHits = new LongAdder();
+	private final LongAdder mongoIdMisses = new LongAdder();
+	private final LongAdder etagHits = new LongAdder();
+	private final LongAdder etagMisses = new LongAdder();
+
 	public Cache() {
-		this(20);
+		this(custom());
 	}
-	
+
+	/**
+	 * Creates a cache that holds at most {@link #DEFAULT_MAX_SIZE} entries per mapping.
+	 *
+	 * @param initialCapacity Initial capacity per mapping.
+	 */
 	public Cache(int initialCapacity) {
-		this.mongoId = new HashMap<>(initialCapacity);
-		this.etag = new HashMap<>(initialCapacity);
+		this(custom().setInitialCapacity(initialCapacity));
+	}
+
+	/**
+	 * @see #custom()
+	 * @param builder
+	 */
+	protected Cache(final Builder builder) {
+		final int initialCapacity = Math.min(builder.initialCapacity, builder.maxSize);
+
+		this.uid = new ConcurrentHashMap<>(initialCapacity);
+		this.mongoId = new BoundedLruMap<String, String>(initialCapacity, builder.maxSize) {
+			@Override
+			protected void onEviction(final String uid, final String mongoId) {
+				Cache.this.uid.remove(mongoId, uid);
+			}
+		};
+		this.etag = new BoundedLruMap<>(initialCapacity, builder.maxSize);
+		this.etagTtl = builder.etagTtl;
 	}
-	
+
+	/**
+	 * Creates a builder for a cache with custom limits.
+	 *
+	 * <b>Example:</b>
+	 * <pre>final Cache cache = Cache.custom()
+	 * 		.setMaxSize(1000000)
+	 * 		.setEtagTtl(10, TimeUnit.MINUTES)
+	 * 		.build();</pre>
+	 *
+	 * @return A builder with the default settings.
+	 */
+	public static Builder custom() {
+		return new Builder();
+	}
+
 	/**
 	 * Returns the `mongo_id` that is mapped to the given `uid`. If the `uid` is not mapped, `null` is returned.
-	 * 
+	 *
 	 * @see Map#get(Object)
 	 * @param uid
 	 * @return The `mongo_id`.
 	 */
 	public String getMongoId(final String uid) {
-		return this.mongoId.get(uid);
+		final String result = this.mongoId.get(uid);
+
+		if(null == result) {
+			mongoIdMisses.increment();
+		} else {
+			mongoIdHits.increment();
+		}
+
+		return result;
 	}
-	
+
 	/**
 	 * Returns `true` if the `uid` is mapped to a `mongo_id`.
-	 * 
+	 *
 	 * @param uid
 	 * @return
 	 */
 	public boolean hasMongoId(final String uid) {
 		return this.mongoId.containsKey(uid);
 	}
-	
+
 	/**
 	 * Removes the `mongo_id` from the cache.
-	 * 
+	 *
 	 * <b>Note:</b> This method takes the `mongo_id` <b>not</b> the `uid`.
-	 * 
+	 *
 	 * @param mongoId
 	 */
 	public void deleteMongoId(final String mongoId) {
-		this.mongoId.values().remove(mongoId);
+		final String uid = this.uid.get(mongoId);
+
+		if(null == uid) {
+			return;
+		}
+
+		synchronized(this.mongoId.lockFor(uid)) {
+			this.mongoId.remove(uid, mongoId);
+			this.uid.remove(mongoId, uid);
+		}
 	}
-	
+
+	/**
+	 * Removes the `uid` and its `mongo_id` from the cache.
+	 *
+	 * @param uid
+	 */
+	public void deleteUid(final String uid) {
+		synchronized(this.mongoId.lockFor(uid)) {
+			final String mongoId = this.mongoId.remove(uid);
+
+			if(null != mongoId) {
+				this.uid.remove(mongoId, uid);
+			}
+		}
+	}
+
+	/**
+	 * Returns the `uid` that is mapped to the given `mongo_id`. If the `mongo_id` is not mapped, `null` is returned.
+	 *
+	 * @param mongoId
+	 * @return The `uid`.
+	 */
+	public String getUid(final String mongoId) {
+		return this.uid.get(mongoId);
+	}
+
 	/**
 	 * Sets the pair `uid` and `mongo_id`. If the `uid` already exists, it will be replaced.
-	 * 
+	 *
 	 * @see Map#put(Object, Object)
 	 * @param uid
 	 * @param mongoId
 	 */
 	public void setMongoId(final String uid, final String mongoId) {
-		this.mongoId.put(uid, mongoId);
+		final String previousUid;
+
+		synchronized(this.mongoId.lockFor(uid)) {
+			final String previousMongoId = this.mongoId.put(uid, mongoId);
+
+			if(null != previousMongoId && !previousMongoId.equals(mongoId)) {
+				this.uid.remove(previousMongoId, uid);
+			}
+
+			previousUid = this.uid.put(mongoId, uid);
+		}
+
+		// The `mongo_id` has been mapped to another `uid` before. Take the lock of
+		// the other `uid` only after releasing ours, so that locks are never nested.
+		if(null != previousUid && !previousUid.equals(uid)) {
+			synchronized(this.mongoId.lockFor(previousUid)) {
+				this.mongoId.remove(previousUid, mongoId);
+			}
+		}
 	}
-	
+
 	/**
 	 * Clears all mappings that correspond to the given `mongo_id`.
-	 * 
+	 *
 	 * @param mongoId
 	 */
 	public void clearCacheByMongoId(final String mongoId) {
 		deleteMongoId(mongoId);
 		deleteEtag(mongoId);
 	}
-	
+
 	/**
-	 * Returns the `etag` that is mapped to the given `mongo_id`. If the `mongo_id` is not mapped, `null` is returned.
-	 * 
+	 * Returns the `etag` that is mapped to the given `mongo_id`. If the `mongo_id` is not mapped
+	 * or the `etag` has expired, `null` is returned.
+	 *
 	 * @see Map#get(Object)
 	 * @param mongoId
 	 * @return The `etag`.
 	 */
 	public String getEtag(final String mongo_id) {
-		return this.etag.get(mongo_id);
+		final Etag result = this.etag.get(mongo_id);
+
+		if(null != result && result.isExpired()) {
+			this.etag.remove(mongo_id, result);
+		} else if(null != result) {
+			etagHits.increment();
+			return result.value;
+		}
+
+		etagMisses.increment();
+		return null;
 	}
-	
+
 	/**
-	 * Returns `true` if the `mongo_id` is mapped to a `etag`.
-	 * 
+	 * Returns `true` if the `mongo_id` is mapped to a `etag` that has not expired.
+	 *
 	 * @param mongoId
 	 * @return
 	 */
 	public boolean hasEtag(final String mongoId) {
-		return this.etag.containsKey(mongoId);
+		final Etag result = this.etag.get(mongoId);
+		return null != result && !result.isExpired();
 	}
-	
+
 	/**
 	 * Removes the `etag` from the cache.
-	 * 
+	 *
 	 * @param mongoId
 	 */
 	public void deleteEtag(final String mongoId) {
 		this.etag.remove(mongoId);
 	}
-	
+
 	/**
 	 * Sets the pair `mongo_id` and `etag`. If the `mongo_id` already exists, it will be replaced.
-	 * 
+	 *
 	 * @see Map#put(Object, Object)
 	 * @param etag
 	 * @param mongoId
 	 */
 	public void setEtag(final String mongoId, final String etag) {
-		this.etag.put(mongoId, etag);
+		this.etag.put(mongoId, new Etag(etag, etagTtl > 0 ? System.nanoTime() + etagTtl : 0));
+	}
+
+	/**
+	 * Removes all mappings.
+	 */
+	public void clear() {
+		this.mongoId.clear();
+		this.uid.clear();
+		this.etag.clear();
+	}
+
+	/**
+	 * @return A snapshot of the hit/miss/eviction counters and the current size of the cache.
+	 */
+	public CacheStats getStats() {
+		return new CacheStats(mongoIdHits.sum(), mongoIdMisses.sum(), etagHits.sum(), etagMisses.sum(),
+							  mongoId.evictions() + etag.evictions(), mongoId.size(), etag.size());
+	}
+
+	/**
+	 * Builds a {@link Cache}. The setters validate their arguments and return the builder, so that calls can be
+	 * chained.
+	 */
+	public static class Builder {
+		private int initialCapacity = DEFAULT_INITIAL_CAPACITY;
+		private int maxSize = DEFAULT_MAX_SIZE;
+		private long etagTtl = 0;
+
+		protected Builder() {
+		}
+
+		/**
+		 * Sets the initial capacity per mapping. It is capped at the maximum size. Default: 20
+		 *
+		 * @param initialCapacity
+		 * @return This builder
+		 */
+		public Builder setInitialCapacity(int initialCapacity) {
+			if(initialCapacity < 0) {
+				throw new IllegalArgumentException("initialCapacity must not be negative");
+			}
+
+			this.initialCapacity = initialCapacity;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of entries per mapping. Default: 100000
+		 *
+		 * @param maxSize
+		 * @return This builder
+		 */
+		public Builder setMaxSize(int maxSize) {
+			if(maxSize < 1) {
+				throw new IllegalArgumentException("maxSize must be positive");
+			}
+
+			this.maxSize = maxSize;
+			return this;
+		}
+
+		/**
+		 * Sets the time after an `etag` expires. Default: <code>0</code>, i.e. `etag`s never expire
+		 *
+		 * @param etagTtl
+		 * @param unit
+		 * @return This builder
+		 */
+		public Builder setEtagTtl(long etagTtl, final TimeUnit unit) {
+			if(etagTtl < 0) {
+				throw new IllegalArgumentException("etagTtl must not be negative");
+			}
+
+			this.etagTtl = unit.toNanos(etagTtl);
+			return this;
+		}
+
+		public Cache build() {
+			return new Cache(this);
+		}
+	}
+
+	/**
+	 * An `etag` with its expiration time.
+	 */
+	private static class Etag {
+		private final String value;
+		private final long expiresAt;
+
+		/**
+		 * @param value
+		 * @param expiresAt Expiration time in terms of {@link System#nanoTime()} or <code>0</code> if it never expires.
+		 */
+		public Etag(final String value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public boolean isExpired() {
+			return 0 != expiresAt && System.nanoTime() - expiresAt > 0;
+		}
 	}
 }
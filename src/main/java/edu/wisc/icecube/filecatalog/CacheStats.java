@@ -0,0 +1,82 @@
+package edu.wisc.icecube.filecatalog;
+
+/**
+ * Immutable snapshot of the counters of a {@link Cache}.
+ *
+ * @see Cache#getStats()
+ */
+public class CacheStats {
+	private final long mongoIdHits;
+	private final long mongoIdMisses;
+	private final long etagHits;
+	private final long etagMisses;
+	private final long evictions;
+	private final int mongoIdSize;
+	private final int etagSize;
+
+	public CacheStats(long mongoIdHits, long mongoIdMisses, long etagHits, long etagMisses, long evictions, int mongoIdSize, int etagSize) {
+		this.mongoIdHits = mongoIdHits;
+		this.mongoIdMisses = mongoIdMisses;
+		this.etagHits = etagHits;
+		this.etagMisses = etagMisses;
+		this.evictions = evictions;
+		this.mongoIdSize = mongoIdSize;
+		this.etagSize = etagSize;
+	}
+
+	/**
+	 * @return Number of `uid` lookups that found a `mongo_id`.
+	 */
+	public long getMongoIdHits() {
+		return mongoIdHits;
+	}
+
+	/**
+	 * @return Number of `uid` lookups that did not find a `mongo_id`.
+	 */
+	public long getMongoIdMisses() {
+		return mongoIdMisses;
+	}
+
+	/**
+	 * @return Number of `mongo_id` lookups that found an `etag`.
+	 */
+	public long getEtagHits() {
+		return etagHits;
+	}
+
+	/**
+	 * @return Number of `mongo_id` lookups that did not find an `etag` (or only an expired one).
+	 */
+	public long getEtagMisses() {
+		return etagMisses;
+	}
+
+	/**
+	 * @return Number of entries that have been evicted because the cache was full.
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return Current number of `uid`/`mongo_id` mappings.
+	 */
+	public int getMongoIdSize() {
+		return mongoIdSize;
+	}
+
+	/**
+	 * @return Current number of `mongo_id`/`etag` mappings.
+	 */
+	public int getEtagSize() {
+		return etagSize;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStats [mongoIdHits=" + mongoIdHits + ", mongoIdMisses=" + mongoIdMisses + ", etagHits=" + etagHits
+				+ ", etagMisses=" + etagMisses + ", evictions=" + evictions + ", mongoIdSize=" + mongoIdSize
+				+ ", etagSize=" + etagSize + "]";
+	}
+}
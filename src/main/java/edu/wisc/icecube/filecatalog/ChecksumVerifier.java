@@ -0,0 +1,381 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import edu.wisc.icecube.filecatalog.gson.FileMetadata;
+
+/**
+ * Checks that the local files of the catalog entries still match their sha512 `checksum`.
+ *
+ * The entries are streamed from the {@link Client} with only the keys that are needed, while a pool of threads
+ * hashes the files. Large files are memory-mapped in windows of {@link #MAP_SIZE} bytes, small files are read into
+ * a direct buffer per thread, so the data is not copied onto the heap and the throughput is bound by the disk
+ * rather than by the client. At most two files per thread are queued, i.e. the catalog is not held in memory.
+ *
+ * The first location of an entry that is a local path (or a <code>file:</code> URI) is verified. Entries without a
+ * local location or without a sha512 checksum are skipped. If the file size of an entry is known and differs, the
+ * file is reported as mismatch without hashing it.
+ *
+ * <b>Example:</b>
+ * <pre>final ChecksumVerifier verifier = new ChecksumVerifier(c, Paths.get("/data"), 8);
+ * final ChecksumVerifier.Report report = verifier.verify(null, 1000);
+ *
+ * for(final ChecksumVerifier.Result result: report.getProblems()) {
+ * 	System.out.println(result);
+ * }</pre>
+ */
+public class ChecksumVerifier {
+	/**
+	 * Files up to this size are read into a direct buffer, larger files are memory-mapped.
+	 */
+	public static final int BUFFER_SIZE = FileHasher.BUFFER_SIZE;
+
+	/**
+	 * The size of the windows of a memory-mapped file.
+	 */
+	public static final long MAP_SIZE = FileHasher.MAP_SIZE;
+
+	private static final String[] KEYS = {"filesize", "locations", "checksum"};
+
+	private final Client client;
+	private final Path root;
+	private final int threads;
+	private final FileHasher hasher = new FileHasher();
+
+	/**
+	 * @param client
+	 * @param root The directory the locations are relative to or <code>null</code> if the locations are absolute paths
+	 * @param threads Number of files that are hashed concurrently
+	 */
+	public ChecksumVerifier(final Client client, final Path root, int threads) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("threads must be positive");
+		}
+
+		this.client = client;
+		this.root = root;
+		this.threads = threads;
+	}
+
+	/**
+	 * Verifies all files that match the `query`.
+	 *
+	 * @param query JSON style string or <code>null</code> for all files
+	 * @param pageSize Number of files per request
+	 * @return
+	 * @throws IOException If the file list cannot be read. Errors of single files are reported in the {@link Report}.
+	 */
+	public Report verify(final String query, int pageSize) throws IOException {
+		try(final Stream<FileMetadata> files = client.stream(query, pageSize, KEYS)) {
+			return verify(files.iterator());
+		}
+	}
+
+	/**
+	 * Verifies the given catalog entries, e.g. of {@link Client#parallelStream(String, int, List, String...)}.
+	 *
+	 * @param files Entries with the keys `locations`, `checksum` and, optionally, `filesize`
+	 * @return
+	 * @throws IOException If the entries cannot be read. Errors of single files are reported in the {@link Report}.
+	 */
+	public Report verify(final Iterator<FileMetadata> files) throws IOException {
+		final ExecutorService pool = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("checksum-verifier"));
+		final Semaphore permits = new Semaphore(2 * threads);
+		final Report report = new Report();
+		final long started = System.nanoTime();
+
+		try {
+			while(files.hasNext()) {
+				final FileMetadata file = files.next();
+				final Path path = getLocalPath(file);
+				final String expected = null == file.getChecksum() ? null : file.getChecksum().getSha512();
+
+				if(null == path || null == expected) {
+					report.skipped.increment();
+					continue;
+				}
+
+				permits.acquire();
+
+				try {
+					pool.execute(() -> {
+						try {
+							verify(file, path, expected, report);
+						} finally {
+							permits.release();
+						}
+					});
+				} catch(RuntimeException e) {
+					permits.release();
+					throw e;
+				}
+			}
+
+			// Wait for the running hashes
+			permits.acquire(2 * threads);
+			permits.release(2 * threads);
+		} catch(UncheckedIOException e) {
+			throw e.getCause();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while verifying files");
+		} finally {
+			pool.shutdownNow();
+		}
+
+		report.elapsed = System.nanoTime() - started;
+		return report;
+	}
+
+	private void verify(final FileMetadata file, final Path path, final String expected, final Report report) {
+		try(final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long size = channel.size();
+
+			if(FileMetadata.UNKNOWN_FILESIZE != file.getFilesize() && size != file.getFilesize()) {
+				report.add(new Result(Status.MISMATCH, file, path, "filesize " + file.getFilesize(), "filesize " + size, null));
+				return;
+			}
+
+			final String actual = hasher.sha512(channel, size);
+			report.bytes.add(size);
+
+			if(expected.equalsIgnoreCase(actual)) {
+				report.verified.increment();
+			} else {
+				report.add(new Result(Status.MISMATCH, file, path, expected, actual, null));
+			}
+		} catch(NoSuchFileException e) {
+			report.add(new Result(Status.MISSING, file, path, expected, null, null));
+		} catch(IOException e) {
+			report.add(new Result(Status.ERROR, file, path, expected, null, e));
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return The first location that is a local path, resolved against the root, or <code>null</code>.
+	 */
+	protected Path getLocalPath(final FileMetadata file) {
+		if(null == file.getLocations()) {
+			return null;
+		}
+
+		for(String location: file.getLocations()) {
+			if(null == location || location.isEmpty()) {
+				continue;
+			}
+
+			String path = location;
+
+			if(location.contains("://") || location.startsWith("file:")) {
+				final URI uri;
+				try {
+					uri = URI.create(location);
+				} catch(IllegalArgumentException e) {
+					continue;
+				}
+
+				if(!"file".equalsIgnoreCase(uri.getScheme())) {
+					continue;
+				}
+
+				path = uri.getPath();
+			}
+
+			if(null == root) {
+				return Paths.get(path);
+			}
+
+			// Locations are absolute in the catalog, but relative to the root
+			int start = 0;
+			while(start < path.length() && '/' == path.charAt(start)) {
+				++start;
+			}
+
+			return root.resolve(path.substring(start));
+		}
+
+		return null;
+	}
+
+	public enum Status {
+		/**
+		 * The checksum or the file size differs from the catalog.
+		 */
+		MISMATCH,
+
+		/**
+		 * The file does not exist.
+		 */
+		MISSING,
+
+		/**
+		 * The file could not be read.
+		 */
+		ERROR
+	}
+
+	/**
+	 * A file that does not match its catalog entry.
+	 */
+	public static class Result {
+		private final Status status;
+		private final FileMetadata file;
+		private final Path path;
+		private final String expected;
+		private final String actual;
+		private final IOException error;
+
+		Result(final Status status, final FileMetadata file, final Path path, final String expected, final String actual, final IOException error) {
+			this.status = status;
+			this.file = file;
+			this.path = path;
+			this.expected = expected;
+			this.actual = actual;
+			this.error = error;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return The catalog entry.
+		 */
+		public FileMetadata getFile() {
+			return file;
+		}
+
+		/**
+		 * @return The local path of the file.
+		 */
+		public Path getPath() {
+			return path;
+		}
+
+		/**
+		 * @return The checksum of the catalog or <code>filesize &lt;n&gt;</code> if the file size differs.
+		 */
+		public String getExpected() {
+			return expected;
+		}
+
+		/**
+		 * @return The checksum of the file, <code>filesize &lt;n&gt;</code> if the file size differs or
+		 * <code>null</code> if the file could not be read.
+		 */
+		public String getActual() {
+			return actual;
+		}
+
+		/**
+		 * @return The error of {@link Status#ERROR} or <code>null</code>.
+		 */
+		public IOException getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return status + " " + path + " (mongo_id " + file.getMongoId() + ")"
+					+ (Status.MISMATCH == status ? ": expected " + expected + ", actual " + actual : "")
+					+ (null == error ? "" : ": " + error);
+		}
+	}
+
+	/**
+	 * The outcome of {@link ChecksumVerifier#verify(String, int)}: the numbers of verified and skipped files, the
+	 * files that do not match and the throughput.
+	 */
+	public static class Report {
+		private final LongAdder verified = new LongAdder();
+		private final LongAdder skipped = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final List<Result> problems = Collections.synchronizedList(new ArrayList<Result>());
+		private long elapsed;
+
+		Report() {}
+
+		private void add(final Result result) {
+			problems.add(result);
+		}
+
+		/**
+		 * @return Number of files that match their checksum.
+		 */
+		public long getVerified() {
+			return verified.sum();
+		}
+
+		/**
+		 * @return Number of entries without a local location or without a sha512 checksum.
+		 */
+		public long getSkipped() {
+			return skipped.sum();
+		}
+
+		/**
+		 * @return The mismatches, missing files and errors.
+		 */
+		public List<Result> getProblems() {
+			synchronized(problems) {
+				return Collections.unmodifiableList(new ArrayList<>(problems));
+			}
+		}
+
+		/**
+		 * @param status
+		 * @return Number of files with the given status.
+		 */
+		public long count(final Status status) {
+			return getProblems().stream().filter(result -> status == result.status).count();
+		}
+
+		/**
+		 * @return Number of bytes that have been hashed.
+		 */
+		public long getBytes() {
+			return bytes.sum();
+		}
+
+		/**
+		 * @param unit
+		 * @return Duration of the verification.
+		 */
+		public long getElapsed(final TimeUnit unit) {
+			return unit.convert(elapsed, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * @return Hashed bytes per second.
+		 */
+		public double getThroughput() {
+			return 0 == elapsed ? 0 : getBytes() * 1e9 / elapsed;
+		}
+
+		@Override
+		public String toString() {
+			return "Report [verified=" + getVerified() + ", mismatches=" + count(Status.MISMATCH) + ", missing=" + count(Status.MISSING)
+					+ ", errors=" + count(Status.ERROR) + ", skipped=" + getSkipped() + ", elapsed=" + getElapsed(TimeUnit.MILLISECONDS)
+					+ "ms, throughput=" + String.format("%.1f", getThroughput() / (1024 * 1024)) + "MiB/s]";
+		}
+	}
+}
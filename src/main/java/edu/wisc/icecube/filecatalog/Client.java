@@ -1,57 +1,528 @@
 package edu.wisc.icecube.filecatalog;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.apache.http.Consts;
 import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpClientConnection;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
-import org.apache.http.client.fluent.Request;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.apache.http.impl.client.cache.CachingHttpClientBuilder;
+import org.apache.http.impl.client.cache.FileResourceFactory;
+import org.apache.http.impl.client.cache.ManagedHttpCacheStorage;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.internal.LinkedTreeMap;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import edu.wisc.icecube.filecatalog.Error.ConflictError;
 import edu.wisc.icecube.filecatalog.Error.NotFoundError;
+import edu.wisc.icecube.filecatalog.Error.PreconditionFailedError;
 import edu.wisc.icecube.filecatalog.gson.BasicMetaData;
 import edu.wisc.icecube.filecatalog.gson.Creation;
 import edu.wisc.icecube.filecatalog.gson.FileList;
+import edu.wisc.icecube.filecatalog.gson.FileMetadata;
+import edu.wisc.icecube.filecatalog.gson.FileMetadataAdapter;
 
-public class Client {
+public class Client implements Closeable {
 	protected URI uri;
+	/**
+	 * The files endpoint, `<uri>/api/files`
+	 */
+	protected final URI files;
 	protected final Gson gson;
+	private final BoundedLruMap<String, Gson> projections = new BoundedLruMap<>(16);
 	protected final Cache cache;
+	protected final ClientConfig config;
+	protected final PoolingHttpClientConnectionManager connectionManager;
+	protected final CloseableHttpClient httpClient;
+	private ExecutorService executor;
+	private final LongAdder bodyCacheHits = new LongAdder();
+	private ManagedHttpCacheStorage bodyCacheStorage;
+	private final SingleFlight<URI, Document> documents = new SingleFlight<>();
+	private final SingleFlight<String, String> mongoIdLookups = new SingleFlight<>();
 	
 	public Client(final URI uri) throws URISyntaxException {
+		this(uri, ClientConfig.DEFAULT);
+	}
+	
+	public Client(final URI uri, final ClientConfig config) throws URISyntaxException {
+		this(uri, config, new Cache());
+	}
+	
+	/**
+	 * Creates a client that uses the given cache. This way, e.g. an {@link AsyncClient} and a {@link Client}
+	 * can share the `uid`/`mongo_id` and `etag` mappings.
+	 * 
+	 * @param uri
+	 * @param config
+	 * @param cache
+	 * @throws URISyntaxException
+	 */
+	public Client(final URI uri, final ClientConfig config, final Cache cache) throws URISyntaxException {
 		this.uri = joinURIs(uri, "api");
-		this.gson = new Gson();
-		this.cache = new Cache();
+		this.files = joinURIs(this.uri, "files");
+		this.gson = createGson();
+		this.cache = cache;
+		this.config = config;
+		this.connectionManager = createConnectionManager(config);
+		this.httpClient = createHttpClient(config, connectionManager);
 	}
 	
 	public Client(final String uri) throws URISyntaxException {
 		this(new URI(uri));
 	}
 	
+	public Client(final String uri, final ClientConfig config) throws URISyntaxException {
+		this(new URI(uri), config);
+	}
+	
 	public Client(final String uri, int port) throws URISyntaxException {
 		this(new URIBuilder(uri).setPort(port).build());
 	}
 	
+	public Client(final String uri, int port, final ClientConfig config) throws URISyntaxException {
+		this(new URIBuilder(uri).setPort(port).build(), config);
+	}
+	
+	/**
+	 * Creates the parser that is used for all requests and responses. It knows how to read and write {@link FileMetadata}.
+	 * 
+	 * @return
+	 */
+	protected static Gson createGson() {
+		return createGson(null);
+	}
+	
+	/**
+	 * Creates a parser whose {@link FileMetadata} only reads the given keys. All other keys are skipped.
+	 * 
+	 * @param keys The keys or <code>null</code> for all keys
+	 * @return
+	 */
+	protected static Gson createGson(final Collection<String> keys) {
+		return new GsonBuilder()
+				.registerTypeAdapter(FileMetadata.class, new FileMetadataAdapter(keys))
+				.create();
+	}
+	
+	/**
+	 * Returns the parser for a projection. The parsers are cached per projection.
+	 * 
+	 * @param keys The value of the `keys` parameter or <code>null</code>
+	 * @return
+	 */
+	protected Gson getGson(final String keys) {
+		if(null == keys) {
+			return gson;
+		}
+		
+		Gson projection = projections.get(keys);
+		
+		if(null == projection) {
+			projection = createGson(Arrays.asList(keys.split("\\|")));
+			projections.put(keys, projection);
+		}
+		
+		return projection;
+	}
+	
+	/**
+	 * Joins the keys of a projection to the value of the `keys` parameter. `mongo_id` and `uid` are always
+	 * added since they identify the metadata.
+	 * 
+	 * @param keys
+	 * @return The `keys` parameter or <code>null</code> if no keys are given, i.e. for all keys.
+	 */
+	protected static String joinKeys(final String... keys) {
+		if(null == keys || 0 == keys.length) {
+			return null;
+		}
+		
+		final Set<String> joined = new LinkedHashSet<>();
+		joined.add("mongo_id");
+		joined.add("uid");
+		
+		for(String key: keys) {
+			if(null == key || key.isEmpty() || key.indexOf('|') >= 0) {
+				throw new IllegalArgumentException("Invalid key: " + key);
+			}
+			
+			joined.add(key);
+		}
+		
+		return String.join("|", joined);
+	}
+	
+	/**
+	 * Creates the connection pool that is owned by this client.
+	 * 
+	 * @param config
+	 * @return
+	 */
+	protected PoolingHttpClientConnectionManager createConnectionManager(final ClientConfig config) {
+		final ClientMetrics metrics = config.getMetrics();
+		final PoolingHttpClientConnectionManager cm;
+		
+		if(ClientMetrics.NONE == metrics) {
+			cm = new PoolingHttpClientConnectionManager();
+		} else {
+			cm = new PoolingHttpClientConnectionManager() {
+				@Override
+				public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+					final ConnectionRequest request = super.requestConnection(route, state);
+					
+					// Measures how long the request waits for a free connection
+					return new ConnectionRequest() {
+						@Override
+						public HttpClientConnection get(long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+							final long start = System.nanoTime();
+							
+							try {
+								return request.get(timeout, unit);
+							} finally {
+								metrics.onLeaseWait(System.nanoTime() - start);
+							}
+						}
+						
+						@Override
+						public boolean cancel() {
+							return request.cancel();
+						}
+					};
+				}
+			};
+		}
+		
+		cm.setMaxTotal(config.getMaxTotal());
+		cm.setDefaultMaxPerRoute(config.getMaxPerRoute());
+		
+		return cm;
+	}
+	
+	/**
+	 * Creates the HTTP client that executes all requests of this client over the given connection pool.
+	 * 
+	 * @param config
+	 * @param cm
+	 * @return
+	 */
+	protected CloseableHttpClient createHttpClient(final ClientConfig config, final PoolingHttpClientConnectionManager cm) {
+		final RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(config.getConnectTimeout())
+				.setSocketTimeout(config.getSocketTimeout())
+				.setConnectionRequestTimeout(config.getConnectionRequestTimeout())
+				.build();
+		
+		ConnectionKeepAliveStrategy keepAliveStrategy = config.getKeepAliveStrategy();
+		if(null == keepAliveStrategy) {
+			keepAliveStrategy = new CappedKeepAliveStrategy(config.getKeepAlive());
+		}
+		
+		final HttpClientBuilder builder = createHttpClientBuilder(config)
+				.setConnectionManager(cm)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(keepAliveStrategy)
+				.evictExpiredConnections();
+		
+		if(config.getMaxIdleTime() > 0) {
+			builder.evictIdleConnections(config.getMaxIdleTime(), TimeUnit.MILLISECONDS);
+		}
+		
+		return builder.build();
+	}
+	
+	/**
+	 * Creates the builder of the HTTP client. If the body cache is enabled, the builder creates a caching HTTP
+	 * client that revalidates cached metadata with `If-None-Match`.
+	 * 
+	 * @see ClientConfig.Builder#setBodyCacheEntries(int)
+	 * @param config
+	 * @return
+	 */
+	protected HttpClientBuilder createHttpClientBuilder(final ClientConfig config) {
+		if(config.getBodyCacheEntries() < 1) {
+			return HttpClients.custom();
+		}
+		
+		final CacheConfig cacheConfig = CacheConfig.custom()
+				.setMaxCacheEntries(config.getBodyCacheEntries())
+				.setMaxObjectSize(config.getBodyCacheMaxObjectSize())
+				// Only this client reads the cache
+				.setSharedCache(false)
+				.build();
+		
+		final CachingHttpClientBuilder builder = new CachingHttpClientBuilder() {
+			@Override
+			protected ClientExecChain decorateMainExec(final ClientExecChain mainExec) {
+				// Sees the responses of the server before the caching layer replaces a 304 by the cached body
+				return super.decorateMainExec((route, request, context, execAware) -> {
+					final CloseableHttpResponse response = mainExec.execute(route, request, context, execAware);
+					
+					if(HttpStatus.SC_NOT_MODIFIED == response.getStatusLine().getStatusCode()) {
+						bodyCacheHits.increment();
+					}
+					
+					if(null != bodyCacheStorage) {
+						// Every revalidation copies the body, delete the files of the replaced entries
+						bodyCacheStorage.cleanResources();
+					}
+					
+					return response;
+				});
+			}
+		};
+		
+		builder.setCacheConfig(cacheConfig);
+		
+		if(null != config.getBodyCacheDirectory()) {
+			// Stores the bodies as files, which are deleted when the client is closed
+			bodyCacheStorage = new ManagedHttpCacheStorage(cacheConfig);
+			
+			builder.setResourceFactory(new FileResourceFactory(config.getBodyCacheDirectory().toFile()))
+					.setHttpCacheStorage(bodyCacheStorage);
+		}
+		
+		return builder;
+	}
+	
+	/**
+	 * @return The number of responses that have been served from the body cache, i.e. after the server responded
+	 * with 304 Not Modified.
+	 * @see ClientConfig.Builder#setBodyCacheEntries(int)
+	 */
+	public long getBodyCacheHits() {
+		return bodyCacheHits.sum();
+	}
+	
+	/**
+	 * Executes the request over the connection pool of this client. The connection is released
+	 * back to the pool after the <code>handler</code> has processed the response.
+	 * 
+	 * If a {@link RateLimiter} has been configured, the request waits for a permit first. If the server responds
+	 * with an error that the {@link RetryPolicy} accepts, the request is sent again after a backoff.
+	 * 
+	 * Every attempt is reported to the {@link ClientMetrics} of the configuration.
+	 * 
+	 * @param request
+	 * @param handler
+	 * @return The result of the <code>handler</code>
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 */
+	protected <T> T execute(final HttpUriRequest request, final ResponseHandler<? extends T> handler) throws ClientProtocolException, IOException {
+		final RetryPolicy retryPolicy = config.getRetryPolicy();
+		final RateLimiter rateLimiter = config.getRateLimiter();
+		final ClientMetrics metrics = config.getMetrics();
+		final ClientMetrics.Operation operation = ClientMetrics.NONE == metrics ? null : ClientMetrics.Operation.of(request);
+		
+		for(int attempt = 0;; ++attempt) {
+			long delay;
+			
+			try {
+				if(null != rateLimiter) {
+					rateLimiter.acquire();
+				}
+				
+				final T result = execute(request, handler, metrics, operation);
+				
+				if(null != rateLimiter) {
+					rateLimiter.onSuccess();
+				}
+				
+				return result;
+			} catch(Error e) {
+				metrics.onError(operation, e);
+				
+				if(null != rateLimiter) {
+					rateLimiter.onError(e);
+				}
+				
+				if(!retryPolicy.isRetryable(request, e, attempt)) {
+					throw e;
+				}
+				
+				delay = retryPolicy.getDelay(attempt, e.getRetryAfter());
+			}
+			
+			try {
+				Thread.sleep(delay);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting to retry " + request.getRequestLine());
+			}
+			
+			metrics.onRetry(operation, attempt + 1);
+		}
+	}
+	
+	/**
+	 * Executes one attempt of the request and reports it to the <code>metrics</code>.
+	 */
+	private <T> T execute(final HttpUriRequest request, final ResponseHandler<? extends T> handler, final ClientMetrics metrics, final ClientMetrics.Operation operation) throws ClientProtocolException, IOException {
+		if(ClientMetrics.NONE == metrics) {
+			return httpClient.execute(request, handler);
+		}
+		
+		final MeteredResponseHandler<T> meteredHandler = new MeteredResponseHandler<>(handler);
+		final long start = System.nanoTime();
+		
+		try {
+			return httpClient.execute(request, meteredHandler);
+		} finally {
+			metrics.onResponse(operation, meteredHandler.getStatusCode(), System.nanoTime() - start, meteredHandler.getBytes());
+		}
+	}
+	
+	/**
+	 * Looks the `mongo_id` of the `uid` up in the cache and reports the lookup to the {@link ClientMetrics}.
+	 * 
+	 * @param uid
+	 * @return The `mongo_id` or <code>null</code> if it is not cached.
+	 */
+	protected String getCachedMongoId(final String uid) {
+		final String mongoId = cache.getMongoId(uid);
+		config.getMetrics().onCacheLookup(ClientMetrics.Lookup.MONGO_ID, null != mongoId);
+		
+		return mongoId;
+	}
+	
+	/**
+	 * Looks the etag of the `mongo_id` up in the cache and reports the lookup to the {@link ClientMetrics}.
+	 * 
+	 * @param mongoId
+	 * @return The etag or <code>null</code> if it is not cached.
+	 */
+	protected String getCachedEtag(final String mongoId) {
+		final String etag = cache.getEtag(mongoId);
+		config.getMetrics().onCacheLookup(ClientMetrics.Lookup.ETAG, null != etag);
+		
+		return etag;
+	}
+	
+	/**
+	 * @return The cache of this client.
+	 */
+	public Cache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * @return The configuration of this client.
+	 */
+	public ClientConfig getConfig() {
+		return config;
+	}
+	
+	/**
+	 * Returns the executor for background tasks of this client, e.g. prefetching pages in {@link #iterate(String, int)}.
+	 * The executor is created on first use and shut down by {@link #close()}.
+	 * 
+	 * @return
+	 */
+	protected synchronized ExecutorService getExecutor() {
+		if(null == executor) {
+			executor = Executors.newCachedThreadPool(new DaemonThreadFactory("file-catalog-client"));
+		}
+		
+		return executor;
+	}
+	
+	/**
+	 * Closes the HTTP client and shuts down the connection pool of this client.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized(this) {
+			if(null != executor) {
+				executor.shutdownNow();
+			}
+		}
+		
+		httpClient.close();
+		
+		if(null != bodyCacheStorage) {
+			bodyCacheStorage.shutdown();
+		}
+	}
+	
 	/**
 	 * Queries the server by using the GET method to get the file list. It supports the
 	 * parameters `query` (a JSON style string to constrain the query), `limit` and `start`.
@@ -65,13 +536,28 @@ public class Client {
 	 * @throws Error Any error that has the server reported
 	 */
 	protected FileList getList(final URI uri) throws ClientProtocolException, IOException, Error {
-		final FileList list = gson.fromJson(Request.Get(uri)
-												.execute()
-												.handleResponse(new ResponseHandleBuilder(HttpStatus.SC_OK)),
-										    FileList.class);
+		return getList(uri, gson);
+	}
+	
+	/**
+	 * Like {@link #getList(URI)}, but parses the response with the given parser.
+	 * 
+	 * @see #getGson(String)
+	 * @param uri The URI with all parameters
+	 * @param parser
+	 * @return The server response represented in {@link FileList} 
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws Error Any error that has the server reported
+	 */
+	protected FileList getList(final URI uri, final Gson parser) throws ClientProtocolException, IOException, Error {
+		final FileList list = execute(new HttpGet(uri), new ResponseHandleBuilder<FileList>(parser, FileList.class, HttpStatus.SC_OK)
+				.setErrorStackTraces(config.isErrorStackTraces()));
 		
 		for(BasicMetaData mapping: list.getEmbedded().getFiles()) {
-			cache.setMongoId(mapping.getUid(), mapping.getMongoId());
+			if(null != mapping.getUid() && null != mapping.getMongoId()) {
+				cache.setMongoId(mapping.getUid(), mapping.getMongoId());
+			}
 		}
 		
 		return list;
@@ -91,131 +577,691 @@ public class Client {
 	}
 	
 	/**
-	 * Lists the files by using the `query` parameter.
+	 * Lists the files by using the `query` parameter.
+	 * 
+	 * @see #getList()
+	 * @see #getList(Integer, Integer)
+	 * @see #getList(String, Integer, Integer)
+	 * @param The server response represented in {@link FileList} 
+	 * @return JSON style string (response from server)
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 * @throws Error Any error that has the server reported
+	 */
+	public FileList getList(final String query) throws ClientProtocolException, IOException, URISyntaxException, Error {
+		return getList(query, null, null);
+	}
+	
+	/**
+	 * Lists the files by adding the `limit` and `start` parameter.
+	 * 
+	 * @see #getList()
+	 * @see #getList(String)
+	 * @see #getList(String, Integer, Integer)
+	 * @param limit Limits the number of returned files
+	 * @param start Offset of the file list
+	 * @return The server response represented in {@link FileList} 
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 * @throws Error Any error that has the server reported
+	 */
+	public FileList getList(final Integer limit, final Integer start) throws ClientProtocolException, IOException, URISyntaxException, Error {
+		return getList(null, limit, start);
+	}
+	
+	/**
+	 * List the files by adding the `query`, `start` and `limit` parameter. 
+	 * 
+	 * @param query
+	 * @param limit
+	 * @param start
+	 * @return The server response represented in {@link FileList} 
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 * @throws Error Any error that has the server reported
+	 */
+	public FileList getList(final String query, final Integer limit, final Integer start) throws ClientProtocolException, IOException, URISyntaxException, Error {
+		return getList(query, limit, start, (String[]) null);
+	}
+	
+	/**
+	 * List the files by adding the `query`, `start` and `limit` parameter. Only the given keys of the files are
+	 * requested (projection), e.g. <code>"checksum"</code>. `mongo_id` and `uid` are always included.
+	 * 
+	 * <b>Note:</b> Both the response size and the parse time scale with the requested keys. The keys are available
+	 * as fields or extras of the {@link FileMetadata} in {@link FileList#getEmbedded()}.
+	 * 
+	 * @param query
+	 * @param limit
+	 * @param start
+	 * @param keys The keys or nothing for the default keys of the server (`mongo_id` and `uid`)
+	 * @return The server response represented in {@link FileList} 
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 * @throws Error Any error that has the server reported
+	 */
+	public FileList getList(final String query, final Integer limit, final Integer start, final String... keys) throws ClientProtocolException, IOException, URISyntaxException, Error {
+		final URIBuilder uri = new URIBuilder(files);
+		final String projection = joinKeys(keys);
+		
+		if(null != query) {
+			uri.setParameter("query", query);
+		}
+		
+		if(null != limit) {
+			uri.setParameter("limit", limit.toString());
+		}
+		
+		if(null != start) {
+			uri.setParameter("start", start.toString());
+		}
+		
+		if(null != projection) {
+			uri.setParameter("keys", projection);
+		}
+
+		return getList(uri.build(), getGson(projection));
+	}
+	
+	/**
+	 * Lists the files whose `mongo_id` is greater than <code>after</code> (keyset pagination). The condition
+	 * <code>{"mongo_id": {"$gt": after}}</code> is combined with the `query` by <code>$and</code>. Pass the
+	 * last `mongo_id` of a page to get the next page.
+	 * 
+	 * Unlike `start`, the server does not skip the previous pages, so every page costs the same. Files that are
+	 * created or deleted meanwhile do not shift the following pages, i.e. no file is skipped or returned twice.
+	 * 
+	 * <b>Note:</b> The server must return the files ordered by `mongo_id`.
+	 * 
+	 * @see ClientConfig.Builder#setKeysetPagination(boolean)
+	 * @param query JSON style string or <code>null</code> for all files
+	 * @param limit Limits the number of returned files
+	 * @param after The last `mongo_id` of the previous page or <code>null</code> for the first page
+	 * @param keys The keys or nothing for the default keys of the server (`mongo_id` and `uid`)
+	 * @return The server response represented in {@link FileList} 
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 * @throws Error Any error that has the server reported
+	 */
+	public FileList getListAfter(final String query, int limit, final String after, final String... keys) throws ClientProtocolException, IOException, URISyntaxException, Error {
+		return getList(keysetQuery(query, after), limit, null, keys);
+	}
+	
+	/**
+	 * @param query JSON style string or <code>null</code>
+	 * @param after `mongo_id` or <code>null</code>
+	 * @return The query restricted to the files after the given `mongo_id`.
+	 */
+	protected static String keysetQuery(final String query, final String after) {
+		if(null == after) {
+			return query;
+		}
+		
+		final JsonObject condition = new JsonObject();
+		condition.addProperty("$gt", after);
+		
+		final JsonObject keyset = new JsonObject();
+		keyset.add("mongo_id", condition);
+		
+		return and(query, keyset.toString());
+	}
+	
+	/**
+	 * @param query JSON style string or <code>null</code>
+	 * @param condition JSON style string or <code>null</code>
+	 * @return A query that matches both, combined by <code>$and</code>.
+	 */
+	protected static String and(final String query, final String condition) {
+		if(null == query || query.trim().isEmpty()) {
+			return condition;
+		}
+		
+		if(null == condition || condition.trim().isEmpty()) {
+			return query;
+		}
+		
+		// The queries are passed through as they are, so they do not need to be parsed
+		return "{\"$and\":[" + query + "," + condition + "]}";
+	}
+	
+	/**
+	 * Iterates over all files that match the `query`. The pages of the file list are fetched lazily
+	 * with `limit` = <code>pageSize</code>. While a page is consumed, the next page is fetched in the background,
+	 * so that at most two pages are held in memory.
+	 * 
+	 * Caches automatically the `uid`/`mongo_id` mapping.
+	 * 
+	 * <b>Note:</b> Errors are thrown as {@link java.io.UncheckedIOException}. Close the iterator if it is not consumed
+	 * entirely in order to stop the prefetching.
+	 * 
+	 * @see #stream(String, int)
+	 * @param query JSON style string or <code>null</code> for all files
+	 * @param pageSize Number of files per request
+	 * @return
+	 */
+	public FileListIterator iterate(final String query, int pageSize) {
+		return iterate(query, pageSize, (String[]) null);
+	}
+	
+	/**
+	 * Iterates over all files that match the `query` and requests only the given keys of the files.
+	 * 
+	 * @see #iterate(String, int)
+	 * @see #getList(String, Integer, Integer, String...)
+	 * @param query JSON style string or <code>null</code> for all files
+	 * @param pageSize Number of files per request
+	 * @param keys The keys or nothing for the default keys of the server (`mongo_id` and `uid`)
+	 * @return
+	 */
+	public FileListIterator iterate(final String query, int pageSize, final String... keys) {
+		return new FileListIterator(this, query, pageSize, keys, config.isKeysetPagination(), getExecutor());
+	}
+	
+	/**
+	 * Streams all files that match the `query`. Closing the stream stops the prefetching of pages.
+	 * 
+	 * @see #iterate(String, int)
+	 * @param query JSON style string or <code>null</code> for all files
+	 * @param pageSize Number of files per request
+	 * @return
+	 */
+	public Stream<FileMetadata> stream(final String query, int pageSize) {
+		return stream(query, pageSize, (String[]) null);
+	}
+	
+	/**
+	 * Streams all files that match the `query` and requests only the given keys of the files.
+	 * 
+	 * @see #iterate(String, int, String...)
+	 * @param query JSON style string or <code>null</code> for all files
+	 * @param pageSize Number of files per request
+	 * @param keys The keys or nothing for the default keys of the server (`mongo_id` and `uid`)
+	 * @return
+	 */
+	public Stream<FileMetadata> stream(final String query, int pageSize, final String... keys) {
+		final FileListIterator it = iterate(query, pageSize, keys);
+		
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false)
+							.onClose(it::close);
+	}
+	
+	/**
+	 * Streams all files that match the `query` in parallel. The file list is split into partitions, e.g. by
+	 * {@link #mongoIdRanges(String...)} or by queries on a key of the metadata. Every partition is combined with
+	 * the `query` by <code>$and</code> and walked like {@link #iterate(String, int, String...)}. The partitions are
+	 * independent, so the threads of the stream walk them concurrently and the scan is bound by the number of
+	 * connections rather than by the round trips of a single walk. Closing the stream stops the prefetching of pages.
+	 * 
+	 * The partitions must not overlap, otherwise files are returned more than once. Files that do not match any
+	 * partition are not returned.
+	 * 
+	 * <b>Note:</b> A parallel stream runs on the common {@link java.util.concurrent.ForkJoinPool}, which has one
+	 * thread per CPU core. Since the threads mostly wait for the server, submit the terminal operation to a
+	 * dedicated pool with one thread per partition that should be walked concurrently:
+	 * <pre>new ForkJoinPool(16).submit(() -&gt; c.parallelStream(null, 1000, partitions).forEach(...)).get();</pre>
+	 * Or use {@link #scan(String, int, List, int, Consumer, String...)}.
+	 * 
+	 * @param query JSON style string or <code>null</code> for all files
+	 * @param pageSize Number of files per request
+	 * @param partitions JSON style queries that split the file list
+	 * @param keys The keys or nothing for the default keys of the server (`mongo_id` and `uid`)
+	 * @return A parallel stream
+	 */
+	public Stream<FileMetadata> parallelStream(final String query, int pageSize, final List<String> partitions, final String... keys) {
+		if(pageSize < 1) {
+			throw new IllegalArgumentException("pageSize must be positive");
+		}
+		
+		final Set<FileListIterator> open = ConcurrentHashMap.newKeySet();
+		final PartitionSpliterator spliterator = new PartitionSpliterator(this, query, pageSize, keys, new ArrayList<>(partitions), open);
+		
+		return StreamSupport.stream(spliterator, true)
+							.onClose(() -> open.forEach(FileListIterator::close));
+	}
+	
+	/**
+	 * Scans the partitions of the file list with {@link ClientConfig#getBulkParallelism()} threads.
+	 * 
+	 * @see #scan(String, int, List, int, Consumer, String...)
+	 * @param query JSON style string or <code>null</code> for all files
+	 * @param pageSize Number of files per request
+	 * @param partitions JSON style queries that split the file list
+	 * @param consumer
+	 * @param keys The keys or nothing for the default keys of the server (`mongo_id` and `uid`)
+	 * @return The number of files
+	 * @throws IOException The first error of a partition
+	 */
+	public long scan(final String query, int pageSize, final List<String> partitions, final Consumer<? super FileMetadata> consumer, final String... keys) throws IOException {
+		return scan(query, pageSize, partitions, config.getBulkParallelism(), consumer, keys);
+	}
+	
+	/**
+	 * Passes all files that match the `query` to the consumer. Up to <code>parallelism</code> partitions are walked
+	 * concurrently, each like {@link #iterate(String, int, String...)}. A thread takes the next partition once it
+	 * has finished its current one.
+	 * 
+	 * <b>Note:</b> The consumer is called concurrently by several threads.
+	 * 
+	 * @see #parallelStream(String, int, List, String...)
+	 * @param query JSON style string or <code>null</code> for all files
+	 * @param pageSize Number of files per request
+	 * @param partitions JSON style queries that split the file list, see {@link #mongoIdRanges(String...)}
+	 * @param parallelism Maximum number of partitions that are walked concurrently
+	 * @param consumer
+	 * @param keys The keys or nothing for the default keys of the server (`mongo_id` and `uid`)
+	 * @return The number of files
+	 * @throws IOException The first error of a partition. The other partitions are stopped.
+	 */
+	public long scan(final String query, int pageSize, final List<String> partitions, int parallelism, final Consumer<? super FileMetadata> consumer, final String... keys) throws IOException {
+		if(parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be positive");
+		}
+		
+		if(pageSize < 1) {
+			throw new IllegalArgumentException("pageSize must be positive");
+		}
+		
+		final Queue<String> pending = new ConcurrentLinkedQueue<>(partitions);
+		final LongAdder count = new LongAdder();
+		final List<Future<?>> workers = new ArrayList<>();
+		
+		for(int i = 0; i < Math.min(parallelism, partitions.size()); ++i) {
+			workers.add(getExecutor().submit(() -> {
+				for(String partition; !Thread.currentThread().isInterrupted() && null != (partition = pending.poll());) {
+					try(final FileListIterator it = iterate(and(query, partition), pageSize, keys)) {
+						while(it.hasNext()) {
+							consumer.accept(it.next());
+							count.increment();
+						}
+					}
+				}
+				
+				return null;
+			}));
+		}
+		
+		try {
+			for(Future<?> worker: workers) {
+				worker.get();
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while scanning files");
+		} catch(ExecutionException e) {
+			final Throwable cause = e.getCause();
+			
+			if(cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			} else if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else {
+				throw new IllegalStateException(cause);
+			}
+		} finally {
+			pending.clear();
+			
+			for(Future<?> worker: workers) {
+				worker.cancel(true);
+			}
+		}
+		
+		return count.sum();
+	}
+	
+	/**
+	 * Splits the file list into ranges of `mongo_id`s, e.g. for {@link #scan(String, int, List, Consumer, String...)}.
+	 * The ranges are <code>[, b<sub>1</sub>), [b<sub>1</sub>, b<sub>2</sub>), ..., [b<sub>n</sub>, )</code>.
+	 * 
+	 * <b>Note:</b> `mongo_id`s usually start with the creation time, so pick boundaries that split the files evenly,
+	 * e.g. the `mongo_id`s at regular offsets of the file list, rather than splitting the hexadecimal range.
+	 * 
+	 * @param boundaries Ascending `mongo_id`s
+	 * @return <code>boundaries.length + 1</code> queries
+	 */
+	public static List<String> mongoIdRanges(final String... boundaries) {
+		final List<String> ranges = new ArrayList<>(boundaries.length + 1);
+		
+		for(int i = 0; i <= boundaries.length; ++i) {
+			final JsonObject condition = new JsonObject();
+			
+			if(i > 0) {
+				condition.addProperty("$gte", boundaries[i - 1]);
+			}
+			
+			if(i < boundaries.length) {
+				if(i > 0 && boundaries[i - 1].compareTo(boundaries[i]) >= 0) {
+					throw new IllegalArgumentException("boundaries must be ascending");
+				}
+				
+				condition.addProperty("$lt", boundaries[i]);
+			}
+			
+			final JsonObject range = new JsonObject();
+			range.add("mongo_id", condition);
+			ranges.add(range.toString());
+		}
+		
+		return ranges;
+	}
+	
+	/**
+	 * Tries to create a new entry of metadata. Check sever documentation for mandatory/forbidden fields.
+	 * 
+	 * @param metadata JSON style string
+	 * @return Response of server represented as {@link Creation}
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 * @throws Error Any error that has the server reported
+	 */
+	public Creation create(final String metadata) throws ClientProtocolException, IOException, URISyntaxException, Error {
+		if(null == metadata || metadata.isEmpty()) {
+			throw new IllegalArgumentException("No metadata given");
+		}
+		
+		final Creation creation = post(metadata);
+		
+		// Cache `uid`/`mongo_id`
+		cache.setMongoId(findUid(metadata), getMongoIdFromPath(creation.getFile()));
+		
+		return creation;
+	}
+	
+	/**
+	 * Creates a new entry of metadata that is serialized with gson straight into the request body, e.g. a
+	 * {@link Map} or a {@link FileMetadata}. The `uid` is picked up while the metadata is serialized.
+	 * 
+	 * @see #create(String)
+	 * @param metadata
+	 * @return Response of server represented as {@link Creation}
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 * @throws Error Any error that has the server reported
+	 */
+	public Creation create(final Object metadata) throws ClientProtocolException, IOException, URISyntaxException, Error {
+		if(metadata instanceof String) {
+			return create((String) metadata);
+		}
+		
+		return create(JsonEntity.of(gson, metadata));
+	}
+	
+	/**
+	 * Creates a new entry of metadata that is written straight into the request body by the given writer.
+	 * The `uid` is picked up while the metadata is written.
+	 * 
+	 * @see #create(String)
+	 * @param metadata
+	 * @return Response of server represented as {@link Creation}
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 * @throws Error Any error that has the server reported
+	 */
+	public Creation create(final MetadataWriter metadata) throws ClientProtocolException, IOException, URISyntaxException, Error {
+		return create(new JsonEntity(metadata));
+	}
+	
+	private Creation create(final JsonEntity entity) throws ClientProtocolException, IOException, URISyntaxException, Error {
+		final Creation creation = post(entity);
+		
+		// Cache `uid`/`mongo_id`
+		if(null != entity.getUid()) {
+			cache.setMongoId(entity.getUid(), getMongoIdFromPath(creation.getFile()));
+		}
+		
+		return creation;
+	}
+	
+	/**
+	 * Posts the metadata to the file list.
+	 */
+	private Creation post(final String metadata) throws ClientProtocolException, IOException, URISyntaxException, Error {
+		return post(new StringEntity(metadata, ContentType.APPLICATION_JSON));
+	}
+	
+	/**
+	 * Posts the metadata to the file list.
+	 */
+	private Creation post(final HttpEntity metadata) throws ClientProtocolException, IOException, URISyntaxException, Error {
+		final HttpPost request = new HttpPost(files);
+		request.setEntity(metadata);
+		
+		return execute(request, new ResponseHandleBuilder<Creation>(gson, Creation.class, HttpStatus.SC_CREATED, HttpStatus.SC_OK)
+				.setErrorStackTraces(config.isErrorStackTraces()));
+	}
+	
+	/**
+	 * Creates many entries of metadata with {@link ClientConfig#getBulkParallelism()} concurrent requests.
+	 * 
+	 * @see #createAll(Iterable, int)
+	 * @param metadata
+	 * @return
+	 * @throws InterruptedIOException If the thread has been interrupted while waiting for the requests.
+	 */
+	public BulkResult<Creation> createAll(final Iterable<?> metadata) throws InterruptedIOException {
+		return createAll(metadata, config.getBulkParallelism());
+	}
+	
+	/**
+	 * Creates many entries of metadata. Up to <code>parallelism</code> requests are executed concurrently over the
+	 * connection pool. The input is consumed lazily: the next item is only taken if a request has completed, so that
+	 * e.g. a generated {@link Iterable} is never held in memory entirely.
+	 * 
+	 * An item is either a JSON style string, a {@link MetadataWriter} or an object that is serialized with gson
+	 * straight into the request body, e.g. a {@link Map}, see {@link #create(Object)}. The `uid` of a string is
+	 * scanned without parsing the whole metadata.
+	 * 
+	 * Caches automatically the `uid`/`mongo_id` mapping.
+	 * 
+	 * @see #create(String)
+	 * @param metadata
+	 * @param parallelism Maximum number of concurrent requests
+	 * @return The {@link Creation} or the exception of every item in the order of the input, and the throughput.
+	 * @throws InterruptedIOException If the thread has been interrupted while waiting for the requests.
+	 */
+	public BulkResult<Creation> createAll(final Iterable<?> metadata, int parallelism) throws InterruptedIOException {
+		if(parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be positive");
+		}
+		
+		final Semaphore permits = new Semaphore(parallelism);
+		final List<BulkResult.Item<Creation>> items = Collections.synchronizedList(new ArrayList<BulkResult.Item<Creation>>());
+		final long started = System.nanoTime();
+		
+		int index = 0;
+		
+		try {
+			for(final Object md: metadata) {
+				final int i = index++;
+				
+				permits.acquire();
+				
+				try {
+					getExecutor().execute(() -> {
+						try {
+							items.add(new BulkResult.Item<>(i, createItem(md), null));
+						} catch(Exception e) {
+							items.add(new BulkResult.Item<Creation>(i, null, e));
+						} finally {
+							permits.release();
+						}
+					});
+				} catch(RuntimeException e) {
+					permits.release();
+					throw e;
+				}
+			}
+			
+			// Wait for the running requests
+			permits.acquire(parallelism);
+			permits.release(parallelism);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while creating files");
+		}
+		
+		final List<BulkResult.Item<Creation>> sorted = new ArrayList<>(items);
+		sorted.sort((a, b) -> Integer.compare(a.getIndex(), b.getIndex()));
+		
+		return new BulkResult<>(sorted, System.nanoTime() - started);
+	}
+	
+	/**
+	 * Creates one item of {@link #createAll(Iterable, int)}.
+	 */
+	private Creation createItem(final Object metadata) throws ClientProtocolException, IOException, URISyntaxException, Error {
+		if(metadata instanceof String) {
+			return create((String) metadata);
+		}
+		
+		if(null == metadata) {
+			throw new IllegalArgumentException("No metadata given");
+		}
+		
+		if(metadata instanceof Map && null == ((Map<?, ?>) metadata).get("uid")) {
+			throw new ClientException("Cannot find `uid` in metadata.");
+		}
+		
+		return create(metadata);
+	}
+	
+	/**
+	 * Queries the metadata for the given `mongo_id`.
 	 * 
-	 * @see #getList()
-	 * @see #getList(Integer, Integer)
-	 * @see #getList(String, Integer, Integer)
-	 * @param The server response represented in {@link FileList} 
-	 * @return JSON style string (response from server)
+	 * @param mongoId
+	 * @return
 	 * @throws ClientProtocolException
+	 * @throws UnsupportedEncodingException
 	 * @throws IOException
 	 * @throws URISyntaxException
-	 * @throws Error Any error that has the server reported
 	 */
-	public FileList getList(final String query) throws ClientProtocolException, IOException, URISyntaxException, Error {
-		return getList(query, null, null);
+	public LinkedTreeMap<?, ?> get(final String mongoId) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
+		return (LinkedTreeMap<?, ?>) get(mongoId, Object.class);
 	}
 	
 	/**
-	 * Lists the files by adding the `limit` and `start` parameter.
+	 * Queries the metadata for the given `mongo_id` and parses it into the given type, e.g. {@link FileMetadata}.
 	 * 
-	 * @see #getList()
-	 * @see #getList(String)
-	 * @see #getList(String, Integer, Integer)
-	 * @param limit Limits the number of returned files
-	 * @param start Offset of the file list
-	 * @return The server response represented in {@link FileList} 
+	 * <b>Note:</b> {@link FileMetadata} is parsed by {@link FileMetadataAdapter}, which does not build an intermediate
+	 * tree and holds the common keys in fields. Prefer it over the {@link LinkedTreeMap} of {@link #get(String)} if many
+	 * results are kept in memory.
+	 * 
+	 * @param mongoId
+	 * @param type
+	 * @return
 	 * @throws ClientProtocolException
+	 * @throws UnsupportedEncodingException
 	 * @throws IOException
 	 * @throws URISyntaxException
-	 * @throws Error Any error that has the server reported
 	 */
-	public FileList getList(final Integer limit, final Integer start) throws ClientProtocolException, IOException, URISyntaxException, Error {
-		return getList(null, limit, start);
+	public <T> T get(final String mongoId, final Class<T> type) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
+		return get(mongoId, type, (String[]) null);
 	}
 	
 	/**
-	 * List the files by adding the `query`, `start` and `limit` parameter. 
+	 * Queries only the given keys of the metadata for the given `mongo_id` (projection) and parses them into the
+	 * given type. `mongo_id` and `uid` are always included.
 	 * 
-	 * @param query
-	 * @param limit
-	 * @param start
-	 * @return The server response represented in {@link FileList} 
+	 * <b>Example:</b>
+	 * <pre>final FileMetadata file = client.get(mongoId, FileMetadata.class, "checksum");</pre>
+	 * 
+	 * @see #get(String, Class)
+	 * @param mongoId
+	 * @param type
+	 * @param keys The keys or nothing for all keys
+	 * @return
 	 * @throws ClientProtocolException
+	 * @throws UnsupportedEncodingException
 	 * @throws IOException
 	 * @throws URISyntaxException
-	 * @throws Error Any error that has the server reported
 	 */
-	public FileList getList(final String query, final Integer limit, final Integer start) throws ClientProtocolException, IOException, URISyntaxException, Error {
-		final URIBuilder uri = new URIBuilder(joinURIs(this.uri, "files"));
+	public <T> T get(final String mongoId, final Class<T> type, final String... keys) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
+		final String projection = joinKeys(keys);
 		
-		if(null != query) {
-			uri.setParameter("query", query);
+		URI uri = fileUri(files, mongoId);
+		if(null != projection) {
+			uri = new URIBuilder(uri).setParameter("keys", projection).build();
 		}
 		
-		if(null != limit) {
-			uri.setParameter("limit", limit.toString());
-		}
+		// Concurrent callers share the response. The caller that sends the request parses the body as it is
+		// received. Only if others have joined, a tree of the result is built, which every other caller parses
+		// into its own result, since the results are mutable.
+		final URI request = uri;
+		final Gson parser = getGson(projection);
+		final Document document = documents.execute(request, () -> {
+			final ResponseHandleBuilder<T> rhandler = new ResponseHandleBuilder<T>(parser, type, HttpStatus.SC_OK, true)
+					.setErrorStackTraces(config.isErrorStackTraces());
+			final T body = execute(new HttpGet(request), rhandler);
+			
+			return new Document(Thread.currentThread(), body, rhandler.getEtag());
+		}, shared -> shared.tree = parser.toJsonTree(shared.value));
 		
-		if(null != start) {
-			uri.setParameter("start", start.toString());
+		final T metadata;
+		if(Thread.currentThread() == document.owner) {
+			metadata = type.cast(document.value);
+		} else {
+			try {
+				metadata = parser.fromJson(document.tree, type);
+			} catch(JsonParseException e) {
+				throw new ClientException("Cannot parse server response: " + e.getMessage());
+			}
 		}
-
-		return getList(uri.build());
+		
+		// Cache etag
+		cache.setEtag(mongoId, document.etag);
+		
+		// Cache `uid`/`mongo_id`
+		cacheMongoId(metadata, mongoId);
+		
+		return metadata;
 	}
 	
 	/**
-	 * Tries to create a new entry of metadata. Check sever documentation for mandatory/forbidden fields.
+	 * Queries the metadata for the given `uid`.
 	 * 
-	 * @param metadata JSON style string
-	 * @return Response of server represented as {@link Creation}
+	 * @param uid
+	 * @return
+	 * @throws Error
 	 * @throws ClientProtocolException
 	 * @throws IOException
 	 * @throws URISyntaxException
-	 * @throws Error Any error that has the server reported
+	 * @throws ClientException If the `uid` cannot be mapped to a `mongo_id`.
 	 */
-	public Creation create(final String metadata) throws ClientProtocolException, IOException, URISyntaxException, Error {
-		if(null == metadata || metadata.isEmpty()) {
-			throw new IllegalArgumentException("No metadata given");
-		}
-		
-		final Creation creation = gson.fromJson(Request.Post(joinURIs(this.uri, "files"))
-											 		   .bodyString(metadata, ContentType.APPLICATION_JSON)
-											 	       .execute()
-											 	       .handleResponse(new ResponseHandleBuilder(HttpStatus.SC_CREATED, HttpStatus.SC_OK)),
-											 	Creation.class);
-		
-		final LinkedTreeMap<?, ?> md = (LinkedTreeMap<?, ?>) gson.fromJson(metadata, Object.class);
-		
-		// Cache `uid`/`mongo_id`
-		cache.setMongoId(findUid(md), getMongoIdFromPath(creation.getFile()));
-		
-		return creation;
+	public LinkedTreeMap<?, ?> getByUid(final String uid) throws Error, ClientProtocolException, IOException, URISyntaxException, ClientException {
+		return get(getMongoIdByUid(uid));
 	}
 	
 	/**
-	 * Queries the metadata for the given `mongo_id`.
+	 * Queries the metadata for the given `uid` and parses it into the given type.
 	 * 
-	 * @param mongoId
+	 * @see #get(String, Class)
+	 * @param uid
+	 * @param type
 	 * @return
+	 * @throws Error
 	 * @throws ClientProtocolException
-	 * @throws UnsupportedEncodingException
 	 * @throws IOException
 	 * @throws URISyntaxException
+	 * @throws ClientException If the `uid` cannot be mapped to a `mongo_id`.
 	 */
-	public LinkedTreeMap<?, ?> get(final String mongoId) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
-		final ResponseHandleBuilder rhandler = new ResponseHandleBuilder(HttpStatus.SC_OK, true);
-		
-		final LinkedTreeMap<?, ?> metadata = (LinkedTreeMap<?, ?>) 
-				gson.fromJson(Request.Get(joinURIs(this.uri, "files", URLEncoder.encode(mongoId, "UTF-8")))
-									 .execute()
-									 .handleResponse(rhandler),
-					          Object.class);
-		
-		// Cache etag
-		cache.setEtag(mongoId, rhandler.getEtag());
-		
-		// Cache `uid`/`mongo_id`
-		cache.setMongoId(findUid(metadata), mongoId);
-		
-		return metadata;
+	public <T> T getByUid(final String uid, final Class<T> type) throws Error, ClientProtocolException, IOException, URISyntaxException, ClientException {
+		return get(getMongoIdByUid(uid), type);
 	}
 	
 	/**
-	 * Queries the metadata for the given `uid`.
+	 * Queries only the given keys of the metadata for the given `uid`.
 	 * 
+	 * @see #get(String, Class, String...)
 	 * @param uid
+	 * @param type
+	 * @param keys The keys or nothing for all keys
 	 * @return
 	 * @throws Error
 	 * @throws ClientProtocolException
@@ -223,8 +1269,8 @@ public class Client {
 	 * @throws URISyntaxException
 	 * @throws ClientException If the `uid` cannot be mapped to a `mongo_id`.
 	 */
-	public LinkedTreeMap<?, ?> getByUid(final String uid) throws Error, ClientProtocolException, IOException, URISyntaxException, ClientException {
-		return get(getMongoIdByUid(uid));
+	public <T> T getByUid(final String uid, final Class<T> type, final String... keys) throws Error, ClientProtocolException, IOException, URISyntaxException, ClientException {
+		return get(getMongoIdByUid(uid), type, keys);
 	}
 	
 	/**
@@ -272,6 +1318,82 @@ public class Client {
 		return updateOrReplace(mongoId, metadata, clearCache, Operation.UPDATE);
 	}
 	
+	/**
+	 * Updates the metadata by `mongo_id` and parses the updated metadata into the given type.
+	 * 
+	 * @see #update(String, String, boolean)
+	 * @see #get(String, Class)
+	 * @param mongoId The `mongo_id` identifier for the metadata
+	 * @param metadata The metadata as JSON string. E.g. <code>{"backup": True}</code>
+	 * @param clearCache If <code>clearCache</code> is <code>true</code>, the {@link #get(String)}
+	 * will be executed to get the latest Etag.
+	 * @param type
+	 * @return The updated metadata
+	 * @throws ClientProtocolException
+	 * @throws UnsupportedEncodingException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	public <T> T update(final String mongoId, final String metadata, final boolean clearCache, final Class<T> type) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
+		return updateOrReplace(mongoId, metadata, clearCache, Operation.UPDATE, type);
+	}
+	
+	/**
+	 * Updates the metadata by `mongo_id` with an object that is serialized with gson straight into the request body, e.g. a
+	 * {@link Map}.
+	 * 
+	 * @see #update(String, String)
+	 * @param mongoId The `mongo_id` identifier for the metadata
+	 * @param metadata
+	 * @return The updated metadata
+	 * @throws ClientProtocolException
+	 * @throws UnsupportedEncodingException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	public LinkedTreeMap<?, ?> update(final String mongoId, final Object metadata) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
+		return update(mongoId, metadata, false);
+	}
+	
+	/**
+	 * Updates the metadata by `mongo_id` with an object that is serialized with gson straight into the request body, e.g. a
+	 * {@link Map}.
+	 * 
+	 * @see #update(String, String, boolean)
+	 * @param mongoId The `mongo_id` identifier for the metadata
+	 * @param metadata
+	 * @param clearCache If <code>clearCache</code> is <code>true</code>, the {@link #get(String)}
+	 * will be executed to get the latest Etag.
+	 * @return The updated metadata
+	 * @throws ClientProtocolException
+	 * @throws UnsupportedEncodingException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	public LinkedTreeMap<?, ?> update(final String mongoId, final Object metadata, final boolean clearCache) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
+		if(metadata instanceof String) {
+			return update(mongoId, (String) metadata, clearCache);
+		}
+		
+		return (LinkedTreeMap<?, ?>) updateOrReplace(mongoId, JsonEntity.of(gson, metadata), clearCache, Operation.UPDATE, Object.class);
+	}
+	
+	/**
+	 * Updates the metadata by `mongo_id` with metadata that is written straight into the request body by the given writer.
+	 * 
+	 * @see #update(String, String)
+	 * @param mongoId The `mongo_id` identifier for the metadata
+	 * @param metadata
+	 * @return The updated metadata
+	 * @throws ClientProtocolException
+	 * @throws UnsupportedEncodingException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	public LinkedTreeMap<?, ?> update(final String mongoId, final MetadataWriter metadata) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
+		return (LinkedTreeMap<?, ?>) updateOrReplace(mongoId, new JsonEntity(metadata), false, Operation.UPDATE, Object.class);
+	}
+	
 	/**
 	 * Updates the metadata by `uid`.
 	 * 
@@ -368,6 +1490,82 @@ public class Client {
 		return updateOrReplace(mongoId, metadata, clearCache, Operation.REPLACE);
 	}
 	
+	/**
+	 * Replaces the metadata by `mongo_id` and parses the new metadata into the given type.
+	 * 
+	 * @see #replace(String, String, boolean)
+	 * @see #get(String, Class)
+	 * @param mongoId The `mongo_id` identifier for the metadata
+	 * @param metadata The metadata as JSON string. E.g. <code>{"backup": True}</code>
+	 * @param clearCache If <code>clearCache</code> is <code>true</code>, the {@link #get(String)}
+	 * will be executed to get the latest Etag.
+	 * @param type
+	 * @return The updated metadata
+	 * @throws ClientProtocolException
+	 * @throws UnsupportedEncodingException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	public <T> T replace(final String mongoId, final String metadata, final boolean clearCache, final Class<T> type) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
+		return updateOrReplace(mongoId, metadata, clearCache, Operation.REPLACE, type);
+	}
+	
+	/**
+	 * Replaces the metadata by `mongo_id` with an object that is serialized with gson straight into the request body, e.g. a
+	 * {@link Map}.
+	 * 
+	 * @see #replace(String, String)
+	 * @param mongoId The `mongo_id` identifier for the metadata
+	 * @param metadata
+	 * @return The updated metadata
+	 * @throws ClientProtocolException
+	 * @throws UnsupportedEncodingException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	public LinkedTreeMap<?, ?> replace(final String mongoId, final Object metadata) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
+		return replace(mongoId, metadata, false);
+	}
+	
+	/**
+	 * Replaces the metadata by `mongo_id` with an object that is serialized with gson straight into the request body, e.g. a
+	 * {@link Map}.
+	 * 
+	 * @see #replace(String, String, boolean)
+	 * @param mongoId The `mongo_id` identifier for the metadata
+	 * @param metadata
+	 * @param clearCache If <code>clearCache</code> is <code>true</code>, the {@link #get(String)}
+	 * will be executed to get the latest Etag.
+	 * @return The updated metadata
+	 * @throws ClientProtocolException
+	 * @throws UnsupportedEncodingException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	public LinkedTreeMap<?, ?> replace(final String mongoId, final Object metadata, final boolean clearCache) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
+		if(metadata instanceof String) {
+			return replace(mongoId, (String) metadata, clearCache);
+		}
+		
+		return (LinkedTreeMap<?, ?>) updateOrReplace(mongoId, JsonEntity.of(gson, metadata), clearCache, Operation.REPLACE, Object.class);
+	}
+	
+	/**
+	 * Replaces the metadata by `mongo_id` with metadata that is written straight into the request body by the given writer.
+	 * 
+	 * @see #replace(String, String)
+	 * @param mongoId The `mongo_id` identifier for the metadata
+	 * @param metadata
+	 * @return The updated metadata
+	 * @throws ClientProtocolException
+	 * @throws UnsupportedEncodingException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	public LinkedTreeMap<?, ?> replace(final String mongoId, final MetadataWriter metadata) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
+		return (LinkedTreeMap<?, ?>) updateOrReplace(mongoId, new JsonEntity(metadata), false, Operation.REPLACE, Object.class);
+	}
+	
 	/**
 	 * Replaces the metadata by `mongo_id`. That means, only the data that is passed with the <code>metadata</code>
 	 * will be written into the database. `mongo_id` and `uid` will be added automatically by the server.
@@ -447,59 +1645,145 @@ public class Client {
 	 * @throws URISyntaxException
 	 */
 	protected LinkedTreeMap<?, ?> updateOrReplace(final String mongoId, final String metadata, final boolean clearCache, final Operation operation) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
+		return (LinkedTreeMap<?, ?>) updateOrReplace(mongoId, metadata, clearCache, operation, Object.class);
+	}
+	
+	/**
+	 * Like {@link #updateOrReplace(String, String, boolean, Operation)}, but parses the result into the given type.
+	 * 
+	 * @param mongoId The `mongo_id` identifier for the metadata
+	 * @param metadata The metadata as JSON string. E.g. <code>{"backup": True}</code>
+	 * @param clearCache If <code>clearCache</code> is <code>true</code>, the {@link #get(String)}
+	 * will be executed to get the latest Etag.
+	 * @param operation {@link Operation#REPLACE} or {@link Operation#UPDATE}.
+	 * @param type
+	 * @return The updated metadata
+	 * @throws ClientProtocolException
+	 * @throws UnsupportedEncodingException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	protected <T> T updateOrReplace(final String mongoId, final String metadata, final boolean clearCache, final Operation operation, final Class<T> type) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
 		if(null == metadata || metadata.isEmpty()) {
 			throw new IllegalArgumentException("No metadata given");
 		}
 		
+		return updateOrReplace(mongoId, new StringEntity(metadata, ContentType.APPLICATION_JSON), clearCache, operation, type);
+	}
+	
+	/**
+	 * Like {@link #updateOrReplace(String, String, boolean, Operation, Class)}, but sends the given body. The body
+	 * must be repeatable, since it is sent again if the etag is outdated.
+	 * 
+	 * @param mongoId The `mongo_id` identifier for the metadata
+	 * @param metadata The metadata as JSON
+	 * @param clearCache If <code>clearCache</code> is <code>true</code>, the {@link #get(String)}
+	 * will be executed to get the latest Etag.
+	 * @param operation {@link Operation#REPLACE} or {@link Operation#UPDATE}.
+	 * @param type
+	 * @return The updated metadata
+	 * @throws ClientProtocolException
+	 * @throws UnsupportedEncodingException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	protected <T> T updateOrReplace(final String mongoId, final HttpEntity metadata, final boolean clearCache, final Operation operation, final Class<T> type) throws ClientProtocolException, UnsupportedEncodingException, IOException, URISyntaxException {
 		// If clearCache is set to true, it will be forced that
 		// the etag will be queried from the server and not be
-		// get from the cache
-		if(clearCache) {
+		// get from the cache. Optimistic updates recover from a
+		// stale etag anyway, so they try the cached one.
+		if(clearCache && !config.isOptimisticUpdates()) {
 			cache.deleteEtag(mongoId);
 		}
 		
-		String etag = cache.getEtag(mongoId);
-		if(null == etag) {
+		// Optimistic updates don't ask for the etag, the server
+		// responds with the current etag if it does not match
+		String etag = getCachedEtag(mongoId);
+		if(null == etag && !config.isOptimisticUpdates()) {
 			// OK, no etag in cache. Use the get() method.
 			// There is no need to interpret the result since get()
 			// Caches the etag automatically
 			get(mongoId);
 			
-			// Let's try again...
-			etag = cache.getEtag(mongoId);
-			if(null == etag) {
-				throw new ClientException("Could not update file with `mongo_id` = " + mongoId + " because we could not find the etag");
+			// Let's try again...
+			etag = cache.getEtag(mongoId);
+			if(null == etag) {
+				throw new ClientException("Could not update file with `mongo_id` = " + mongoId + " because we could not find the etag");
+			}
+		}
+		
+		// Let's see... we have the mongo_id, metadata, and the etag... everything we need we have. Yay!
+		final URI uri = fileUri(files, mongoId);
+		
+		try {
+			return updateOrReplace(mongoId, uri, metadata, etag, operation, type);
+		} catch(ConflictError | PreconditionFailedError e) {
+			if(!config.isOptimisticUpdates()) {
+				throw e;
+			}
+			
+			String currentEtag = e.getEtag();
+			if(null == currentEtag) {
+				// The server did not tell us the current etag
+				cache.deleteEtag(mongoId);
+				get(mongoId);
+				currentEtag = cache.getEtag(mongoId);
+			}
+			
+			if(null == currentEtag || currentEtag.equals(etag)) {
+				// Not an etag mismatch
+				throw e;
 			}
+			
+			// Retry once
+			return updateOrReplace(mongoId, uri, metadata, currentEtag, operation, type);
 		}
-		
-		// Let's see... we have the mongo_id, metadata, and the etag... everything we need we have. Yay!
-		Request request = null;
-		final URI uri = joinURIs(this.uri, "files", URLEncoder.encode(mongoId, "UTF-8"));
+	}
+	
+	/**
+	 * Sends an update or a replacement with the given etag and caches the new etag.
+	 * 
+	 * @param mongoId
+	 * @param uri
+	 * @param metadata
+	 * @param etag The etag or <code>null</code> if it is unknown
+	 * @param operation
+	 * @param type
+	 * @return
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 */
+	private <T> T updateOrReplace(final String mongoId, final URI uri, final HttpEntity metadata, final String etag, final Operation operation, final Class<T> type) throws ClientProtocolException, IOException {
+		HttpEntityEnclosingRequestBase request = null;
 		
 		switch(operation) {
 			case REPLACE:
-				request = Request.Put(uri);
+				request = new HttpPut(uri);
 				break;
 				
 			case UPDATE:
-				request = Request.Patch(uri);
+				request = new HttpPatch(uri);
 				break;
 				
 			default:
 				throw new UnsupportedOperationException("Operation " + operation + " is not supported.");
 		}
 		
-		final ResponseHandleBuilder rhandler = new ResponseHandleBuilder(HttpStatus.SC_OK, true);
+		final ResponseHandleBuilder<T> rhandler = new ResponseHandleBuilder<T>(gson, type, HttpStatus.SC_OK, true)
+				.setErrorStackTraces(config.isErrorStackTraces());
+		
+		request.setEntity(metadata);
+		
+		if(null != etag) {
+			request.addHeader("If-None-Match", etag);
+		}
 		
-		final String result = request.bodyString(metadata, ContentType.APPLICATION_JSON)
-								     .addHeader("If-None-Match", etag)
-								     .execute()
-								     .handleResponse(rhandler);
+		final T result = execute(request, rhandler);
 		
 		// Cache etag
 		cache.setEtag(mongoId, rhandler.getEtag());
 		
-		return (LinkedTreeMap<?, ?>) gson.fromJson(result, Object.class);
+		return result;
 	}
 	
 	/**
@@ -516,9 +1800,8 @@ public class Client {
 			throw new IllegalArgumentException("No mongo_id given");
 		}
 		
-		Request.Delete(joinURIs(this.uri, "files", URLEncoder.encode(mongoId, "UTF-8")))
-								.execute()
-								.handleResponse(new ResponseHandleBuilder(HttpStatus.SC_NO_CONTENT));
+		execute(new HttpDelete(fileUri(files, mongoId)),
+				new ResponseHandleBuilder<Void>(gson, null, HttpStatus.SC_NO_CONTENT).setErrorStackTraces(config.isErrorStackTraces()));
 		
 		cache.clearCacheByMongoId(mongoId);
 	}
@@ -550,20 +1833,317 @@ public class Client {
 	 * @throws ClientException 
 	 */
 	protected String getMongoIdByUid(final String uid) throws Error, ClientProtocolException, IOException, URISyntaxException, ClientException {
-		String mongoId = cache.getMongoId(uid);
+		final String mongoId = getCachedMongoId(uid);
 		
-		if(null == mongoId) {
-			// OK, mongo_id isn't in the cache. Query it
-			getList("{\"uid\": \"" + uid + "\"}");
+		if(null != mongoId) {
+			return mongoId;
+		}
+		
+		// OK, mongo_id isn't in the cache. Query it, concurrent callers wait for the same query
+		return mongoIdLookups.execute(uid, () -> {
+			final JsonObject query = new JsonObject();
+			query.addProperty("uid", uid);
+			
+			getList(query.toString());
 			// We don't need to handle the output since getList() caches uid/mongo_id
 			
-			mongoId = cache.getMongoId(uid);
-			if(null == mongoId) {
+			final String queriedMongoId = cache.getMongoId(uid);
+			if(null == queriedMongoId) {
 				throw new ClientException("The uid `" + uid +"` is not present in the file catalog");
 			}
+			
+			return queriedMongoId;
+		});
+	}
+	
+	/**
+	 * @return The number of calls of {@link #get(String)} and lookups of `mongo_id`s that have not been sent
+	 * to the server, because an identical request was already in flight. This includes the etag queries of updates.
+	 */
+	public long getCoalescedRequests() {
+		return documents.getCoalesced() + mongoIdLookups.getCoalesced();
+	}
+	
+	/**
+	 * Tries to find the corresponding `mongo_id`s for the given `uid`s.
+	 * 
+	 * @see #resolveMongoIds(Collection)
+	 * @param uids
+	 * @return The `uid`/`mongo_id` mapping in the order of the given `uid`s.
+	 * @throws Error
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 * @throws ClientException If a `uid` is not present in the file catalog.
+	 */
+	protected Map<String, String> getMongoIdsByUids(final Collection<String> uids) throws Error, ClientProtocolException, IOException, URISyntaxException, ClientException {
+		final Map<String, String> mongoIds = resolveMongoIds(uids);
+		
+		if(mongoIds.size() < new HashSet<>(uids).size()) {
+			final List<String> missing = new ArrayList<>();
+			
+			for(String uid: uids) {
+				if(!mongoIds.containsKey(uid)) {
+					missing.add(uid);
+				}
+			}
+			
+			throw new ClientException("The uids " + missing + " are not present in the file catalog");
 		}
 		
-		return mongoId;
+		return mongoIds;
+	}
+	
+	/**
+	 * Finds the corresponding `mongo_id`s for many `uid`s at once.
+	 * 
+	 * The `uid`s are looked up in the cache first. The remaining `uid`s are queried in chunks of
+	 * {@link ClientConfig#getResolveChunkSize()} by using one <code>{"uid": {"$in": [...]}}</code> query
+	 * per chunk instead of one query per `uid`. If the server returns a chunk in several pages, they are
+	 * fetched by using `limit` and `start`, or by `mongo_id` if {@link ClientConfig#isKeysetPagination()}.
+	 * 
+	 * Caches automatically the `uid`/`mongo_id` mapping.
+	 * 
+	 * @param uids
+	 * @return The `uid`/`mongo_id` mapping in the order of the given `uid`s. `uid`s that are not present
+	 * in the file catalog are not contained.
+	 * @throws Error Any error that has the server reported
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	public Map<String, String> resolveMongoIds(final Collection<String> uids) throws Error, ClientProtocolException, IOException, URISyntaxException {
+		final Set<String> unique = new LinkedHashSet<>(uids);
+		final Map<String, String> resolved = new HashMap<>();
+		final List<String> misses = new ArrayList<>();
+		
+		for(String uid: unique) {
+			final String mongoId = getCachedMongoId(uid);
+			
+			if(null == mongoId) {
+				misses.add(uid);
+			} else {
+				resolved.put(uid, mongoId);
+			}
+		}
+		
+		final int chunkSize = config.getResolveChunkSize();
+		for(int i = 0; i < misses.size(); i += chunkSize) {
+			resolveChunk(misses.subList(i, Math.min(i + chunkSize, misses.size())), resolved);
+		}
+		
+		final Map<String, String> result = new LinkedHashMap<>();
+		for(String uid: unique) {
+			final String mongoId = resolved.get(uid);
+			
+			if(null != mongoId) {
+				result.put(uid, mongoId);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Queries the `mongo_id`s of one chunk of `uid`s. Pages are fetched until all `uid`s
+	 * have been found or the server returns an empty page.
+	 * 
+	 * @param uids
+	 * @param resolved The found `uid`/`mongo_id` pairs are put into this map.
+	 * @throws Error
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	private void resolveChunk(final List<String> uids, final Map<String, String> resolved) throws Error, ClientProtocolException, IOException, URISyntaxException {
+		final JsonArray in = new JsonArray();
+		for(String uid: uids) {
+			in.add(uid);
+		}
+		
+		final JsonObject condition = new JsonObject();
+		condition.add("$in", in);
+		
+		final JsonObject query = new JsonObject();
+		query.add("uid", condition);
+		
+		final Set<String> pending = new HashSet<>(uids);
+		final boolean keyset = config.isKeysetPagination();
+		int start = 0;
+		String after = null;
+		
+		while(!pending.isEmpty()) {
+			final BasicMetaData[] files = (keyset
+					? getListAfter(query.toString(), uids.size(), after)
+					: getList(query.toString(), uids.size(), start)).getEmbedded().getFiles();
+			
+			if(0 == files.length) {
+				break;
+			}
+			
+			for(BasicMetaData file: files) {
+				if(pending.remove(file.getUid())) {
+					resolved.put(file.getUid(), file.getMongoId());
+				}
+			}
+			
+			start += files.length;
+			after = files[files.length - 1].getMongoId();
+		}
+	}
+	
+	/**
+	 * Queries the metadata for many `uid`s. The `uid`s are resolved with {@link #resolveMongoIds(Collection)}.
+	 * 
+	 * @see #getByUid(String)
+	 * @param uids
+	 * @return The metadata by `uid` in the order of the given `uid`s.
+	 * @throws Error
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 * @throws ClientException If a `uid` cannot be mapped to a `mongo_id`. In this case no metadata is queried.
+	 */
+	public Map<String, LinkedTreeMap<?, ?>> getByUids(final Collection<String> uids) throws Error, ClientProtocolException, IOException, URISyntaxException, ClientException {
+		final Map<String, LinkedTreeMap<?, ?>> result = new LinkedHashMap<>();
+		
+		for(Map.Entry<String, String> mapping: getMongoIdsByUids(uids).entrySet()) {
+			result.put(mapping.getKey(), get(mapping.getValue()));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Updates the metadata of many `uid`s. The `uid`s are resolved with {@link #resolveMongoIds(Collection)}.
+	 * 
+	 * @see #updateByUid(String, String)
+	 * @param metadata The metadata as JSON string by `uid`.
+	 * @return The updated metadata by `uid`.
+	 * @throws ConflictError If an Etag does not match. The files before have already been updated.
+	 * @throws Error
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 * @throws ClientException If a `uid` cannot be mapped to a `mongo_id`. In this case nothing is updated.
+	 */
+	public Map<String, LinkedTreeMap<?, ?>> updateByUids(final Map<String, String> metadata) throws Error, ClientProtocolException, IOException, URISyntaxException, ClientException {
+		return updateByUids(metadata, false);
+	}
+	
+	/**
+	 * Updates the metadata of many `uid`s. The `uid`s are resolved with {@link #resolveMongoIds(Collection)}.
+	 * 
+	 * @see #updateByUid(String, String, boolean)
+	 * @param metadata The metadata as JSON string by `uid`.
+	 * @param clearCache If <code>clearCache</code> is <code>true</code>, the {@link #get(String)}
+	 * will be executed to get the latest Etag.
+	 * @return The updated metadata by `uid`.
+	 * @throws ConflictError If an Etag does not match. The files before have already been updated.
+	 * @throws Error
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 * @throws ClientException If a `uid` cannot be mapped to a `mongo_id`. In this case nothing is updated.
+	 */
+	public Map<String, LinkedTreeMap<?, ?>> updateByUids(final Map<String, String> metadata, final boolean clearCache) throws Error, ClientProtocolException, IOException, URISyntaxException, ClientException {
+		final Map<String, LinkedTreeMap<?, ?>> result = new LinkedHashMap<>();
+		
+		for(Map.Entry<String, String> mapping: getMongoIdsByUids(metadata.keySet()).entrySet()) {
+			result.put(mapping.getKey(), update(mapping.getValue(), metadata.get(mapping.getKey()), clearCache));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Updates all files that match the `query` with the same metadata.
+	 * 
+	 * @see #updateAll(String, int, Function)
+	 * @param query JSON style string or <code>null</code> for all files
+	 * @param pageSize Number of files per listing request
+	 * @param metadata The metadata as JSON string
+	 * @return The number of updated files
+	 * @throws ConflictError If an Etag does not match. The files before have already been updated.
+	 * @throws Error
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	public long updateAll(final String query, int pageSize, final String metadata) throws Error, ClientProtocolException, IOException, URISyntaxException {
+		return updateAll(query, pageSize, file -> metadata);
+	}
+	
+	/**
+	 * Updates all files that match the `query`. The files are listed page by page with only their `mongo_id`s and
+	 * `etag`s, and the `etag`s are put into the cache. Thus, the updates do not query the `etag`s of the files one by
+	 * one, i.e. the sweep costs one request per file plus one request per page instead of two requests per file.
+	 * The next page is fetched while the files of the current page are updated. The files are always paged by the
+	 * last `mongo_id`, regardless of {@link ClientConfig#isKeysetPagination()}, since an update may change whether a
+	 * file matches the `query` and thereby shift the following pages.
+	 * 
+	 * <b>Note:</b> If the server does not list the `etag` of a file, its update queries the `etag` as usual, i.e.
+	 * with an extra request. Every listed file is reported to {@link ClientMetrics#onCacheLookup} as
+	 * {@link ClientMetrics.Lookup#LISTED_ETAG}, a miss for each of these extra requests.
+	 * 
+	 * <b>Example:</b>
+	 * <pre>client.updateAll("{\"run\": 1234}", 1000, file -&gt; "{\"backup\": true}");</pre>
+	 * 
+	 * @param query JSON style string or <code>null</code> for all files
+	 * @param pageSize Number of files per listing request
+	 * @param metadata Returns the metadata as JSON string for a listed file (`mongo_id`, `uid` and `etag`) or
+	 * <code>null</code> in order to skip the file
+	 * @return The number of updated files
+	 * @throws ConflictError If an Etag does not match. The files before have already been updated.
+	 * @throws Error
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 */
+	public long updateAll(final String query, int pageSize, final Function<FileMetadata, String> metadata) throws Error, ClientProtocolException, IOException, URISyntaxException {
+		long updated = 0;
+		
+		try(final FileListIterator files = new FileListIterator(this, query, pageSize, new String[] {"mongo_id", "etag"}, true, getExecutor())) {
+			while(files.hasNext()) {
+				final FileMetadata file = files.next();
+				final String update = metadata.apply(file);
+				
+				if(null == update) {
+					continue;
+				}
+				
+				final Object etag = file.getExtra("etag");
+				config.getMetrics().onCacheLookup(ClientMetrics.Lookup.LISTED_ETAG, etag instanceof String);
+				
+				if(etag instanceof String) {
+					cache.setEtag(file.getMongoId(), (String) etag);
+				}
+				
+				update(file.getMongoId(), update);
+				++updated;
+			}
+		} catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+		
+		return updated;
+	}
+	
+	/**
+	 * Deletes the metadata of many `uid`s. The `uid`s are resolved with {@link #resolveMongoIds(Collection)}.
+	 * 
+	 * @see #deleteByUid(String)
+	 * @param uids
+	 * @throws Error
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws URISyntaxException
+	 * @throws ClientException If a `uid` cannot be mapped to a `mongo_id`. In this case nothing is deleted.
+	 */
+	public void deleteByUids(final Collection<String> uids) throws Error, ClientProtocolException, IOException, URISyntaxException, ClientException {
+		for(String mongoId: getMongoIdsByUids(uids).values()) {
+			delete(mongoId);
+		}
 	}
 	
 	/**
@@ -573,7 +2153,7 @@ public class Client {
 	 * @return
 	 * @throws ClientException
 	 */
-	protected String findUid(final LinkedTreeMap<?, ?> metadata) throws ClientException {
+	protected static String findUid(final LinkedTreeMap<?, ?> metadata) throws ClientException {
 		if(metadata.containsKey("uid")) {
 			return metadata.get("uid").toString();
 		} else {
@@ -581,6 +2161,55 @@ public class Client {
 		}
 	}
 	
+	/**
+	 * Caches the `uid`/`mongo_id` mapping of a server response. Responses of other types than {@link BasicMetaData}
+	 * and {@link LinkedTreeMap} are not inspected.
+	 * 
+	 * @param metadata
+	 * @param mongoId
+	 * @throws ClientException If the response is a {@link LinkedTreeMap} without `uid`.
+	 */
+	protected void cacheMongoId(final Object metadata, final String mongoId) throws ClientException {
+		if(metadata instanceof LinkedTreeMap) {
+			cache.setMongoId(findUid((LinkedTreeMap<?, ?>) metadata), mongoId);
+		} else if(metadata instanceof BasicMetaData && null != ((BasicMetaData) metadata).getUid()) {
+			cache.setMongoId(((BasicMetaData) metadata).getUid(), mongoId);
+		}
+	}
+	
+	/**
+	 * Returns the `uid` of the metadata. Only the top-level keys are scanned until the `uid` has been
+	 * found, nested values are skipped without being parsed.
+	 * 
+	 * @param metadata JSON style string
+	 * @return
+	 * @throws ClientException If the metadata has no `uid` or is not a JSON object.
+	 */
+	protected static String findUid(final String metadata) throws ClientException {
+		try(final JsonReader reader = new JsonReader(new StringReader(metadata))) {
+			reader.setLenient(true);
+			reader.beginObject();
+			
+			while(reader.hasNext()) {
+				if("uid".equals(reader.nextName())) {
+					final JsonToken token = reader.peek();
+					
+					if(JsonToken.STRING == token || JsonToken.NUMBER == token) {
+						return reader.nextString();
+					}
+					
+					break;
+				}
+				
+				reader.skipValue();
+			}
+		} catch(IOException | IllegalStateException e) {
+			throw new ClientException("Cannot parse metadata: " + e.getMessage());
+		}
+		
+		throw new ClientException("Cannot find `uid` in metadata.");
+	}
+	
 	/**
 	 * Joins URIs.
 	 * 
@@ -627,22 +2256,68 @@ public class Client {
 			throw new IllegalArgumentException("At least one URI must be passed");
 		}
 		
-		URI uri = base;
+		if(0 == uris.length) {
+			return base;
+		}
+		
+		// Joins the strings and parses the result only once
+		final StringBuilder uri = new StringBuilder(base.toString());
 		
 		for(String u: uris) {
-			final char lastChar = uri.toString().charAt(uri.toString().length() - 1);
+			final char lastChar = uri.charAt(uri.length() - 1);
 			final char firstChar = u.charAt(0);
 			
 			if(lastChar != '/' && firstChar != '/') {
-				uri = new URI(uri.toString() + "/" + u);
+				uri.append('/').append(u);
 			} else if(lastChar == '/' && firstChar == '/') {
-				uri = new URI(uri.toString() + u.substring(1));
+				uri.append(u, 1, u.length());
 			} else {
-				uri = new URI(uri.toString() + u);
+				uri.append(u);
+			}
+		}
+		
+		return new URI(uri.toString());
+	}
+	
+	/**
+	 * Returns the URI of the metadata of a file. The result is the same as
+	 * <code>joinURIs(files, URLEncoder.encode(mongoId, "UTF-8"))</code>, but `mongo_id`s that do not need to be
+	 * encoded, like the hex strings of MongoDB, are appended to the base without encoding.
+	 * 
+	 * @param files The files endpoint, e.g. `http://example.com/api/files`
+	 * @param mongoId
+	 * @return E.g. `http://example.com/api/files/57fd49163a7d4957ca064089`
+	 * @throws URISyntaxException
+	 * @throws UnsupportedEncodingException
+	 */
+	public static URI fileUri(final URI files, final String mongoId) throws URISyntaxException, UnsupportedEncodingException {
+		if(mongoId.isEmpty() || !isUrlSafe(mongoId)) {
+			return joinURIs(files, URLEncoder.encode(mongoId, "UTF-8"));
+		}
+		
+		final String base = files.toString();
+		
+		if('/' == base.charAt(base.length() - 1)) {
+			return new URI(base + mongoId);
+		} else {
+			return new URI(base + '/' + mongoId);
+		}
+	}
+	
+	/**
+	 * @param s
+	 * @return <code>true</code> if {@link URLEncoder} does not change the string.
+	 */
+	private static boolean isUrlSafe(final String s) {
+		for(int i = 0; i < s.length(); ++i) {
+			final char c = s.charAt(i);
+			
+			if(!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '-' || c == '*' || c == '_')) {
+				return false;
 			}
 		}
 		
-		return uri;
+		return true;
 	}
 	
 	/**
@@ -666,28 +2341,108 @@ public class Client {
 		return path.substring(lastSep + 1);
 	}
 	
-	protected class ResponseHandleBuilder implements ResponseHandler<String> {
+	/**
+	 * The parsed body and the etag of a response that is shared by coalesced requests.
+	 */
+	private static class Document {
+		/**
+		 * The thread that has sent the request and owns the {@link #value}.
+		 */
+		final Thread owner;
+		final Object value;
+		final String etag;
+		
+		/**
+		 * The {@link #value} as JSON tree for the coalesced requests or <code>null</code> if there are none.
+		 */
+		JsonElement tree;
+		
+		Document(final Thread owner, final Object value, final String etag) {
+			this.owner = owner;
+			this.value = value;
+			this.etag = etag;
+		}
+	}
+	
+	/**
+	 * Keeps connections alive as long as the server allows it (`Keep-Alive: timeout=...`)
+	 * but never longer than the configured maximum.
+	 */
+	protected static class CappedKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+		private final long keepAlive;
+		
+		public CappedKeepAliveStrategy(final long keepAlive) {
+			this.keepAlive = keepAlive;
+		}
+		
+		@Override
+		public long getKeepAliveDuration(final HttpResponse response, final HttpContext context) {
+			final BasicHeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+			
+			while(it.hasNext()) {
+				final HeaderElement he = it.nextElement();
+				
+				if("timeout".equalsIgnoreCase(he.getName()) && null != he.getValue()) {
+					try {
+						final long timeout = Long.parseLong(he.getValue());
+						
+						// HttpClient keeps a connection forever if the duration is not positive, but `timeout=0`
+						// means that the server closes it right away, i.e. it must not be reused
+						if(timeout <= 0) {
+							return 1;
+						}
+						
+						return timeout > keepAlive / 1000 ? keepAlive : timeout * 1000;
+					} catch(NumberFormatException e) {
+						// Ignore and use the configured maximum
+					}
+				}
+			}
+			
+			return keepAlive;
+		}
+	}
+	
+	/**
+	 * Checks the status code of the response, captures the etag and parses the body directly from the
+	 * response stream into the requested type. The body is only read into a string if the server
+	 * reported an error, in order to pass the message to {@link Error#errorFactory(StatusLine, String)}.
+	 * 
+	 * @param <T> The type of the parsed body
+	 */
+	protected static class ResponseHandleBuilder<T> implements ResponseHandler<T> {
+		private final Gson gson;
+		private final Type type;
 		private Set<Integer> goodResponseCodes;
 		private String etag;
 		private boolean etagRequired;
+		private boolean errorStackTraces = true;
 		
-		public ResponseHandleBuilder(final int goodResponseCode) {
-			this(goodResponseCode, false);
+		/**
+		 * @param gson The parser
+		 * @param type The type of the body. If <code>null</code>, the body is discarded and <code>null</code> is returned.
+		 * If {@link String}, the raw body is returned.
+		 * @param goodResponseCode
+		 */
+		public ResponseHandleBuilder(final Gson gson, final Type type, final int goodResponseCode) {
+			this(gson, type, goodResponseCode, false);
 		}
 		
-		public ResponseHandleBuilder(final Collection<Integer> goodResponseCodes) {
-			this(goodResponseCodes, false);
+		public ResponseHandleBuilder(final Gson gson, final Type type, final Collection<Integer> goodResponseCodes) {
+			this(gson, type, goodResponseCodes, false);
 		}
 		
-		public ResponseHandleBuilder(final Integer... goodResponseCodes) {
-			this(Arrays.asList(goodResponseCodes), false);
+		public ResponseHandleBuilder(final Gson gson, final Type type, final Integer... goodResponseCodes) {
+			this(gson, type, Arrays.asList(goodResponseCodes), false);
 		}
 		
-		public ResponseHandleBuilder(final int goodResponseCodes, final boolean etagRequired) {
-			this(Arrays.asList(goodResponseCodes), etagRequired);
+		public ResponseHandleBuilder(final Gson gson, final Type type, final int goodResponseCodes, final boolean etagRequired) {
+			this(gson, type, Arrays.asList(goodResponseCodes), etagRequired);
 		}
 		
-		public ResponseHandleBuilder(final Collection<Integer> goodResponseCodes, final boolean etagRequired) {
+		public ResponseHandleBuilder(final Gson gson, final Type type, final Collection<Integer> goodResponseCodes, final boolean etagRequired) {
+			this.gson = gson;
+			this.type = type;
 			this.goodResponseCodes = new HashSet<>(goodResponseCodes);
 			this.etagRequired = etagRequired;
 		}
@@ -696,14 +2451,33 @@ public class Client {
 			return etag;
 		}
 		
-		private String readContent(final HttpEntity entity) throws UnsupportedOperationException, IOException {
+		/**
+		 * @param errorStackTraces If <code>false</code>, the {@link Error}s are created without stack trace.
+		 * @see ClientConfig.Builder#setErrorStackTraces(boolean)
+		 * @return This handler
+		 */
+		public ResponseHandleBuilder<T> setErrorStackTraces(boolean errorStackTraces) {
+			this.errorStackTraces = errorStackTraces;
+			return this;
+		}
+		
+		private static Reader openReader(final HttpEntity entity) throws UnsupportedOperationException, IOException {
+			Charset charset = ContentType.getOrDefault(entity).getCharset();
+			
+			if(null == charset) {
+				// JSON is UTF-8 by default
+				charset = Consts.UTF_8;
+			}
+			
+			return new InputStreamReader(entity.getContent(), charset);
+		}
+		
+		private static String readContent(final HttpEntity entity) throws UnsupportedOperationException, IOException {
 			if(null == entity) {
 				return null;
 			}
 			
-			final ContentType contentType = ContentType.getOrDefault(entity);
-			final Charset charset = contentType.getCharset();
-			final Reader reader = new InputStreamReader(entity.getContent(), charset);
+			final Reader reader = openReader(entity);
 			
 			final StringBuilder sb = new StringBuilder();
 			final char[] buffer = new char[1024];
@@ -719,11 +2493,33 @@ public class Client {
 			return sb.toString();
 		}
 		
+		@SuppressWarnings("unchecked")
+		private T parseContent(final HttpEntity entity) throws UnsupportedOperationException, IOException {
+			if(null == entity || null == type) {
+				EntityUtils.consume(entity);
+				return null;
+			}
+			
+			if(String.class == type) {
+				// The raw body
+				return (T) readContent(entity);
+			}
+			
+			final JsonReader reader = new JsonReader(openReader(entity));
+			
+			try {
+				return gson.fromJson(reader, type);
+			} catch(JsonParseException e) {
+				throw new ClientException("Cannot parse server response: " + e.getMessage());
+			} finally {
+				reader.close();
+			}
+		}
+		
 		@Override
-		public String handleResponse(final HttpResponse response) throws IOException {
+		public T handleResponse(final HttpResponse response) throws IOException {
 			final StatusLine statusLine = response.getStatusLine();
 			final HttpEntity entity = response.getEntity();
-			final String serverResponseString = readContent(entity);
 			
 			if(this.goodResponseCodes.contains(statusLine.getStatusCode())) {
 				// Find Etag
@@ -739,12 +2535,20 @@ public class Client {
 					}
 				}
 				
-				return serverResponseString;
+				return parseContent(entity);
 			} else {
 				if (null == entity) {
 		            throw new ClientProtocolException("Response contains no content");
 		        } else {
-		        	throw Error.errorFactory(statusLine, serverResponseString);
+		        	final Error error = Error.errorFactory(statusLine, readContent(entity), errorStackTraces);
+		        	error.setRetryAfter(RetryPolicy.parseRetryAfter(response.getFirstHeader(HttpHeaders.RETRY_AFTER)));
+		        	
+		        	final Header etag = response.getFirstHeader("etag");
+		        	if(null != etag) {
+		        		error.setEtag(etag.getValue());
+		        	}
+		        	
+		        	throw error;
 		        }
 			}
 		}
@@ -0,0 +1,639 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+
+/**
+ * Immutable configuration of the HTTP transport of a {@link Client}. Every {@link Client} owns
+ * its own connection pool that is set up according to this configuration.
+ *
+ * <b>Example:</b>
+ * <pre>final ClientConfig config = ClientConfig.custom()
+ * 		.setMaxTotal(100)
+ * 		.setMaxPerRoute(100)
+ * 		.setSocketTimeout(30, TimeUnit.SECONDS)
+ * 		.build();
+ *
+ * try(final Client c = new Client("http://localhost", 8888, config)) {
+ * 	...
+ * }</pre>
+ *
+ * @see #custom()
+ */
+public class ClientConfig {
+	/**
+	 * The configuration that is used if no configuration has been passed to the {@link Client}.
+	 */
+	public static final ClientConfig DEFAULT = custom().build();
+
+	private final int maxTotal;
+	private final int maxPerRoute;
+	private final int connectTimeout;
+	private final int socketTimeout;
+	private final int connectionRequestTimeout;
+	private final long maxIdleTime;
+	private final long keepAlive;
+	private final ConnectionKeepAliveStrategy keepAliveStrategy;
+	private final int maxInFlight;
+	private final int resolveChunkSize;
+	private final int bulkParallelism;
+	private final RetryPolicy retryPolicy;
+	private final RateLimiter rateLimiter;
+	private final int bodyCacheEntries;
+	private final long bodyCacheMaxObjectSize;
+	private final Path bodyCacheDirectory;
+	private final boolean optimisticUpdates;
+	private final ClientMetrics metrics;
+	private final boolean errorStackTraces;
+	private final int pipelineDepth;
+	private final boolean keysetPagination;
+
+	protected ClientConfig(final Builder builder) {
+		this.maxTotal = builder.maxTotal;
+		this.maxPerRoute = builder.maxPerRoute;
+		this.connectTimeout = builder.connectTimeout;
+		this.socketTimeout = builder.socketTimeout;
+		this.connectionRequestTimeout = builder.connectionRequestTimeout;
+		this.maxIdleTime = builder.maxIdleTime;
+		this.keepAlive = builder.keepAlive;
+		this.keepAliveStrategy = builder.keepAliveStrategy;
+		this.maxInFlight = builder.maxInFlight;
+		this.resolveChunkSize = builder.resolveChunkSize;
+		this.bulkParallelism = builder.bulkParallelism;
+		this.retryPolicy = builder.retryPolicy;
+		this.rateLimiter = builder.rateLimiter;
+		this.bodyCacheEntries = builder.bodyCacheEntries;
+		this.bodyCacheMaxObjectSize = builder.bodyCacheMaxObjectSize;
+		this.bodyCacheDirectory = builder.bodyCacheDirectory;
+		this.optimisticUpdates = builder.optimisticUpdates;
+		this.metrics = builder.metrics;
+		this.errorStackTraces = builder.errorStackTraces;
+		this.pipelineDepth = builder.pipelineDepth;
+		this.keysetPagination = builder.keysetPagination;
+	}
+
+	/**
+	 * @return The maximum number of connections in the pool.
+	 */
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	/**
+	 * @return The maximum number of connections per route (that is per host/port).
+	 */
+	public int getMaxPerRoute() {
+		return maxPerRoute;
+	}
+
+	/**
+	 * @return Timeout in milliseconds until a connection is established. <code>0</code> means infinite.
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * @return Maximum period of inactivity in milliseconds between two data packets. <code>0</code> means infinite.
+	 */
+	public int getSocketTimeout() {
+		return socketTimeout;
+	}
+
+	/**
+	 * @return Timeout in milliseconds to wait for a connection from the pool. <code>0</code> means infinite.
+	 */
+	public int getConnectionRequestTimeout() {
+		return connectionRequestTimeout;
+	}
+
+	/**
+	 * @return Time in milliseconds after which idle connections are evicted from the pool. A value
+	 * <code>&lt;= 0</code> disables the eviction of idle connections.
+	 */
+	public long getMaxIdleTime() {
+		return maxIdleTime;
+	}
+
+	/**
+	 * @return Maximum time in milliseconds a connection is kept alive. If the server sends
+	 * a shorter `Keep-Alive: timeout`, the shorter time is used.
+	 */
+	public long getKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * @return The custom keep alive strategy or <code>null</code> if the strategy should be derived from {@link #getKeepAlive()}.
+	 */
+	public ConnectionKeepAliveStrategy getKeepAliveStrategy() {
+		return keepAliveStrategy;
+	}
+
+	/**
+	 * @return The maximum number of requests an {@link AsyncClient} executes concurrently. Further requests are queued.
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * @return The maximum number of `uid`s that {@link Client#resolveMongoIds(java.util.Collection)} puts into one query.
+	 */
+	public int getResolveChunkSize() {
+		return resolveChunkSize;
+	}
+
+	/**
+	 * @return The maximum number of requests that a bulk operation, e.g. {@link Client#createAll(Iterable)}, executes concurrently.
+	 */
+	public int getBulkParallelism() {
+		return bulkParallelism;
+	}
+
+	/**
+	 * @return The policy that decides whether requests that have been rejected by the server are retried.
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * @return The rate limiter that is shared by all clients with this configuration or <code>null</code> if the rate is not limited.
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * @return The maximum number of metadata responses a {@link Client} keeps in order to revalidate them with
+	 * `If-None-Match`. <code>0</code> means that the body cache is disabled.
+	 */
+	public int getBodyCacheEntries() {
+		return bodyCacheEntries;
+	}
+
+	/**
+	 * @return The maximum size in bytes of a response that is put into the body cache.
+	 */
+	public long getBodyCacheMaxObjectSize() {
+		return bodyCacheMaxObjectSize;
+	}
+
+	/**
+	 * @return The directory in which the bodies of the body cache are stored or <code>null</code> if they are held in memory.
+	 */
+	public Path getBodyCacheDirectory() {
+		return bodyCacheDirectory;
+	}
+
+	/**
+	 * @return <code>true</code> if updates are sent without fetching a missing etag first.
+	 * @see Builder#setOptimisticUpdates(boolean)
+	 */
+	public boolean isOptimisticUpdates() {
+		return optimisticUpdates;
+	}
+
+	/**
+	 * @return The listener that receives the measurements of the clients with this configuration.
+	 * @see Builder#setMetrics(ClientMetrics)
+	 */
+	public ClientMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return <code>true</code> if the {@link Error}s of the server responses capture their stack trace.
+	 * @see Builder#setErrorStackTraces(boolean)
+	 */
+	public boolean isErrorStackTraces() {
+		return errorStackTraces;
+	}
+
+	/**
+	 * @return The maximum number of requests an {@link AsyncClient} pipelines on one connection. <code>0</code>
+	 * means that pipelining is disabled.
+	 * @see Builder#setPipelineDepth(int)
+	 */
+	public int getPipelineDepth() {
+		return pipelineDepth;
+	}
+
+	/**
+	 * @return <code>true</code> if the file list is paged by `mongo_id` instead of `start`.
+	 * @see Builder#setKeysetPagination(boolean)
+	 */
+	public boolean isKeysetPagination() {
+		return keysetPagination;
+	}
+
+	/**
+	 * @return A new builder with the default values.
+	 */
+	public static Builder custom() {
+		return new Builder();
+	}
+
+	/**
+	 * @param config
+	 * @return A new builder that is initialized with the values of the given configuration.
+	 */
+	public static Builder copy(final ClientConfig config) {
+		return new Builder()
+				.setMaxTotal(config.maxTotal)
+				.setMaxPerRoute(config.maxPerRoute)
+				.setConnectTimeout(config.connectTimeout, TimeUnit.MILLISECONDS)
+				.setSocketTimeout(config.socketTimeout, TimeUnit.MILLISECONDS)
+				.setConnectionRequestTimeout(config.connectionRequestTimeout, TimeUnit.MILLISECONDS)
+				.setMaxIdleTime(config.maxIdleTime, TimeUnit.MILLISECONDS)
+				.setKeepAlive(config.keepAlive, TimeUnit.MILLISECONDS)
+				.setKeepAliveStrategy(config.keepAliveStrategy)
+				.setMaxInFlight(config.maxInFlight)
+				.setResolveChunkSize(config.resolveChunkSize)
+				.setBulkParallelism(config.bulkParallelism)
+				.setRetryPolicy(config.retryPolicy)
+				.setRateLimiter(config.rateLimiter)
+				.setBodyCacheEntries(config.bodyCacheEntries)
+				.setBodyCacheMaxObjectSize(config.bodyCacheMaxObjectSize)
+				.setBodyCacheDirectory(config.bodyCacheDirectory)
+				.setOptimisticUpdates(config.optimisticUpdates)
+				.setMetrics(config.metrics)
+				.setErrorStackTraces(config.errorStackTraces)
+				.setPipelineDepth(config.pipelineDepth)
+				.setKeysetPagination(config.keysetPagination);
+	}
+
+	public static class Builder {
+		private int maxTotal = 64;
+		private int maxPerRoute = 64;
+		private int connectTimeout = 10000;
+		private int socketTimeout = 60000;
+		private int connectionRequestTimeout = 30000;
+		private long maxIdleTime = 30000;
+		private long keepAlive = 30000;
+		private ConnectionKeepAliveStrategy keepAliveStrategy = null;
+		private int maxInFlight = 512;
+		private int resolveChunkSize = 100;
+		private int bulkParallelism = 16;
+		private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+		private RateLimiter rateLimiter = null;
+		private int bodyCacheEntries = 0;
+		private long bodyCacheMaxObjectSize = 64 * 1024;
+		private Path bodyCacheDirectory = null;
+		private boolean optimisticUpdates = false;
+		private ClientMetrics metrics = ClientMetrics.NONE;
+		private boolean errorStackTraces = true;
+		private int pipelineDepth = 0;
+		private boolean keysetPagination = false;
+
+		protected Builder() {}
+
+		/**
+		 * Sets the maximum number of connections in the pool. Default: 64
+		 *
+		 * @param maxTotal
+		 * @return This builder
+		 */
+		public Builder setMaxTotal(int maxTotal) {
+			if(maxTotal < 1) {
+				throw new IllegalArgumentException("maxTotal must be positive");
+			}
+
+			this.maxTotal = maxTotal;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of connections per route. Default: 64
+		 *
+		 * @param maxPerRoute
+		 * @return This builder
+		 */
+		public Builder setMaxPerRoute(int maxPerRoute) {
+			if(maxPerRoute < 1) {
+				throw new IllegalArgumentException("maxPerRoute must be positive");
+			}
+
+			this.maxPerRoute = maxPerRoute;
+			return this;
+		}
+
+		/**
+		 * Sets the timeout until a connection is established. <code>0</code> means infinite. Default: 10 seconds
+		 *
+		 * @param timeout
+		 * @param unit
+		 * @return This builder
+		 */
+		public Builder setConnectTimeout(long timeout, final TimeUnit unit) {
+			this.connectTimeout = toMillis(timeout, unit);
+			return this;
+		}
+
+		/**
+		 * Sets the maximum period of inactivity between two data packets. <code>0</code> means infinite. Default: 60 seconds
+		 *
+		 * @param timeout
+		 * @param unit
+		 * @return This builder
+		 */
+		public Builder setSocketTimeout(long timeout, final TimeUnit unit) {
+			this.socketTimeout = toMillis(timeout, unit);
+			return this;
+		}
+
+		/**
+		 * Sets the timeout to wait for a connection from the pool. <code>0</code> means infinite. Default: 30 seconds
+		 *
+		 * @param timeout
+		 * @param unit
+		 * @return This builder
+		 */
+		public Builder setConnectionRequestTimeout(long timeout, final TimeUnit unit) {
+			this.connectionRequestTimeout = toMillis(timeout, unit);
+			return this;
+		}
+
+		/**
+		 * Sets the time after which idle connections are evicted from the pool. A value <code>&lt;= 0</code>
+		 * disables the eviction. Default: 30 seconds
+		 *
+		 * @param maxIdleTime
+		 * @param unit
+		 * @return This builder
+		 */
+		public Builder setMaxIdleTime(long maxIdleTime, final TimeUnit unit) {
+			this.maxIdleTime = unit.toMillis(maxIdleTime);
+			return this;
+		}
+
+		/**
+		 * Sets the maximum time a connection is kept alive. If the server sends a shorter
+		 * `Keep-Alive: timeout`, the shorter time is used. Default: 30 seconds
+		 *
+		 * @param keepAlive At least one millisecond, since HttpClient keeps connections without a positive
+		 * duration alive forever
+		 * @param unit
+		 * @return This builder
+		 */
+		public Builder setKeepAlive(long keepAlive, final TimeUnit unit) {
+			if(unit.toMillis(keepAlive) < 1) {
+				throw new IllegalArgumentException("keepAlive must be at least one millisecond");
+			}
+
+			this.keepAlive = unit.toMillis(keepAlive);
+			return this;
+		}
+
+		/**
+		 * Sets a custom keep alive strategy. If set, {@link #setKeepAlive(long, TimeUnit)} is ignored.
+		 *
+		 * @param keepAliveStrategy
+		 * @return This builder
+		 */
+		public Builder setKeepAliveStrategy(final ConnectionKeepAliveStrategy keepAliveStrategy) {
+			this.keepAliveStrategy = keepAliveStrategy;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of requests an {@link AsyncClient} executes concurrently. Further
+		 * requests are queued until a running request has completed. Default: 512
+		 *
+		 * @param maxInFlight
+		 * @return This builder
+		 */
+		public Builder setMaxInFlight(int maxInFlight) {
+			if(maxInFlight < 1) {
+				throw new IllegalArgumentException("maxInFlight must be positive");
+			}
+
+			this.maxInFlight = maxInFlight;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of `uid`s that {@link Client#resolveMongoIds(java.util.Collection)} puts into
+		 * one <code>$in</code> query. Since the query is part of the URL, large chunks may exceed the maximum URL
+		 * length of the server. Default: 100
+		 *
+		 * @param resolveChunkSize
+		 * @return This builder
+		 */
+		public Builder setResolveChunkSize(int resolveChunkSize) {
+			if(resolveChunkSize < 1) {
+				throw new IllegalArgumentException("resolveChunkSize must be positive");
+			}
+
+			this.resolveChunkSize = resolveChunkSize;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of requests that a bulk operation, e.g. {@link Client#createAll(Iterable)},
+		 * executes concurrently. The input is not read ahead further than that. It should not exceed
+		 * {@link #setMaxPerRoute(int)}. Default: 16
+		 *
+		 * @param bulkParallelism
+		 * @return This builder
+		 */
+		public Builder setBulkParallelism(int bulkParallelism) {
+			if(bulkParallelism < 1) {
+				throw new IllegalArgumentException("bulkParallelism must be positive");
+			}
+
+			this.bulkParallelism = bulkParallelism;
+			return this;
+		}
+
+		/**
+		 * Sets the policy that decides whether requests that have been rejected by the server, e.g. with
+		 * {@link Error.TooManyRequestsError}, are retried. Use {@link RetryPolicy#NONE} in order to disable
+		 * retries. Default: {@link RetryPolicy#DEFAULT}
+		 *
+		 * @param retryPolicy
+		 * @return This builder
+		 */
+		public Builder setRetryPolicy(final RetryPolicy retryPolicy) {
+			if(null == retryPolicy) {
+				throw new IllegalArgumentException("retryPolicy must not be null");
+			}
+
+			this.retryPolicy = retryPolicy;
+			return this;
+		}
+
+		/**
+		 * Sets a rate limiter that adapts to the capacity of the server. The limiter is shared by all clients
+		 * that use this configuration. <code>null</code> disables the rate limit. Default: <code>null</code>
+		 *
+		 * @param rateLimiter
+		 * @return This builder
+		 */
+		public Builder setRateLimiter(final RateLimiter rateLimiter) {
+			this.rateLimiter = rateLimiter;
+			return this;
+		}
+
+		/**
+		 * Enables the body cache of the {@link Client}. The responses of {@link Client#get(String)} are kept and,
+		 * when the same metadata is queried again, the server is asked with `If-None-Match` whether the metadata
+		 * has changed. If not, the server responds with 304 Not Modified and the kept body is used. Updates,
+		 * replacements and deletions through the client evict the entry. <code>0</code> disables the body cache.
+		 * Default: 0
+		 *
+		 * <b>Note:</b> Projections and the file list are not cached since their URLs have parameters.
+		 *
+		 * @param bodyCacheEntries Maximum number of cached responses
+		 * @return This builder
+		 */
+		public Builder setBodyCacheEntries(int bodyCacheEntries) {
+			if(bodyCacheEntries < 0) {
+				throw new IllegalArgumentException("bodyCacheEntries must not be negative");
+			}
+
+			this.bodyCacheEntries = bodyCacheEntries;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum size of a response that is put into the body cache. Larger responses are not cached.
+		 * Default: 64 KiB
+		 *
+		 * @param bodyCacheMaxObjectSize Size in bytes
+		 * @return This builder
+		 */
+		public Builder setBodyCacheMaxObjectSize(long bodyCacheMaxObjectSize) {
+			if(bodyCacheMaxObjectSize < 1) {
+				throw new IllegalArgumentException("bodyCacheMaxObjectSize must be positive");
+			}
+
+			this.bodyCacheMaxObjectSize = bodyCacheMaxObjectSize;
+			return this;
+		}
+
+		/**
+		 * Stores the bodies of the body cache as files in the given directory instead of the heap. The files are
+		 * deleted when the {@link Client} is closed. <code>null</code> keeps the bodies in memory. Default: <code>null</code>
+		 *
+		 * @param bodyCacheDirectory
+		 * @return This builder
+		 */
+		public Builder setBodyCacheDirectory(final Path bodyCacheDirectory) {
+			this.bodyCacheDirectory = bodyCacheDirectory;
+			return this;
+		}
+
+		/**
+		 * Enables optimistic updates. If no etag is cached, updates and replacements are sent right away instead of
+		 * querying the etag with {@link Client#get(String)} first. If the server rejects the update because the etag
+		 * does not match ({@link Error.ConflictError} or {@link Error.PreconditionFailedError}), the update is sent
+		 * once more with the current etag from the error response. Thus, the metadata is not downloaded before the
+		 * first update of a file, and updates with <code>clearCache</code> try the cached etag first instead of
+		 * always querying it.
+		 *
+		 * <b>Note:</b> The retried update overwrites concurrent changes, even if the etag came from the cache.
+		 * Do not enable it if concurrent writers have to be detected. Default: <code>false</code>
+		 *
+		 * @param optimisticUpdates
+		 * @return This builder
+		 */
+		public Builder setOptimisticUpdates(boolean optimisticUpdates) {
+			this.optimisticUpdates = optimisticUpdates;
+			return this;
+		}
+
+		/**
+		 * Sets the listener that receives the latency, size and status code of every response, the errors, the
+		 * retries, the wait for a connection and the cache lookups. The listener is shared by all clients that use
+		 * this configuration. Use {@link RecordingClientMetrics} in order to keep them in memory.
+		 * Default: {@link ClientMetrics#NONE}
+		 *
+		 * @param metrics
+		 * @return This builder
+		 */
+		public Builder setMetrics(final ClientMetrics metrics) {
+			if(null == metrics) {
+				throw new IllegalArgumentException("metrics must not be null");
+			}
+
+			this.metrics = metrics;
+			return this;
+		}
+
+		/**
+		 * Disables the stack traces of the {@link Error}s that are created from the responses of the server.
+		 * Capturing the stack trace is the most expensive part of an error. Disable it if errors like
+		 * {@link Error.NotFoundError} or {@link Error.ConflictError} are expected and handled, e.g. when checking
+		 * which files exist, or to keep bursts of {@link Error.TooManyRequestsError} cheap. The errors still carry
+		 * the status code, the message and the etag. Default: <code>true</code>
+		 *
+		 * @param errorStackTraces
+		 * @return This builder
+		 */
+		public Builder setErrorStackTraces(boolean errorStackTraces) {
+			this.errorStackTraces = errorStackTraces;
+			return this;
+		}
+
+		/**
+		 * <b>Experimental:</b> Enables HTTP/1.1 pipelining in the {@link AsyncClient}. GET, HEAD and DELETE
+		 * requests that are issued concurrently are sent in batches of up to <code>pipelineDepth</code> requests
+		 * over one connection, without waiting for a response before sending the next request. Creating, updating
+		 * and replacing files is never pipelined. <code>0</code> disables pipelining. Default: 0
+		 *
+		 * <b>Note:</b> This is not a latency optimization. Every batch opens a connection of its own, which is
+		 * closed afterwards, i.e. it pays the connection setup that the pooled keep-alive connections of the default
+		 * client avoid, and the keep-alive settings do not apply to pipelined requests. It has not been shown to be
+		 * faster than the default. Moreover, the server answers the requests of a batch in order, so a slow request
+		 * delays the following ones, and if the connection breaks, all requests of the batch fail and are not sent
+		 * again. The blocking {@link Client} does not pipeline.
+		 *
+		 * @param pipelineDepth Maximum number of requests per batch
+		 * @return This builder
+		 */
+		public Builder setPipelineDepth(int pipelineDepth) {
+			if(pipelineDepth < 0) {
+				throw new IllegalArgumentException("pipelineDepth must not be negative");
+			}
+
+			this.pipelineDepth = pipelineDepth;
+			return this;
+		}
+
+		/**
+		 * Pages through the file list by `mongo_id` instead of by offset when iterating over files, e.g. with
+		 * {@link Client#iterate(String, int)}, or when resolving many `uid`s. Every page asks for the files after
+		 * the last `mongo_id` of the previous page, see {@link Client#getListAfter(String, int, String, String...)}.
+		 * The server does not have to skip the previous pages, so a scan over the whole catalog stays linear, and
+		 * files that are created or deleted during the scan do not shift the remaining pages. Default: <code>false</code>
+		 *
+		 * <b>Note:</b> The server must return the files ordered by `mongo_id` and support <code>$gt</code> and
+		 * <code>$and</code> in queries.
+		 *
+		 * @param keysetPagination
+		 * @return This builder
+		 */
+		public Builder setKeysetPagination(boolean keysetPagination) {
+			this.keysetPagination = keysetPagination;
+			return this;
+		}
+
+		public ClientConfig build() {
+			return new ClientConfig(this);
+		}
+
+		private static int toMillis(long timeout, final TimeUnit unit) {
+			final long millis = unit.toMillis(timeout);
+
+			if(millis < 0 || millis > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Timeout out of range: " + timeout + " " + unit);
+			}
+
+			return (int) millis;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package edu.wisc.icecube.filecatalog;
+
+import org.apache.http.HttpRequest;
+
+/**
+ * Receives the measurements of a {@link Client} or an {@link AsyncClient}: the latency, status code and size of
+ * every response, the errors, the retries, the time a request waited for a connection of the pool and the
+ * lookups in the {@link Cache}.
+ *
+ * The methods are called by the threads that execute the requests, i.e. concurrently. They must be thread-safe
+ * and must not block. All methods do nothing by default, so an implementation only overrides what it needs.
+ *
+ * @see RecordingClientMetrics
+ * @see ClientConfig.Builder#setMetrics(ClientMetrics)
+ */
+public interface ClientMetrics {
+	/**
+	 * Ignores all measurements.
+	 */
+	ClientMetrics NONE = new ClientMetrics() {};
+
+	/**
+	 * The operations of the file catalog.
+	 */
+	enum Operation {
+		GET_LIST, GET, CREATE, UPDATE, REPLACE, DELETE;
+
+		/**
+		 * @param request
+		 * @return The operation that is executed by the request or <code>null</code> if the method is unknown.
+		 */
+		public static Operation of(final HttpRequest request) {
+			switch(request.getRequestLine().getMethod()) {
+				case "GET":
+					// The file list is `/api/files`, a file is `/api/files/<mongo_id>`
+					final String uri = request.getRequestLine().getUri();
+					final int query = uri.indexOf('?');
+
+					return (-1 == query ? uri : uri.substring(0, query)).endsWith("/files") ? GET_LIST : GET;
+				case "POST":
+					return CREATE;
+				case "PATCH":
+					return UPDATE;
+				case "PUT":
+					return REPLACE;
+				case "DELETE":
+					return DELETE;
+				default:
+					return null;
+			}
+		}
+	}
+
+	/**
+	 * The mappings of the {@link Cache}.
+	 */
+	enum Lookup {
+		/**
+		 * `uid` to `mongo_id`
+		 */
+		MONGO_ID,
+
+		/**
+		 * `mongo_id` to `etag`
+		 */
+		ETAG,
+
+		/**
+		 * The `etag` of a listed file in {@link Client#updateAll(String, int, java.util.function.Function)}. A miss
+		 * means that the listing did not contain the `etag`, i.e. the update queries it with an extra request.
+		 */
+		LISTED_ETAG
+	}
+
+	/**
+	 * Called after every attempt of a request, including the attempts that are retried.
+	 *
+	 * @param operation
+	 * @param statusCode The status code of the response or <code>0</code> if no response has been received.
+	 * @param nanos The time from sending the request until the response has been processed, including the wait for
+	 * a connection.
+	 * @param bytes The number of bytes of the response body that have been read.
+	 */
+	default void onResponse(final Operation operation, int statusCode, long nanos, long bytes) {}
+
+	/**
+	 * Called if the server responded with an error, before it is decided whether the request is retried.
+	 *
+	 * @param operation
+	 * @param error
+	 */
+	default void onError(final Operation operation, final Error error) {}
+
+	/**
+	 * Called before a request is sent again.
+	 *
+	 * @param operation
+	 * @param attempt The number of the attempt, i.e. <code>1</code> for the first retry.
+	 */
+	default void onRetry(final Operation operation, int attempt) {}
+
+	/**
+	 * Called after a request got a connection of the pool of a {@link Client}.
+	 *
+	 * @param nanos The time the request waited for the connection.
+	 */
+	default void onLeaseWait(long nanos) {}
+
+	/**
+	 * Called after a lookup in the {@link Cache}.
+	 *
+	 * @param lookup
+	 * @param hit <code>true</code> if the cache contained the value.
+	 */
+	default void onCacheLookup(final Lookup lookup, boolean hit) {}
+}
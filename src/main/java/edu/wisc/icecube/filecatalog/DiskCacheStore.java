@@ -0,0 +1,520 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A persistent string key/value store that consists of two files:
+ *
+ * <ul>
+ * <li><code>&lt;name&gt;.dat</code>: An append-only log of records
+ * <code>[kind: byte][time: long][key length: int][key][value length: int][value]</code>. A value length
+ * of <code>-1</code> marks a deletion.</li>
+ * <li><code>&lt;name&gt;.idx</code>: A memory-mapped open-addressing hash table of
+ * <code>[fingerprint: long][record offset: long]</code> slots that points to the latest record of each key.
+ * The header also holds the length of the log that is covered by the index and its length after the last
+ * compaction.</li>
+ * </ul>
+ *
+ * Opening the store only maps the index, so the startup time does not depend on the number of entries. Lookups
+ * probe the index and read one record from the log. Writes append a record and update one slot. If the index
+ * is more than 70% full, it is rebuilt with twice the number of slots.
+ *
+ * Overwritten and deleted values stay in the log until it is compacted: once the log has grown to
+ * {@link #COMPACT_RATIO} times its size after the last compaction (and at least {@link #MIN_COMPACT_SIZE} bytes),
+ * the latest records of all keys are copied to a new log and the index is rebuilt. Thus, the log is at most
+ * about twice as large as the live entries and the copying costs a constant amount per write on average.
+ */
+class DiskCacheStore implements Closeable {
+	private static final long DATA_MAGIC = 0x4643434143484544L;
+	private static final long INDEX_MAGIC = 0x464343414348494EL;
+	private static final int DATA_HEADER = 8;
+	private static final int INDEX_HEADER = 32;
+	private static final int SLOT = 16;
+	private static final int MIN_SLOTS = 1024;
+	private static final int RECORD_HEADER = 1 + 8 + 4;
+
+	/**
+	 * The log is compacted once it is this many times larger than after the last compaction.
+	 */
+	static final int COMPACT_RATIO = 2;
+
+	/**
+	 * Smaller logs are not compacted automatically.
+	 */
+	static final long MIN_COMPACT_SIZE = 1024 * 1024;
+
+	private final Path dataPath;
+	private final Path indexPath;
+	private FileChannel data;
+	private FileChannel indexChannel;
+	private MappedByteBuffer index;
+	private int slots;
+	private int used;
+	private long dataEnd;
+	private long compacted;
+
+	/**
+	 * Opens the store or creates it if it does not exist.
+	 *
+	 * @param path Base path. The suffixes <code>.dat</code> and <code>.idx</code> are appended.
+	 * @throws IOException
+	 */
+	DiskCacheStore(final Path path) throws IOException {
+		this.dataPath = path.resolveSibling(path.getFileName() + ".dat");
+		this.indexPath = path.resolveSibling(path.getFileName() + ".idx");
+
+		this.data = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		if(0 == data.size()) {
+			final ByteBuffer header = ByteBuffer.allocate(DATA_HEADER);
+			header.putLong(0, DATA_MAGIC);
+			writeFully(data, header, 0);
+		} else {
+			final ByteBuffer header = ByteBuffer.allocate(DATA_HEADER);
+			readFully(data, header, 0);
+
+			if(DATA_MAGIC != header.getLong(0)) {
+				data.close();
+				throw new IOException(dataPath + " is not a cache file");
+			}
+		}
+
+		this.dataEnd = data.size();
+
+		if(!openIndex() || index.getLong(16) > dataEnd) {
+			// Missing or damaged index (e.g. after a crash during a rebuild): recover it from the log
+			compacted = dataEnd;
+			rebuildIndex(MIN_SLOTS, true);
+		} else if(index.getLong(16) < dataEnd) {
+			// Records that have been appended after the last update of the index (e.g. a torn write)
+			dataEnd = index.getLong(16);
+			data.truncate(dataEnd);
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the index does not exist or is not valid.
+	 * @throws IOException
+	 */
+	private boolean openIndex() throws IOException {
+		if(!Files.exists(indexPath) || Files.size(indexPath) < INDEX_HEADER) {
+			return false;
+		}
+
+		final FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+
+		final int slots = buffer.getInt(8);
+		if(INDEX_MAGIC != buffer.getLong(0) || slots < MIN_SLOTS || channel.size() != INDEX_HEADER + (long) slots * SLOT) {
+			channel.close();
+			return false;
+		}
+
+		this.indexChannel = channel;
+		this.index = buffer;
+		this.slots = slots;
+		this.used = buffer.getInt(12);
+		this.compacted = buffer.getLong(24);
+
+		return true;
+	}
+
+	/**
+	 * Writes a new index with the given number of slots and replaces the current index.
+	 *
+	 * @param slots
+	 * @param fromLog If <code>true</code>, the index is rebuilt by scanning the log. Otherwise the slots of the current index are rehashed.
+	 * @throws IOException
+	 */
+	private void rebuildIndex(int slots, final boolean fromLog) throws IOException {
+		if(fromLog) {
+			// Count the records in order to size the index. The number of records is an upper bound for
+			// the number of keys. A torn record at the end of the log (e.g. after a crash) is cut off.
+			long records = 0;
+			long offset = DATA_HEADER;
+			long next;
+
+			while((next = nextRecord(offset)) > 0) {
+				++records;
+				offset = next;
+			}
+
+			if(offset != dataEnd) {
+				data.truncate(offset);
+				dataEnd = offset;
+			}
+
+			while(slots * 0.7 < records) {
+				slots *= 2;
+			}
+		}
+
+		final Path tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+		final long size = INDEX_HEADER + (long) slots * SLOT;
+
+		try(final FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+														 StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.putLong(0, INDEX_MAGIC);
+			buffer.putInt(8, slots);
+
+			int used = 0;
+
+			if(fromLog) {
+				long offset = DATA_HEADER;
+				long next;
+
+				while((next = nextRecord(offset)) > 0) {
+					final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+					readFully(data, header, offset);
+
+					final byte[] key = new byte[header.getInt(9)];
+					readFully(data, ByteBuffer.wrap(key), offset + RECORD_HEADER);
+
+					used += insert(buffer, slots, fingerprint(header.get(0), key), offset);
+					offset = next;
+				}
+			} else {
+				for(int i = 0; i < this.slots; ++i) {
+					final long fingerprint = index.getLong(INDEX_HEADER + i * SLOT);
+
+					if(0 != fingerprint) {
+						used += insert(buffer, slots, fingerprint, index.getLong(INDEX_HEADER + i * SLOT + 8));
+					}
+				}
+			}
+
+			buffer.putInt(12, used);
+			buffer.putLong(16, dataEnd);
+			buffer.putLong(24, compacted);
+			buffer.force();
+		}
+
+		if(null != indexChannel) {
+			indexChannel.close();
+		}
+
+		Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		if(!openIndex()) {
+			throw new IOException("Cannot open rebuilt index " + indexPath);
+		}
+	}
+
+	/**
+	 * @param offset Offset of a record in the log
+	 * @return The offset of the following record or <code>-1</code> if there is no complete record at <code>offset</code>.
+	 * @throws IOException
+	 */
+	private long nextRecord(long offset) throws IOException {
+		if(offset + RECORD_HEADER + 4 > dataEnd) {
+			return -1;
+		}
+
+		final ByteBuffer keyLength = ByteBuffer.allocate(4);
+		readFully(data, keyLength, offset + RECORD_HEADER - 4);
+
+		final long valueOffset = offset + RECORD_HEADER + keyLength.getInt(0);
+		if(keyLength.getInt(0) < 0 || valueOffset + 4 > dataEnd) {
+			return -1;
+		}
+
+		final ByteBuffer valueLength = ByteBuffer.allocate(4);
+		readFully(data, valueLength, valueOffset);
+
+		final long next = valueOffset + 4 + Math.max(valueLength.getInt(0), 0);
+		return next <= dataEnd ? next : -1;
+	}
+
+	/**
+	 * Inserts the fingerprint/offset pair or, if a slot with the same fingerprint exists, points it to the new offset.
+	 *
+	 * <b>Note:</b> Two keys with the same fingerprint share a slot. Since every lookup verifies the key of the record,
+	 * a collision only causes a cache miss.
+	 *
+	 * @return <code>1</code> if a new slot has been occupied, <code>0</code> otherwise.
+	 */
+	private static int insert(final MappedByteBuffer buffer, int slots, long fingerprint, long offset) {
+		int i = (int) Long.remainderUnsigned(fingerprint, slots);
+
+		while(true) {
+			final int pos = INDEX_HEADER + i * SLOT;
+			final long existing = buffer.getLong(pos);
+
+			if(0 == existing || fingerprint == existing) {
+				buffer.putLong(pos, fingerprint);
+				buffer.putLong(pos + 8, offset);
+				return 0 == existing ? 1 : 0;
+			}
+
+			i = (i + 1) % slots;
+		}
+	}
+
+	/**
+	 * Looks up the latest value of the key.
+	 *
+	 * @param kind Namespace of the key
+	 * @param key
+	 * @return The value and the time it has been written, or <code>null</code> if the key is not present.
+	 * @throws IOException
+	 */
+	synchronized Entry get(byte kind, final String key) throws IOException {
+		final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		final long fingerprint = fingerprint(kind, keyBytes);
+
+		int i = (int) Long.remainderUnsigned(fingerprint, slots);
+
+		while(true) {
+			final int pos = INDEX_HEADER + i * SLOT;
+			final long existing = index.getLong(pos);
+
+			if(0 == existing) {
+				return null;
+			}
+
+			if(fingerprint == existing) {
+				return read(index.getLong(pos + 8), kind, keyBytes);
+			}
+
+			i = (i + 1) % slots;
+		}
+	}
+
+	/**
+	 * Reads the record at the given offset if it belongs to the given key.
+	 */
+	private Entry read(long offset, byte kind, final byte[] key) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER + key.length + 4);
+
+		if(offset + header.capacity() > dataEnd) {
+			// The index points beyond the log (e.g. the log has not been written completely before a crash)
+			return null;
+		}
+
+		readFully(data, header, offset);
+
+		if(kind != header.get(0) || key.length != header.getInt(9)) {
+			return null;
+		}
+
+		final byte[] storedKey = new byte[key.length];
+		header.position(RECORD_HEADER);
+		header.get(storedKey);
+
+		if(!Arrays.equals(key, storedKey)) {
+			return null;
+		}
+
+		final int length = header.getInt(RECORD_HEADER + key.length);
+		if(length < 0) {
+			// Deleted
+			return null;
+		}
+
+		if(offset + header.capacity() + length > dataEnd) {
+			return null;
+		}
+
+		final byte[] value = new byte[length];
+		readFully(data, ByteBuffer.wrap(value), offset + header.capacity());
+
+		return new Entry(new String(value, StandardCharsets.UTF_8), header.getLong(1));
+	}
+
+	/**
+	 * Appends the value to the log and points the index to it.
+	 *
+	 * @param kind Namespace of the key
+	 * @param key
+	 * @param value The value or <code>null</code> in order to delete the key.
+	 * @throws IOException
+	 */
+	synchronized void put(byte kind, final String key, final String value) throws IOException {
+		final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		final byte[] valueBytes = null == value ? null : value.getBytes(StandardCharsets.UTF_8);
+
+		final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + keyBytes.length + 4 + (null == valueBytes ? 0 : valueBytes.length));
+		record.put(kind);
+		record.putLong(System.currentTimeMillis());
+		record.putInt(keyBytes.length);
+		record.put(keyBytes);
+		record.putInt(null == valueBytes ? -1 : valueBytes.length);
+		if(null != valueBytes) {
+			record.put(valueBytes);
+		}
+		record.flip();
+
+		final long offset = dataEnd;
+		writeFully(data, record, offset);
+		dataEnd += record.capacity();
+
+		used += insert(index, slots, fingerprint(kind, keyBytes), offset);
+		index.putInt(12, used);
+		index.putLong(16, dataEnd);
+
+		if(used > slots * 0.7) {
+			rebuildIndex(slots * 2, false);
+		}
+
+		if(dataEnd > COMPACT_RATIO * Math.max(compacted, MIN_COMPACT_SIZE)) {
+			compact();
+		}
+	}
+
+	/**
+	 * Copies the latest record of every key that has not been deleted to a new log, replaces the log and rebuilds
+	 * the index. The index is deleted before the log is replaced, so a crash in between leaves a valid log whose
+	 * index is recovered when the store is opened again.
+	 *
+	 * @throws IOException
+	 */
+	synchronized void compact() throws IOException {
+		final Path tmp = dataPath.resolveSibling(dataPath.getFileName() + ".tmp");
+
+		try(final FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+														 StandardOpenOption.WRITE)) {
+			final ByteBuffer header = ByteBuffer.allocate(DATA_HEADER);
+			header.putLong(0, DATA_MAGIC);
+			writeFully(channel, header, 0);
+
+			long position = DATA_HEADER;
+
+			for(int i = 0; i < slots; ++i) {
+				final int pos = INDEX_HEADER + i * SLOT;
+
+				if(0 == index.getLong(pos)) {
+					continue;
+				}
+
+				final long offset = index.getLong(pos + 8);
+				final long next = nextRecord(offset);
+
+				if(next < 0 || isDeletion(offset)) {
+					continue;
+				}
+
+				for(long copied = 0; copied < next - offset;) {
+					copied += data.transferTo(offset + copied, next - offset - copied, channel.position(position + copied));
+				}
+
+				position += next - offset;
+			}
+
+			channel.force(true);
+		}
+
+		index.force();
+		indexChannel.close();
+		indexChannel = null;
+		Files.delete(indexPath);
+
+		data.close();
+		Files.move(tmp, dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		data = FileChannel.open(dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		dataEnd = data.size();
+		compacted = dataEnd;
+		rebuildIndex(MIN_SLOTS, true);
+	}
+
+	/**
+	 * @param offset Offset of a complete record in the log
+	 * @return <code>true</code> if the record marks a deletion.
+	 * @throws IOException
+	 */
+	private boolean isDeletion(long offset) throws IOException {
+		final ByteBuffer keyLength = ByteBuffer.allocate(4);
+		readFully(data, keyLength, offset + RECORD_HEADER - 4);
+
+		final ByteBuffer valueLength = ByteBuffer.allocate(4);
+		readFully(data, valueLength, offset + RECORD_HEADER + keyLength.getInt(0));
+
+		return valueLength.getInt(0) < 0;
+	}
+
+	/**
+	 * @return The length of the log in bytes.
+	 */
+	synchronized long size() {
+		return dataEnd;
+	}
+
+	/**
+	 * Removes all entries.
+	 *
+	 * @throws IOException
+	 */
+	synchronized void clear() throws IOException {
+		data.truncate(DATA_HEADER);
+		dataEnd = DATA_HEADER;
+		compacted = DATA_HEADER;
+		rebuildIndex(MIN_SLOTS, true);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			index.force();
+			indexChannel.close();
+		} finally {
+			data.close();
+		}
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the kind and the key. Never <code>0</code> since <code>0</code> marks an empty slot.
+	 */
+	private static long fingerprint(byte kind, final byte[] key) {
+		long h = 0xcbf29ce484222325L;
+
+		h ^= kind;
+		h *= 0x100000001b3L;
+
+		for(byte b: key) {
+			h ^= (b & 0xff);
+			h *= 0x100000001b3L;
+		}
+
+		return 0 == h ? 1 : h;
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			final int r = channel.read(buffer, position + buffer.position());
+
+			if(r < 0) {
+				throw new IOException("Unexpected end of cache file");
+			}
+		}
+	}
+
+	private static void writeFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+	/**
+	 * A value and the time (milliseconds since epoch) it has been written.
+	 */
+	static class Entry {
+		final String value;
+		final long time;
+
+		Entry(final String value, long time) {
+			this.value = value;
+			this.time = time;
+		}
+	}
+}
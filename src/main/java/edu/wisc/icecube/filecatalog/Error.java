@@ -1,22 +1,73 @@
 package edu.wisc.icecube.filecatalog;
 
-import java.lang.reflect.InvocationTargetException;
-
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpResponseException;
 
 public class Error extends HttpResponseException {
 	private static final long serialVersionUID = -3720078090584241127L;
 
+	private long retryAfter = -1;
+	private String etag = null;
+	private boolean stackTrace;
+
 	public Error(int statusCode, final String message) {
+		this(statusCode, message, true);
+	}
+	
+	/**
+	 * @param statusCode
+	 * @param message
+	 * @param stackTrace If <code>false</code>, the stack trace is not captured. This makes the creation of the
+	 * error much cheaper, but {@link #getStackTrace()} is empty.
+	 */
+	public Error(int statusCode, final String message, boolean stackTrace) {
 		super(statusCode, message);
+		
+		// The constructor of Throwable has skipped the stack trace since this field was still false
+		this.stackTrace = stackTrace;
+		if(stackTrace) {
+			super.fillInStackTrace();
+		}
+	}
+	
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return stackTrace ? super.fillInStackTrace() : this;
+	}
+	
+	/**
+	 * @return The time in milliseconds the server asked to wait before retrying (`Retry-After` header),
+	 * or <code>-1</code> if the server did not send it.
+	 */
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+	
+	void setRetryAfter(long retryAfter) {
+		this.retryAfter = retryAfter;
+	}
+	
+	/**
+	 * @return The `etag` the server sent with the error or <code>null</code>. If an update failed because the etag
+	 * did not match ({@link ConflictError} or {@link PreconditionFailedError}), this is the current etag of the metadata.
+	 */
+	public String getEtag() {
+		return etag;
+	}
+	
+	void setEtag(final String etag) {
+		this.etag = etag;
 	}
 	
 	public static class BadRequestError extends Error {
 		private static final long serialVersionUID = 5210429972589205351L;
 
 		public BadRequestError(final String message) {
-			super(400, message);
+			this(message, true);
+		}
+		
+		public BadRequestError(final String message, boolean stackTrace) {
+			super(400, message, stackTrace);
 		}
 	}
 	
@@ -24,7 +75,11 @@ public class Error extends HttpResponseException {
 		private static final long serialVersionUID = -2362174187596699095L;
 
 		public TooManyRequestsError(final String message) {
-			super(429, message);
+			this(message, true);
+		}
+		
+		public TooManyRequestsError(final String message, boolean stackTrace) {
+			super(429, message, stackTrace);
 		}
 	}
 	
@@ -32,7 +87,11 @@ public class Error extends HttpResponseException {
 		private static final long serialVersionUID = -7219121887051848533L;
 
 		public UnspecificServerError(final String message) {
-			super(500, message);
+			this(message, true);
+		}
+		
+		public UnspecificServerError(final String message, boolean stackTrace) {
+			super(500, message, stackTrace);
 		}
 	}
 	
@@ -40,7 +99,11 @@ public class Error extends HttpResponseException {
 		private static final long serialVersionUID = 8931048607677009527L;
 
 		public ServiceUnavailableError(final String message) {
-			super(403, message);
+			this(message, true);
+		}
+		
+		public ServiceUnavailableError(final String message, boolean stackTrace) {
+			super(503, message, stackTrace);
 		}
 	}
 	
@@ -48,7 +111,23 @@ public class Error extends HttpResponseException {
 		private static final long serialVersionUID = 3063072571059867687L;
 
 		public ConflictError(final String message) {
-			super(409, message);
+			this(message, true);
+		}
+		
+		public ConflictError(final String message, boolean stackTrace) {
+			super(409, message, stackTrace);
+		}
+	}
+	
+	public static class PreconditionFailedError extends Error {
+		private static final long serialVersionUID = 1905838468214339154L;
+
+		public PreconditionFailedError(final String message) {
+			this(message, true);
+		}
+		
+		public PreconditionFailedError(final String message, boolean stackTrace) {
+			super(412, message, stackTrace);
 		}
 	}
 	
@@ -56,12 +135,35 @@ public class Error extends HttpResponseException {
 		private static final long serialVersionUID = -3222850961244509577L;
 
 		public NotFoundError(final String message) {
-			super(404, message);
+			this(message, true);
 		}
+		
+		public NotFoundError(final String message, boolean stackTrace) {
+			super(404, message, stackTrace);
+		}
+	}
+	
+	/**
+	 * Creates the error of a status code.
+	 */
+	private interface Factory {
+		Error create(final String message, boolean stackTrace);
 	}
 	
-	private static Error[] errors = null;
-	private static Class<?>[] errorTypes = null;
+	/**
+	 * The factories of the subclasses, indexed by status code.
+	 */
+	private static final Factory[] FACTORIES = new Factory[600];
+	
+	static {
+		FACTORIES[400] = BadRequestError::new;
+		FACTORIES[404] = NotFoundError::new;
+		FACTORIES[409] = ConflictError::new;
+		FACTORIES[412] = PreconditionFailedError::new;
+		FACTORIES[429] = TooManyRequestsError::new;
+		FACTORIES[500] = UnspecificServerError::new;
+		FACTORIES[503] = ServiceUnavailableError::new;
+	}
 	
 	public static Error errorFactory(final StatusLine statusLine) {
 		return errorFactory(statusLine.getStatusCode(), statusLine.getReasonPhrase());
@@ -71,36 +173,29 @@ public class Error extends HttpResponseException {
 		return errorFactory(statusLine.getStatusCode(), message);
 	}
 	
+	public static Error errorFactory(final StatusLine statusLine, final String message, boolean stackTrace) {
+		return errorFactory(statusLine.getStatusCode(), message, stackTrace);
+	}
+	
 	public static Error errorFactory(int statusCode, final String message) {
-		if(null == errors || null == errorTypes) {
-			errorTypes = Error.class.getDeclaredClasses();
-			errors = new Error[errorTypes.length];
-			
-			for(int i = 0; i < errorTypes.length; ++i) {
-				try {
-					errors[i] = (Error)errorTypes[i].getConstructor(String.class).newInstance("");
-				} catch (InstantiationException | IllegalAccessException
-						| IllegalArgumentException | InvocationTargetException
-						| NoSuchMethodException | SecurityException e) {
-					errors[i] = null;
-					e.printStackTrace();
-				}
-			}
-		}
+		return errorFactory(statusCode, message, true);
+	}
+	
+	/**
+	 * Creates the subclass that corresponds to the status code or an {@link Error} if there is none.
+	 * 
+	 * @param statusCode
+	 * @param message
+	 * @param stackTrace If <code>false</code>, the stack trace is not captured.
+	 * @return The error
+	 */
+	public static Error errorFactory(int statusCode, final String message, boolean stackTrace) {
+		final Factory factory = statusCode >= 0 && statusCode < FACTORIES.length ? FACTORIES[statusCode] : null;
 		
-		for(final Error e: errors) {
-			if(null != e && statusCode == e.getStatusCode()) {
-				try {
-					return (Error)e.getClass().getConstructor(String.class).newInstance(message);
-				} catch (InstantiationException | IllegalAccessException
-						| IllegalArgumentException | InvocationTargetException
-						| NoSuchMethodException | SecurityException e1) {
-					// Then let's use the Error class...
-					e1.printStackTrace();
-				}
-			}
+		if(null == factory) {
+			return new Error(statusCode, message, stackTrace);
 		}
 		
-		return new Error(statusCode, message);
+		return factory.create(message, stackTrace);
 	}
 }
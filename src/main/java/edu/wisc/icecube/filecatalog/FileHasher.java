@@ -0,0 +1,80 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the sha512 of local files without copying them onto the heap: files up to {@link #BUFFER_SIZE} bytes are
+ * read into a direct buffer per thread, larger files are memory-mapped in windows of {@link #MAP_SIZE} bytes.
+ *
+ * @see ChecksumVerifier
+ * @see RegistrationPipeline
+ */
+class FileHasher {
+	static final int BUFFER_SIZE = 1024 * 1024;
+	static final long MAP_SIZE = 64L * 1024 * 1024;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+	/**
+	 * @param path
+	 * @return The hexadecimal sha512 of the file.
+	 * @throws IOException
+	 */
+	String sha512(final Path path) throws IOException {
+		try(final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return sha512(channel, channel.size());
+		}
+	}
+
+	/**
+	 * @param channel
+	 * @param size
+	 * @return The hexadecimal sha512 of the channel.
+	 * @throws IOException
+	 */
+	String sha512(final FileChannel channel, long size) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-512");
+		} catch(NoSuchAlgorithmException e) {
+			// Every JRE must support SHA-512
+			throw new IllegalStateException(e);
+		}
+
+		if(size <= BUFFER_SIZE) {
+			final ByteBuffer buffer = buffers.get();
+
+			buffer.clear();
+			while(buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// Read until the buffer is full or the end of the file
+			}
+			buffer.flip();
+
+			digest.update(buffer);
+		} else {
+			for(long position = 0; position < size; position += MAP_SIZE) {
+				final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_SIZE, size - position));
+				digest.update(window);
+			}
+		}
+
+		final byte[] hash = digest.digest();
+		final char[] hex = new char[2 * hash.length];
+
+		for(int i = 0; i < hash.length; ++i) {
+			hex[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+			hex[2 * i + 1] = HEX[hash[i] & 0xf];
+		}
+
+		return new String(hex);
+	}
+}
@@ -0,0 +1,160 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import edu.wisc.icecube.filecatalog.gson.FileList;
+import edu.wisc.icecube.filecatalog.gson.FileMetadata;
+
+/**
+ * Iterates lazily over all files that match a query by walking through the file list page by page.
+ *
+ * While the current page is consumed, the next page is already fetched in the background. Thus, at most two
+ * pages are held in memory. Like {@link Client#getList(String, Integer, Integer)}, every page caches the
+ * `uid`/`mongo_id` mappings. If keys are given, only these keys of the files are requested.
+ *
+ * The pages are requested either by offset (`start`) or, with keyset pagination, by the last `mongo_id` of the
+ * previous page.
+ *
+ * Since {@link Iterator} does not allow checked exceptions, errors are thrown as {@link UncheckedIOException}.
+ * The cause is the {@link Error} or {@link IOException} that has been thrown by the {@link Client}.
+ *
+ * @see Client#iterate(String, int)
+ * @see ClientConfig.Builder#setKeysetPagination(boolean)
+ */
+public class FileListIterator implements Iterator<FileMetadata>, Closeable {
+	private final Client client;
+	private final String query;
+	private final int pageSize;
+	private final String[] keys;
+	private final boolean keyset;
+	private final ExecutorService executor;
+
+	private FileMetadata[] page = null;
+	private int index = 0;
+	private int start = 0;
+	private String after = null;
+	private boolean last = false;
+	private Future<FileList> next = null;
+
+	protected FileListIterator(final Client client, final String query, int pageSize, final String[] keys, final ExecutorService executor) {
+		this(client, query, pageSize, keys, false, executor);
+	}
+
+	protected FileListIterator(final Client client, final String query, int pageSize, final String[] keys, boolean keyset, final ExecutorService executor) {
+		if(pageSize < 1) {
+			throw new IllegalArgumentException("pageSize must be positive");
+		}
+
+		this.client = client;
+		this.query = query;
+		this.pageSize = pageSize;
+		this.keys = keys;
+		this.keyset = keyset;
+		this.executor = executor;
+	}
+
+	/**
+	 * Fetches the page starting at <code>start</code> or after <code>after</code> in the background.
+	 */
+	private void prefetch() {
+		if(keyset) {
+			final String after = this.after;
+
+			next = executor.submit(() -> client.getListAfter(query, pageSize, after, keys));
+		} else {
+			final int start = this.start;
+
+			next = executor.submit(() -> client.getList(query, pageSize, start, keys));
+		}
+	}
+
+	private FileMetadata[] await() {
+		try {
+			return next.get().getEmbedded().getFiles();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UncheckedIOException(new InterruptedIOException("Interrupted while waiting for the next page"));
+		} catch(ExecutionException e) {
+			final Throwable cause = e.getCause();
+
+			if(cause instanceof IOException) {
+				throw new UncheckedIOException((IOException) cause);
+			} else if(cause instanceof URISyntaxException) {
+				throw new IllegalArgumentException(cause);
+			} else if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else {
+				throw new IllegalStateException(cause);
+			}
+		} finally {
+			next = null;
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		while(null == page || index >= page.length) {
+			if(last) {
+				return false;
+			}
+
+			if(null == next) {
+				// First page
+				prefetch();
+			}
+
+			page = await();
+			index = 0;
+
+			// The server might return less than `pageSize` files per page, so we only stop at an empty page
+			if(0 == page.length) {
+				last = true;
+				page = null;
+				return false;
+			}
+
+			start += page.length;
+			after = page[page.length - 1].getMongoId();
+
+			if(keyset && null == after) {
+				throw new UncheckedIOException(new ClientException("The file list does not contain `mongo_id`"));
+			}
+
+			prefetch();
+		}
+
+		return true;
+	}
+
+	@Override
+	public FileMetadata next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		return page[index++];
+	}
+
+	/**
+	 * Stops the iteration and cancels the prefetching of the next page.
+	 */
+	@Override
+	public void close() {
+		last = true;
+		page = null;
+
+		if(null != next) {
+			next.cancel(true);
+			next = null;
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.http.Consts;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A request body that is serialized straight into the output stream of the connection by a {@link JsonWriter},
+ * instead of building a string first. The body is sent with chunked encoding since its length is not known in
+ * advance.
+ *
+ * While the body is written, the top-level `uid` is picked up, so that the `uid`/`mongo_id` mapping of a new file
+ * can be cached without parsing the metadata.
+ */
+class JsonEntity extends AbstractHttpEntity {
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final MetadataWriter body;
+	private volatile String uid;
+
+	/**
+	 * @param body Writes the JSON. It must write the same JSON every time, since the entity is repeatable.
+	 */
+	JsonEntity(final MetadataWriter body) {
+		if(null == body) {
+			throw new IllegalArgumentException("No metadata given");
+		}
+
+		this.body = body;
+		setContentType(ContentType.APPLICATION_JSON.toString());
+		setChunked(true);
+	}
+
+	/**
+	 * Serializes an object, e.g. a {@link java.util.Map}, with gson. A {@link MetadataWriter} is used as it is.
+	 *
+	 * @param gson
+	 * @param metadata
+	 * @return
+	 */
+	static JsonEntity of(final Gson gson, final Object metadata) {
+		if(null == metadata) {
+			throw new IllegalArgumentException("No metadata given");
+		}
+
+		if(metadata instanceof MetadataWriter) {
+			return new JsonEntity((MetadataWriter) metadata);
+		}
+
+		return new JsonEntity(writer -> gson.toJson(metadata, metadata.getClass(), writer));
+	}
+
+	/**
+	 * @return The top-level `uid` of the JSON or <code>null</code> if it has not been written (yet).
+	 */
+	String getUid() {
+		return uid;
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+
+	/**
+	 * Serializes the body into memory. Only used by consumers that need an {@link InputStream}, e.g. the
+	 * {@link AsyncClient}.
+	 */
+	@Override
+	public InputStream getContent() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+		writeTo(out);
+
+		return new ByteArrayInputStream(out.toByteArray());
+	}
+
+	@Override
+	public void writeTo(final OutputStream out) throws IOException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(out, Consts.UTF_8), BUFFER_SIZE);
+		final UidWriter json = new UidWriter(writer);
+
+		body.write(json);
+		json.flush();
+
+		uid = json.uid;
+	}
+
+	/**
+	 * Remembers the value of the `uid` key of the top-level object.
+	 */
+	private static class UidWriter extends JsonWriter {
+		private int depth = 0;
+		private boolean isUid = false;
+		private String uid = null;
+
+		UidWriter(final Writer out) {
+			super(out);
+		}
+
+		@Override
+		public JsonWriter beginObject() throws IOException {
+			isUid = false;
+			++depth;
+			return super.beginObject();
+		}
+
+		@Override
+		public JsonWriter endObject() throws IOException {
+			--depth;
+			return super.endObject();
+		}
+
+		@Override
+		public JsonWriter beginArray() throws IOException {
+			isUid = false;
+			++depth;
+			return super.beginArray();
+		}
+
+		@Override
+		public JsonWriter endArray() throws IOException {
+			--depth;
+			return super.endArray();
+		}
+
+		@Override
+		public JsonWriter name(final String name) throws IOException {
+			isUid = 1 == depth && "uid".equals(name);
+			return super.name(name);
+		}
+
+		@Override
+		public JsonWriter value(final String value) throws IOException {
+			found(value);
+			return super.value(value);
+		}
+
+		@Override
+		public JsonWriter value(long value) throws IOException {
+			found(Long.toString(value));
+			return super.value(value);
+		}
+
+		@Override
+		public JsonWriter value(final Number value) throws IOException {
+			found(null == value ? null : value.toString());
+			return super.value(value);
+		}
+
+		@Override
+		public JsonWriter value(boolean value) throws IOException {
+			isUid = false;
+			return super.value(value);
+		}
+
+		@Override
+		public JsonWriter value(double value) throws IOException {
+			isUid = false;
+			return super.value(value);
+		}
+
+		@Override
+		public JsonWriter nullValue() throws IOException {
+			isUid = false;
+			return super.nullValue();
+		}
+
+		private void found(final String value) {
+			if(isUid) {
+				uid = value;
+				isUid = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes metadata directly into the body of a request, e.g. for {@link Client#create(MetadataWriter)}. Thus, large
+ * metadata, e.g. with many `locations`, is never built as a string.
+ *
+ * <b>Note:</b> The body is written again if the request is retried, so the writer must write the same metadata
+ * every time it is called.
+ *
+ * <b>Example:</b>
+ * <pre>c.create(writer -&gt; {
+ * 	writer.beginObject();
+ * 	writer.name("uid").value(uid);
+ * 	writer.name("locations").beginArray();
+ * 	for(final String location: locations) {
+ * 		writer.value(location);
+ * 	}
+ * 	writer.endArray();
+ * 	...
+ * 	writer.endObject();
+ * });</pre>
+ */
+@FunctionalInterface
+public interface MetadataWriter {
+	/**
+	 * @param writer Writes to the request body
+	 * @throws IOException
+	 */
+	void write(final JsonWriter writer) throws IOException;
+}
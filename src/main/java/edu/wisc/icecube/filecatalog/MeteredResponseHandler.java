@@ -0,0 +1,79 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Remembers the status code of the response and counts the bytes of the body that the wrapped handler reads.
+ *
+ * @see ClientMetrics#onResponse(ClientMetrics.Operation, int, long, long)
+ * @param <T>
+ */
+class MeteredResponseHandler<T> implements ResponseHandler<T> {
+	private final ResponseHandler<? extends T> handler;
+	private int statusCode;
+	private long bytes;
+
+	MeteredResponseHandler(final ResponseHandler<? extends T> handler) {
+		this.handler = handler;
+	}
+
+	@Override
+	public T handleResponse(final HttpResponse response) throws IOException {
+		statusCode = response.getStatusLine().getStatusCode();
+
+		final HttpEntity entity = response.getEntity();
+		if(null != entity) {
+			response.setEntity(new HttpEntityWrapper(entity) {
+				@Override
+				public InputStream getContent() throws IOException {
+					return new FilterInputStream(super.getContent()) {
+						@Override
+						public int read() throws IOException {
+							final int b = super.read();
+
+							if(-1 != b) {
+								++bytes;
+							}
+
+							return b;
+						}
+
+						@Override
+						public int read(final byte[] b, int off, int len) throws IOException {
+							final int n = super.read(b, off, len);
+
+							if(n > 0) {
+								bytes += n;
+							}
+
+							return n;
+						}
+					};
+				}
+			});
+		}
+
+		return handler.handleResponse(response);
+	}
+
+	/**
+	 * @return The status code or <code>0</code> if no response has been handled.
+	 */
+	int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return The number of bytes of the body that have been read.
+	 */
+	long getBytes() {
+		return bytes;
+	}
+}
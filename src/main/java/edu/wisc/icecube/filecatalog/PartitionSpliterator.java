@@ -0,0 +1,93 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import edu.wisc.icecube.filecatalog.gson.FileMetadata;
+
+/**
+ * Walks through the files of several partitions of the file list, one partition after the other. A partition is a
+ * query that is combined with the query of the scan. Splitting hands half of the partitions that have not been
+ * started yet to a new spliterator, so a parallel stream walks the partitions concurrently. Every partition is
+ * iterated by a {@link FileListIterator}, i.e. it prefetches its next page in the background.
+ *
+ * @see Client#parallelStream(String, int, List, String...)
+ */
+class PartitionSpliterator implements Spliterator<FileMetadata> {
+	private final Client client;
+	private final String query;
+	private final int pageSize;
+	private final String[] keys;
+	private final Set<FileListIterator> open;
+
+	private List<String> partitions;
+	private FileListIterator current = null;
+
+	/**
+	 * @param client
+	 * @param query JSON style string or <code>null</code> for all files
+	 * @param pageSize Number of files per request
+	 * @param keys The keys or <code>null</code> for the default keys of the server
+	 * @param partitions The queries of the partitions
+	 * @param open Keeps the iterators that have been started but not exhausted, so that they can be closed if the
+	 * stream is closed early. Shared by all spliterators of a scan.
+	 */
+	PartitionSpliterator(final Client client, final String query, int pageSize, final String[] keys, final List<String> partitions, final Set<FileListIterator> open) {
+		this.client = client;
+		this.query = query;
+		this.pageSize = pageSize;
+		this.keys = keys;
+		this.partitions = partitions;
+		this.open = open;
+	}
+
+	@Override
+	public boolean tryAdvance(final Consumer<? super FileMetadata> action) {
+		while(null == current || !current.hasNext()) {
+			if(null != current) {
+				current.close();
+				open.remove(current);
+				current = null;
+			}
+
+			if(partitions.isEmpty()) {
+				return false;
+			}
+
+			current = client.iterate(Client.and(query, partitions.get(0)), pageSize, keys);
+			open.add(current);
+			partitions = partitions.subList(1, partitions.size());
+		}
+
+		action.accept(current.next());
+		return true;
+	}
+
+	@Override
+	public Spliterator<FileMetadata> trySplit() {
+		final int size = partitions.size();
+
+		if(size < 2 && (null == current || 0 == size)) {
+			return null;
+		}
+
+		// Keep the running partition and hand over half of the others
+		final int half = null == current ? size / 2 : (size + 1) / 2;
+		final PartitionSpliterator prefix = new PartitionSpliterator(client, query, pageSize, keys, partitions.subList(0, half), open);
+		partitions = partitions.subList(half, size);
+
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	public int characteristics() {
+		return NONNULL;
+	}
+}
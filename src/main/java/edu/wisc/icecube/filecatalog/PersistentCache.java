@@ -0,0 +1,267 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link Cache} that additionally writes every mapping to disk, so that a restarted client does not need
+ * to resolve `uid`s and query `etag`s again.
+ *
+ * The in-memory cache works as before. On a miss, the mapping is looked up on disk and, if found, put into
+ * the in-memory cache. The disk store is opened in constant time and read lazily, so the startup time does
+ * not depend on the number of persisted mappings.
+ *
+ * <b>Example:</b>
+ * <pre>try(final PersistentCache cache = new PersistentCache(Paths.get("/var/cache/file_catalog"));
+ * 	final Client c = new Client(new URI("http://localhost:8888"), ClientConfig.DEFAULT, cache)) {
+ * 	...
+ * }</pre>
+ *
+ * <b>Note:</b> {@link #getStats()} counts the hits and misses of the in-memory cache. Lookups that are served
+ * from disk count as misses and as {@link #getDiskHits()}. Errors of the disk store are thrown as
+ * {@link UncheckedIOException}.
+ */
+public class PersistentCache extends Cache implements Closeable {
+	private static final byte MONGO_ID = 1;
+	private static final byte UID = 2;
+	private static final byte ETAG = 3;
+
+	private final DiskCacheStore store;
+	private final long etagTtl;
+	private final LongAdder diskHits = new LongAdder();
+
+	/**
+	 * @param path Base path of the cache files. The suffixes <code>.dat</code> and <code>.idx</code> are appended.
+	 * @throws IOException
+	 */
+	public PersistentCache(final Path path) throws IOException {
+		this(path, DEFAULT_MAX_SIZE, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param path Base path of the cache files. The suffixes <code>.dat</code> and <code>.idx</code> are appended.
+	 * @param maxSize Maximum number of entries per mapping in memory. The number of persisted mappings is not limited.
+	 * @param etagTtl Time after an `etag` expires. <code>0</code> means that `etag`s never expire.
+	 * @param unit
+	 * @throws IOException
+	 */
+	public PersistentCache(final Path path, int maxSize, long etagTtl, final TimeUnit unit) throws IOException {
+		super(custom().setMaxSize(maxSize).setEtagTtl(etagTtl, unit));
+
+		this.store = new DiskCacheStore(path);
+		this.etagTtl = unit.toMillis(etagTtl);
+	}
+
+	@Override
+	public String getMongoId(final String uid) {
+		final String mongoId = super.getMongoId(uid);
+
+		if(null != mongoId) {
+			return mongoId;
+		}
+
+		final DiskCacheStore.Entry entry = load(MONGO_ID, uid);
+
+		if(null == entry) {
+			return null;
+		}
+
+		diskHits.increment();
+		super.setMongoId(uid, entry.value);
+		return entry.value;
+	}
+
+	@Override
+	public boolean hasMongoId(final String uid) {
+		return super.hasMongoId(uid) || null != load(MONGO_ID, uid);
+	}
+
+	@Override
+	public String getUid(final String mongoId) {
+		final String uid = super.getUid(mongoId);
+
+		if(null != uid) {
+			return uid;
+		}
+
+		final DiskCacheStore.Entry entry = load(UID, mongoId);
+
+		if(null == entry) {
+			return null;
+		}
+
+		diskHits.increment();
+		return entry.value;
+	}
+
+	@Override
+	public void setMongoId(final String uid, final String mongoId) {
+		super.setMongoId(uid, mongoId);
+
+		// Do not write the log if nothing has changed, e.g. when the same page is listed twice
+		final DiskCacheStore.Entry previousMongoId = load(MONGO_ID, uid);
+		if(null != previousMongoId && mongoId.equals(previousMongoId.value)) {
+			return;
+		}
+
+		if(null != previousMongoId) {
+			store(UID, previousMongoId.value, null);
+		}
+
+		final DiskCacheStore.Entry previousUid = load(UID, mongoId);
+		if(null != previousUid && !uid.equals(previousUid.value)) {
+			store(MONGO_ID, previousUid.value, null);
+		}
+
+		store(MONGO_ID, uid, mongoId);
+		store(UID, mongoId, uid);
+	}
+
+	@Override
+	public void deleteMongoId(final String mongoId) {
+		final String uid = getUid(mongoId);
+
+		super.deleteMongoId(mongoId);
+
+		if(null != uid) {
+			store(MONGO_ID, uid, null);
+			store(UID, mongoId, null);
+		}
+	}
+
+	@Override
+	public void deleteUid(final String uid) {
+		final DiskCacheStore.Entry entry = load(MONGO_ID, uid);
+
+		super.deleteUid(uid);
+
+		if(null != entry) {
+			store(MONGO_ID, uid, null);
+			store(UID, entry.value, null);
+		}
+	}
+
+	@Override
+	public String getEtag(final String mongoId) {
+		final String etag = super.getEtag(mongoId);
+
+		if(null != etag) {
+			return etag;
+		}
+
+		final DiskCacheStore.Entry entry = load(ETAG, mongoId);
+
+		if(null == entry || isExpired(entry)) {
+			return null;
+		}
+
+		diskHits.increment();
+		super.setEtag(mongoId, entry.value);
+		return entry.value;
+	}
+
+	@Override
+	public boolean hasEtag(final String mongoId) {
+		if(super.hasEtag(mongoId)) {
+			return true;
+		}
+
+		final DiskCacheStore.Entry entry = load(ETAG, mongoId);
+		return null != entry && !isExpired(entry);
+	}
+
+	@Override
+	public void deleteEtag(final String mongoId) {
+		super.deleteEtag(mongoId);
+
+		if(null != load(ETAG, mongoId)) {
+			store(ETAG, mongoId, null);
+		}
+	}
+
+	@Override
+	public void setEtag(final String mongoId, final String etag) {
+		super.setEtag(mongoId, etag);
+
+		if(null == etag) {
+			return;
+		}
+
+		// Do not write the log if nothing has changed, e.g. when an unmodified file is read again
+		final DiskCacheStore.Entry previous = load(ETAG, mongoId);
+		if(null != previous && etag.equals(previous.value) && !isExpired(previous)) {
+			return;
+		}
+
+		store(ETAG, mongoId, etag);
+	}
+
+	/**
+	 * Removes all mappings from memory and disk.
+	 */
+	@Override
+	public void clear() {
+		super.clear();
+
+		try {
+			store.clear();
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Removes overwritten and deleted mappings from the disk store. This also happens automatically whenever the
+	 * store has doubled in size since the last compaction.
+	 */
+	public void compact() {
+		try {
+			store.compact();
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return Size of the disk store in bytes.
+	 */
+	public long getDiskSize() {
+		return store.size();
+	}
+
+	/**
+	 * @return Number of lookups that missed the in-memory cache but have been found on disk.
+	 */
+	public long getDiskHits() {
+		return diskHits.sum();
+	}
+
+	@Override
+	public void close() throws IOException {
+		store.close();
+	}
+
+	private boolean isExpired(final DiskCacheStore.Entry entry) {
+		return etagTtl > 0 && System.currentTimeMillis() - entry.time > etagTtl;
+	}
+
+	private DiskCacheStore.Entry load(byte kind, final String key) {
+		try {
+			return store.get(kind, key);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void store(byte kind, final String key, final String value) {
+		try {
+			store.put(kind, key, value);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpPipeliningClient;
+
+/**
+ * Sends the requests of an {@link AsyncClient} in batches over HTTP/1.1 pipelining: the requests of a batch are
+ * written to one connection without waiting for the responses in between. The server still answers them in order,
+ * but the batch costs one round trip instead of one per request.
+ *
+ * Requests are queued and a batch is formed from all requests that are queued when the executor gets to flush the
+ * queue, up to <code>depth</code> requests per batch. Thus, requests that are issued in a burst are sent in few
+ * batches, while a single request is sent right away.
+ *
+ * Only GET, HEAD and DELETE requests are pipelined, see {@link #isPipelined(HttpRequest)}. A failed connection fails
+ * the whole batch without resending it, which must not happen to a request that changes the catalog.
+ *
+ * <b>Note:</b> This is experimental. The pipelining client of HttpAsyncClient 4.1 opens a new connection for every
+ * batch and closes it afterwards. The connection counts against the limits of the pool while the batch runs, but it
+ * is not kept alive and not reused by other batches or by the requests that are not pipelined. Thus, a batch pays
+ * the connection setup that a pooled keep-alive connection avoids, and pipelining must not be presented as a way to
+ * reduce latency unless a benchmark shows that it beats the pooled connections.
+ *
+ * @see ClientConfig.Builder#setPipelineDepth(int)
+ */
+class Pipeline {
+	private final CloseableHttpPipeliningClient httpClient;
+	private final HttpHost target;
+	private final RequestConfig requestConfig;
+	private final int depth;
+	private final Executor executor;
+	private final Queue<Exchange> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+	/**
+	 * @param httpClient
+	 * @param uri The server, all requests must go to it.
+	 * @param requestConfig The timeouts of the requests
+	 * @param depth Maximum number of requests per batch
+	 * @param executor Flushes the queue
+	 */
+	Pipeline(final CloseableHttpPipeliningClient httpClient, final URI uri, final RequestConfig requestConfig, int depth, final Executor executor) {
+		if(depth < 1) {
+			throw new IllegalArgumentException("depth must be positive");
+		}
+
+		this.httpClient = httpClient;
+		this.target = URIUtils.extractHost(uri);
+		this.requestConfig = requestConfig;
+		this.depth = depth;
+		this.executor = executor;
+	}
+
+	/**
+	 * Queues the request. The callback is called by an I/O thread once the batch of the request has been completed.
+	 *
+	 * @param request
+	 * @param callback
+	 * @throws java.util.concurrent.RejectedExecutionException If the executor has been shut down.
+	 */
+	void execute(final HttpUriRequest request, final FutureCallback<HttpResponse> callback) {
+		queue.add(new Exchange(request, callback));
+
+		if(flushScheduled.compareAndSet(false, true)) {
+			executor.execute(this::flush);
+		}
+	}
+
+	private void flush() {
+		// Requests that arrive from now on schedule another flush
+		flushScheduled.set(false);
+
+		while(!queue.isEmpty()) {
+			final List<Exchange> batch = new ArrayList<>(depth);
+			final List<HttpRequest> requests = new ArrayList<>(depth);
+
+			for(Exchange exchange; batch.size() < depth && null != (exchange = queue.poll());) {
+				try {
+					requests.add(relative(exchange.request));
+					batch.add(exchange);
+				} catch(URISyntaxException e) {
+					exchange.callback.failed(new ClientProtocolException(e));
+				}
+			}
+
+			if(!batch.isEmpty()) {
+				send(batch, requests);
+			}
+		}
+	}
+
+	private void send(final List<Exchange> batch, final List<HttpRequest> requests) {
+		try {
+			httpClient.execute(target, requests, createContext(), new FutureCallback<List<HttpResponse>>() {
+				@Override
+				public void completed(final List<HttpResponse> responses) {
+					for(int i = 0; i < batch.size(); ++i) {
+						if(i < responses.size()) {
+							batch.get(i).callback.completed(responses.get(i));
+						} else {
+							batch.get(i).callback.failed(new ClientProtocolException("The server did not answer the pipelined request"));
+						}
+					}
+				}
+
+				@Override
+				public void failed(final Exception ex) {
+					for(final Exchange exchange : batch) {
+						exchange.callback.failed(ex);
+					}
+				}
+
+				@Override
+				public void cancelled() {
+					for(final Exchange exchange : batch) {
+						exchange.callback.cancelled();
+					}
+				}
+			});
+		} catch(RuntimeException e) {
+			// E.g. the client has already been closed
+			for(final Exchange exchange : batch) {
+				exchange.callback.failed(e);
+			}
+		}
+	}
+
+	/**
+	 * The pipelining client does not apply a default request configuration. Requests that are not pipelined but
+	 * executed by the same client need this context for their timeouts, too.
+	 *
+	 * @return A new context with the timeouts of the requests
+	 */
+	HttpClientContext createContext() {
+		final HttpClientContext context = HttpClientContext.create();
+		context.setRequestConfig(requestConfig);
+
+		return context;
+	}
+
+	/**
+	 * @param request
+	 * @return <code>true</code> if the request may be pipelined, i.e. it is a GET, HEAD or DELETE. Those can be
+	 * sent again if the connection breaks. Creating, updating and replacing files is not pipelined.
+	 */
+	static boolean isPipelined(final HttpRequest request) {
+		final String method = request.getRequestLine().getMethod();
+
+		return "GET".equals(method) || "HEAD".equals(method) || "DELETE".equals(method);
+	}
+
+	/**
+	 * The pipelining client sends the request URI as it is. Origin servers expect the path only.
+	 */
+	private static HttpRequest relative(final HttpUriRequest request) throws URISyntaxException {
+		final HttpRequestWrapper wrapper = HttpRequestWrapper.wrap(request);
+		wrapper.setURI(URIUtils.rewriteURI(request.getURI(), null, true));
+
+		return wrapper;
+	}
+
+	private static class Exchange {
+		final HttpUriRequest request;
+		final FutureCallback<HttpResponse> callback;
+
+		Exchange(final HttpUriRequest request, final FutureCallback<HttpResponse> callback) {
+			this.request = request;
+			this.callback = callback;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client-side token bucket whose rate adapts to the capacity of the server (AIMD).
+ *
+ * Every request takes one token. Tokens are refilled at the current rate and up to <code>burst</code> tokens can
+ * be saved up. Every successful response increases the rate slightly (additive increase). If the server responds with
+ * {@link Error.TooManyRequestsError} (429) or {@link Error.ServiceUnavailableError} (503), the rate is reduced by a
+ * factor (multiplicative decrease) and the `Retry-After` of the server is added to the wait time of the following
+ * requests. Thus the rate levels off slightly below the capacity of the server.
+ *
+ * One limiter can be shared by many clients, e.g. by all clients that are created with the same {@link ClientConfig},
+ * so that their aggregated rate is limited.
+ *
+ * @see ClientConfig.Builder#setRateLimiter(RateLimiter)
+ */
+public class RateLimiter {
+	private static final long DECREASE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+	private final double minRate;
+	private final double maxRate;
+	private final double increase;
+	private final double decrease;
+	private final double burst;
+
+	private double rate;
+	private double tokens;
+	private long refilled;
+	private long decreased;
+
+	/**
+	 * Creates a limiter that starts with <code>initialRate</code>, increases the rate by a tenth of it per second
+	 * and reduces it by 30% on overload.
+	 *
+	 * @param initialRate Requests per second
+	 */
+	public RateLimiter(double initialRate) {
+		this(initialRate, 1, Double.MAX_VALUE, Math.max(1, initialRate / 10), 0.7, Math.max(1, initialRate / 10));
+	}
+
+	/**
+	 * @param initialRate Requests per second
+	 * @param minRate Lower bound of the rate in requests per second
+	 * @param maxRate Upper bound of the rate in requests per second
+	 * @param increase Increase of the rate per second while the server does not reject requests
+	 * @param decrease Factor (between 0 and 1) the rate is multiplied by if the server rejects requests
+	 * @param burst Maximum number of requests that may be sent at once after a pause
+	 */
+	public RateLimiter(double initialRate, double minRate, double maxRate, double increase, double decrease, double burst) {
+		if(minRate <= 0 || maxRate < minRate || initialRate < minRate || initialRate > maxRate || increase < 0
+				|| decrease <= 0 || decrease > 1 || burst < 1) {
+			throw new IllegalArgumentException("Invalid rate limiter");
+		}
+
+		this.minRate = minRate;
+		this.maxRate = maxRate;
+		this.increase = increase;
+		this.decrease = decrease;
+		this.burst = burst;
+		this.rate = initialRate;
+		this.tokens = burst;
+		this.refilled = System.nanoTime();
+		this.decreased = refilled - DECREASE_INTERVAL;
+	}
+
+	/**
+	 * Takes a token without waiting. If no token is available, the caller has to wait the returned time before
+	 * sending the request; the token is reserved for it.
+	 *
+	 * @return The time to wait in nanoseconds.
+	 */
+	public synchronized long reserve() {
+		refill(System.nanoTime());
+
+		tokens -= 1;
+
+		return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+	}
+
+	/**
+	 * Waits for a token.
+	 *
+	 * @throws InterruptedIOException If the thread has been interrupted while waiting.
+	 */
+	public void acquire() throws InterruptedIOException {
+		final long wait = reserve();
+
+		if(wait > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+			}
+		}
+	}
+
+	/**
+	 * Reports a response that was not rejected because of overload. Increases the rate.
+	 */
+	public synchronized void onSuccess() {
+		// Every response adds increase / rate, that makes `increase` per second at the current rate
+		rate = Math.min(maxRate, rate + increase / rate);
+	}
+
+	/**
+	 * Reports an error response. If the server is overloaded, the rate is decreased (at most once per second, since
+	 * the requests that are already in flight will be rejected too) and the `Retry-After` delays the next requests.
+	 *
+	 * @param error
+	 */
+	public synchronized void onError(final Error error) {
+		if(!(error instanceof Error.TooManyRequestsError || error instanceof Error.ServiceUnavailableError)) {
+			// The server has processed the request
+			onSuccess();
+			return;
+		}
+
+		final long now = System.nanoTime();
+		refill(now);
+
+		if(now - decreased >= DECREASE_INTERVAL) {
+			rate = Math.max(minRate, rate * decrease);
+			decreased = now;
+
+			if(error.getRetryAfter() > 0) {
+				// Go into debt, so that the next requests wait for `Retry-After` and start at the new rate
+				tokens = Math.min(tokens, 0) - error.getRetryAfter() / 1000.0 * rate;
+			} else {
+				tokens = Math.min(tokens, 0);
+			}
+		}
+	}
+
+	/**
+	 * @return The current rate in requests per second.
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	private void refill(long now) {
+		tokens = Math.min(burst, tokens + (now - refilled) / 1e9 * rate);
+		refilled = now;
+	}
+}
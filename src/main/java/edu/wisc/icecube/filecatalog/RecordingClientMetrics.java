@@ -0,0 +1,339 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the measurements of the clients in memory: a latency histogram, the response bytes, the status codes,
+ * the errors and the retries per {@link ClientMetrics.Operation}, a histogram of the connection pool wait and
+ * the hits and misses of the cache lookups.
+ *
+ * Recording is lock-free and does not allocate once an error type has been seen, so it can stay
+ * enabled in production. The getters read the live counters; read them periodically and export them to your
+ * monitoring system, or log {@link #toString()}.
+ *
+ * <b>Example:</b>
+ * <pre>final RecordingClientMetrics metrics = new RecordingClientMetrics();
+ *
+ * try(final Client c = new Client("http://localhost", 8888, ClientConfig.custom().setMetrics(metrics).build())) {
+ * 	...
+ * }
+ *
+ * System.out.println(metrics.getLatency(ClientMetrics.Operation.GET).getPercentile(0.99));</pre>
+ */
+public class RecordingClientMetrics implements ClientMetrics {
+	private static final int MAX_STATUS_CODE = 600;
+
+	private final Map<Operation, OperationMetrics> operations = new EnumMap<>(Operation.class);
+	private final Histogram leaseWait = new Histogram();
+	private final LongAdder[] cacheHits = new LongAdder[Lookup.values().length];
+	private final LongAdder[] cacheMisses = new LongAdder[Lookup.values().length];
+
+	public RecordingClientMetrics() {
+		for(final Operation operation : Operation.values()) {
+			operations.put(operation, new OperationMetrics());
+		}
+
+		for(int i = 0; i < cacheHits.length; i++) {
+			cacheHits[i] = new LongAdder();
+			cacheMisses[i] = new LongAdder();
+		}
+	}
+
+	@Override
+	public void onResponse(final Operation operation, int statusCode, long nanos, long bytes) {
+		if(null == operation) {
+			return;
+		}
+
+		final OperationMetrics metrics = operations.get(operation);
+		metrics.latency.record(nanos);
+		metrics.bytes.add(bytes);
+		metrics.statusCodes.incrementAndGet(statusCode >= 0 && statusCode < MAX_STATUS_CODE ? statusCode : 0);
+	}
+
+	@Override
+	public void onError(final Operation operation, final Error error) {
+		if(null != operation) {
+			increment(operations.get(operation).errors, error.getClass());
+		}
+	}
+
+	@Override
+	public void onRetry(final Operation operation, int attempt) {
+		if(null != operation) {
+			operations.get(operation).retries.increment();
+		}
+	}
+
+	@Override
+	public void onLeaseWait(long nanos) {
+		leaseWait.record(nanos);
+	}
+
+	@Override
+	public void onCacheLookup(final Lookup lookup, boolean hit) {
+		(hit ? cacheHits : cacheMisses)[lookup.ordinal()].increment();
+	}
+
+	/**
+	 * @param operation
+	 * @return The latency of the responses in nanoseconds.
+	 */
+	public Histogram getLatency(final Operation operation) {
+		return operations.get(operation).latency;
+	}
+
+	/**
+	 * @param operation
+	 * @return The number of bytes of all response bodies.
+	 */
+	public long getBytes(final Operation operation) {
+		return operations.get(operation).bytes.sum();
+	}
+
+	/**
+	 * @param operation
+	 * @return The number of responses per status code. <code>0</code> counts the requests without a (valid) response.
+	 */
+	public Map<Integer, Long> getStatusCodes(final Operation operation) {
+		final AtomicLongArray statusCodes = operations.get(operation).statusCodes;
+		final Map<Integer, Long> result = new TreeMap<>();
+
+		for(int i = 0; i < statusCodes.length(); i++) {
+			final long count = statusCodes.get(i);
+
+			if(count > 0) {
+				result.put(i, count);
+			}
+		}
+
+		return Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * @param operation
+	 * @return The number of errors per type.
+	 */
+	public Map<Class<? extends Error>, Long> getErrors(final Operation operation) {
+		return snapshot(operations.get(operation).errors);
+	}
+
+	/**
+	 * @param operation
+	 * @return The number of retries.
+	 */
+	public long getRetries(final Operation operation) {
+		return operations.get(operation).retries.sum();
+	}
+
+	/**
+	 * @return The time the requests waited for a connection of the pool in nanoseconds.
+	 */
+	public Histogram getLeaseWait() {
+		return leaseWait;
+	}
+
+	/**
+	 * @param lookup
+	 * @return The number of lookups that found the value in the cache.
+	 */
+	public long getCacheHits(final Lookup lookup) {
+		return cacheHits[lookup.ordinal()].sum();
+	}
+
+	/**
+	 * @param lookup
+	 * @return The number of lookups that did not find the value in the cache.
+	 */
+	public long getCacheMisses(final Lookup lookup) {
+		return cacheMisses[lookup.ordinal()].sum();
+	}
+
+	private static <K> void increment(final Map<K, LongAdder> counters, final K key) {
+		LongAdder counter = counters.get(key);
+
+		if(null == counter) {
+			// Only the first occurrence of a key takes the lock of the map
+			counter = counters.computeIfAbsent(key, k -> new LongAdder());
+		}
+
+		counter.increment();
+	}
+
+	private static <K> Map<K, Long> snapshot(final Map<K, LongAdder> counters) {
+		final Map<K, Long> result = new HashMap<>();
+		counters.forEach((key, counter) -> result.put(key, counter.sum()));
+
+		return Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * One line per operation that has been executed, e.g.
+	 * <code>GET: count=42 p50=1.2ms p99=8.1ms max=9.0ms bytes=123456 retries=0 status={200=42} errors={}</code>
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+
+		for(final Map.Entry<Operation, OperationMetrics> entry : operations.entrySet()) {
+			final OperationMetrics metrics = entry.getValue();
+
+			if(0 == metrics.latency.getCount()) {
+				continue;
+			}
+
+			sb.append(entry.getKey())
+			  .append(": count=").append(metrics.latency.getCount())
+			  .append(" p50=").append(toMillis(metrics.latency.getPercentile(0.5)))
+			  .append(" p99=").append(toMillis(metrics.latency.getPercentile(0.99)))
+			  .append(" max=").append(toMillis(metrics.latency.getMax()))
+			  .append(" bytes=").append(metrics.bytes.sum())
+			  .append(" retries=").append(metrics.retries.sum())
+			  .append(" status=").append(getStatusCodes(entry.getKey()))
+			  .append(" errors={");
+
+			String separator = "";
+			for(final Map.Entry<Class<? extends Error>, LongAdder> error : metrics.errors.entrySet()) {
+				sb.append(separator).append(error.getKey().getSimpleName()).append('=').append(error.getValue().sum());
+				separator = ", ";
+			}
+
+			sb.append("}\n");
+		}
+
+		sb.append("lease wait: count=").append(leaseWait.getCount())
+		  .append(" p99=").append(toMillis(leaseWait.getPercentile(0.99)))
+		  .append(" max=").append(toMillis(leaseWait.getMax()));
+
+		for(final Lookup lookup : Lookup.values()) {
+			sb.append("\ncache ").append(lookup)
+			  .append(": hits=").append(getCacheHits(lookup))
+			  .append(" misses=").append(getCacheMisses(lookup));
+		}
+
+		return sb.toString();
+	}
+
+	private static String toMillis(long nanos) {
+		return String.format("%.1fms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+	private static class OperationMetrics {
+		final Histogram latency = new Histogram();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder retries = new LongAdder();
+		final AtomicLongArray statusCodes = new AtomicLongArray(MAX_STATUS_CODE);
+		final Map<Class<? extends Error>, LongAdder> errors = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * A histogram of non-negative values with logarithmic buckets: every power of two is split into 4 buckets,
+	 * so a percentile is at most 25% above the true value. The histogram has a fixed size and records without locks.
+	 */
+	public static class Histogram {
+		private static final int SUB_BUCKET_BITS = 2;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(index(Long.MAX_VALUE) + 1);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		/**
+		 * @param value Negative values are recorded as <code>0</code>.
+		 */
+		public void record(long value) {
+			value = Math.max(value, 0);
+
+			buckets.incrementAndGet(index(value));
+			count.increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public long getSum() {
+			return sum.sum();
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+
+		/**
+		 * @return The mean or <code>0</code> if nothing has been recorded.
+		 */
+		public double getMean() {
+			final long count = getCount();
+			return 0 == count ? 0 : getSum() / (double) count;
+		}
+
+		/**
+		 * @param percentile Between <code>0</code> and <code>1</code>, e.g. <code>0.99</code>
+		 * @return The upper bound of the bucket that contains the percentile, but not more than the maximum.
+		 * <code>0</code> if nothing has been recorded.
+		 */
+		public long getPercentile(double percentile) {
+			if(percentile < 0 || percentile > 1) {
+				throw new IllegalArgumentException("percentile must be between 0 and 1");
+			}
+
+			long total = 0;
+			for(int i = 0; i < buckets.length(); i++) {
+				total += buckets.get(i);
+			}
+
+			final long rank = Math.max(1, (long) Math.ceil(percentile * total));
+
+			long seen = 0;
+			for(int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+
+				if(seen >= rank) {
+					return Math.min(upperBound(i), getMax());
+				}
+			}
+
+			return 0;
+		}
+
+		/**
+		 * The values below {@link #SUB_BUCKETS} get a bucket of their own. Above, the bucket is given by the
+		 * position of the highest bit and the {@link #SUB_BUCKET_BITS} bits below it.
+		 */
+		private static int index(long value) {
+			if(value < SUB_BUCKETS) {
+				return (int) value;
+			}
+
+			final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+			return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+		}
+
+		private static long upperBound(int index) {
+			if(index < SUB_BUCKETS) {
+				return index;
+			}
+
+			final int shift = index / SUB_BUCKETS - 1;
+			final long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+
+			final long next = (subBucket + 1) << shift;
+
+			// The last bucket ends at Long.MAX_VALUE
+			return next > 0 ? next - 1 : Long.MAX_VALUE;
+		}
+	}
+}
@@ -0,0 +1,697 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.wisc.icecube.filecatalog.Error.ConflictError;
+import edu.wisc.icecube.filecatalog.gson.Creation;
+import edu.wisc.icecube.filecatalog.gson.FileMetadata;
+
+/**
+ * Registers all regular files below a directory in the file catalog. The work is split into three stages that are
+ * connected by bounded queues, so that the disk, the CPU and the network are busy at the same time:
+ *
+ * <ol>
+ * <li>{@link Stage#WALK}: Threads walk the directories with {@link Files#walkFileTree}, one directory per task.</li>
+ * <li>{@link Stage#HASH}: Threads compute the sha512 of the files, see {@link ChecksumVerifier}.</li>
+ * <li>{@link Stage#SUBMIT}: Threads create the entries with {@link Client#create(Object)}.</li>
+ * </ol>
+ *
+ * If a stage is slower than the previous one, its queue fills up and the previous stage waits (backpressure).
+ * Thus, at most {@link Builder#setQueueCapacity(int)} files per queue are held in memory. The time a stage waits
+ * for the next one is recorded in its {@link StageMetrics}.
+ *
+ * With a checkpoint file, every registered file is appended to the checkpoint with its size, modification time,
+ * checksum and `mongo_id`. A run with the same checkpoint skips these files as long as their size and modification
+ * time have not changed, so a crashed run resumes without hashing and registering everything again.
+ *
+ * <b>Example:</b>
+ * <pre>final RegistrationPipeline.Report report = RegistrationPipeline.custom(c)
+ * 		.setHashThreads(8)
+ * 		.setCheckpoint(Paths.get("run-1234.checkpoint"))
+ * 		.build()
+ * 		.run(Paths.get("/data/exp/run-1234"));</pre>
+ */
+public class RegistrationPipeline {
+	/**
+	 * The stages of the pipeline.
+	 */
+	public enum Stage {
+		WALK, HASH, SUBMIT
+	}
+
+	/**
+	 * Creates the metadata of a file.
+	 */
+	@FunctionalInterface
+	public interface MetadataFactory {
+		/**
+		 * @param path The absolute path of the file
+		 * @param size The size of the file
+		 * @param sha512 The checksum of the file
+		 * @return The metadata that is passed to {@link Client#create(Object)}. It must contain the `uid`.
+		 */
+		Map<String, Object> create(final Path path, long size, final String sha512);
+	}
+
+	/**
+	 * Uses the absolute path as `uid` and as the only location.
+	 */
+	public static final MetadataFactory DEFAULT_METADATA = (path, size, sha512) -> {
+		final Map<String, Object> metadata = new LinkedHashMap<>();
+		metadata.put("uid", path.toString());
+		metadata.put("locations", Collections.singletonList(path.toString()));
+		metadata.put("checksum", Collections.singletonMap("sha512", sha512));
+		metadata.put("filesize", size);
+
+		return metadata;
+	};
+
+	private static final Candidate END = new Candidate(null, 0, 0);
+
+	private final Client client;
+	private final int walkThreads;
+	private final int hashThreads;
+	private final int submitThreads;
+	private final int queueCapacity;
+	private final Path checkpoint;
+	private final MetadataFactory metadataFactory;
+	private final FileHasher hasher = new FileHasher();
+
+	protected RegistrationPipeline(final Builder builder) {
+		this.client = builder.client;
+		this.walkThreads = builder.walkThreads;
+		this.hashThreads = builder.hashThreads;
+		this.submitThreads = builder.submitThreads;
+		this.queueCapacity = builder.queueCapacity;
+		this.checkpoint = builder.checkpoint;
+		this.metadataFactory = builder.metadataFactory;
+	}
+
+	/**
+	 * @param client
+	 * @return A new builder with the default values.
+	 */
+	public static Builder custom(final Client client) {
+		return new Builder(client);
+	}
+
+	/**
+	 * Registers all regular files below the directory. Symbolic links are not followed.
+	 *
+	 * @param root
+	 * @return The registered and failed files and the metrics of the stages.
+	 * @throws IOException If the checkpoint cannot be read or opened. A file whose line cannot be appended to the
+	 * checkpoint is reported as failure.
+	 * @throws InterruptedIOException If the thread has been interrupted. The stages are stopped.
+	 */
+	public Report run(final Path root) throws IOException {
+		return new Run(root.toAbsolutePath()).execute();
+	}
+
+	/**
+	 * The state of one {@link RegistrationPipeline#run(Path)}.
+	 */
+	private class Run {
+		private final Path root;
+		private final Report report = new Report();
+		private final Map<String, Candidate> done;
+		private final BlockingQueue<Candidate> walked = new ArrayBlockingQueue<>(queueCapacity);
+		private final BlockingQueue<Candidate> hashed = new ArrayBlockingQueue<>(queueCapacity);
+		private final AtomicInteger pendingDirectories = new AtomicInteger();
+		private final AtomicInteger runningHashers = new AtomicInteger(hashThreads);
+		private final ExecutorService walkers = Executors.newFixedThreadPool(walkThreads, new DaemonThreadFactory("registration-walk"));
+		private final ExecutorService workers = Executors.newFixedThreadPool(hashThreads + submitThreads, new DaemonThreadFactory("registration"));
+		private Checkpoint writer = null;
+
+		Run(final Path root) throws IOException {
+			this.root = root;
+			this.done = null == checkpoint ? Collections.<String, Candidate>emptyMap() : Checkpoint.read(checkpoint);
+		}
+
+		Report execute() throws IOException {
+			final long started = System.nanoTime();
+			final List<Future<?>> submitters = new ArrayList<>();
+
+			try {
+				if(null != checkpoint) {
+					writer = new Checkpoint(checkpoint);
+				}
+
+				for(int i = 0; i < hashThreads; ++i) {
+					workers.execute(this::hash);
+				}
+
+				for(int i = 0; i < submitThreads; ++i) {
+					submitters.add(workers.submit(this::submit));
+				}
+
+				pendingDirectories.incrementAndGet();
+				walkers.execute(() -> walk(root));
+
+				for(Future<?> submitter: submitters) {
+					submitter.get();
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while registering files");
+			} catch(ExecutionException e) {
+				// The stages handle their errors
+				throw new IllegalStateException(e.getCause());
+			} finally {
+				walkers.shutdownNow();
+				workers.shutdownNow();
+
+				if(null != writer) {
+					writer.close();
+				}
+			}
+
+			report.elapsed = System.nanoTime() - started;
+			return report;
+		}
+
+		/**
+		 * Walks one directory: the files are queued for hashing and every subdirectory becomes a task of its own.
+		 */
+		private void walk(final Path directory) {
+			final StageMetrics metrics = report.stages.get(Stage.WALK);
+			final long started = System.nanoTime();
+			long blocked = 0;
+
+			try {
+				final List<Candidate> files = new ArrayList<>();
+
+				Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+						if(attributes.isDirectory()) {
+							pendingDirectories.incrementAndGet();
+							walkers.execute(() -> walk(file));
+						} else if(attributes.isRegularFile()) {
+							files.add(new Candidate(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+						}
+
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+						report.fail(file, e);
+						return FileVisitResult.CONTINUE;
+					}
+				});
+
+				for(Candidate file: files) {
+					report.walked.increment();
+
+					final Candidate previous = done.get(file.path.toString());
+					if(null != previous && previous.size == file.size && previous.modified == file.modified) {
+						report.skipped.increment();
+						continue;
+					}
+
+					final long put = System.nanoTime();
+					walked.put(file);
+					blocked += System.nanoTime() - put;
+					metrics.items.increment();
+				}
+			} catch(IOException | RuntimeException e) {
+				report.fail(directory, e);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				metrics.record(System.nanoTime() - started, blocked);
+
+				if(0 == pendingDirectories.decrementAndGet()) {
+					// The last directory ends the walk
+					end(walked, hashThreads);
+				}
+			}
+		}
+
+		private void hash() {
+			final StageMetrics metrics = report.stages.get(Stage.HASH);
+
+			try {
+				for(Candidate file; END != (file = walked.take());) {
+					final long started = System.nanoTime();
+					long blocked = 0;
+
+					try {
+						file.sha512 = hasher.sha512(file.path);
+						report.bytes.add(file.size);
+						metrics.items.increment();
+
+						final long put = System.nanoTime();
+						hashed.put(file);
+						blocked = System.nanoTime() - put;
+					} catch(IOException | RuntimeException e) {
+						report.fail(file.path, e);
+					} finally {
+						metrics.record(System.nanoTime() - started, blocked);
+					}
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				if(0 == runningHashers.decrementAndGet()) {
+					// The last hasher ends the submission
+					end(hashed, submitThreads);
+				}
+			}
+		}
+
+		/**
+		 * Queues the end markers for the next stage. If the thread has been interrupted, i.e. the run is aborted, the
+		 * markers are only queued if there is room, so that the thread does not wait for a stage that has stopped.
+		 */
+		private void end(final BlockingQueue<Candidate> queue, int count) {
+			for(int i = 0; i < count; ++i) {
+				if(Thread.currentThread().isInterrupted()) {
+					queue.offer(END);
+					continue;
+				}
+
+				try {
+					queue.put(END);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					queue.offer(END);
+				}
+			}
+		}
+
+		private Void submit() throws InterruptedException {
+			final StageMetrics metrics = report.stages.get(Stage.SUBMIT);
+
+			for(Candidate file; END != (file = hashed.take());) {
+				final long started = System.nanoTime();
+
+				Map<String, Object> metadata = null;
+
+				try {
+					metadata = metadataFactory.create(file.path, file.size, file.sha512);
+
+					final Creation creation = client.create(metadata);
+					file.mongoId = Client.getMongoIdFromPath(creation.getFile());
+
+					report.created.increment();
+					metrics.items.increment();
+
+					if(null != writer) {
+						writer.append(file);
+					}
+				} catch(ConflictError e) {
+					conflict(file, String.valueOf(metadata.get("uid")), e);
+				} catch(Exception e) {
+					report.fail(file.path, e);
+				} finally {
+					metrics.record(System.nanoTime() - started, 0);
+				}
+			}
+
+			return null;
+		}
+
+		/**
+		 * Handles a file whose `uid` is already registered, e.g. by a run that crashed before it could write the
+		 * checkpoint. Only if the registered entry has the checksum and the size of the file, it is recorded as
+		 * conflict and added to the checkpoint, so that the next run skips it. Otherwise, e.g. if the file has been
+		 * modified since, the catalog is outdated and the file is reported as failure.
+		 */
+		private void conflict(final Candidate file, final String uid, final ConflictError e) {
+			try {
+				final String mongoId = client.getMongoIdByUid(uid);
+				final FileMetadata registered = client.get(mongoId, FileMetadata.class, "checksum", "filesize");
+				final String sha512 = null == registered.getChecksum() ? null : registered.getChecksum().getSha512();
+
+				if(!file.sha512.equalsIgnoreCase(String.valueOf(sha512))
+						|| (FileMetadata.UNKNOWN_FILESIZE != registered.getFilesize() && file.size != registered.getFilesize())) {
+					report.fail(file.path, new ClientException("The uid `" + uid + "` is registered with a different checksum or filesize (mongo_id "
+							+ mongoId + ")"));
+					return;
+				}
+
+				file.mongoId = mongoId;
+				report.conflict(file.path, e);
+
+				if(null != writer) {
+					writer.append(file);
+				}
+			} catch(Exception lookup) {
+				report.fail(file.path, lookup);
+			}
+		}
+	}
+
+	/**
+	 * A file and what is known about it so far.
+	 */
+	private static class Candidate {
+		final Path path;
+		final long size;
+		final long modified;
+		volatile String sha512;
+		volatile String mongoId;
+
+		Candidate(final Path path, long size, long modified) {
+			this.path = path;
+			this.size = size;
+			this.modified = modified;
+		}
+	}
+
+	/**
+	 * The checkpoint has one line per registered file:
+	 * <code>&lt;size&gt;\t&lt;modified&gt;\t&lt;sha512&gt;\t&lt;mongo_id&gt;\t&lt;path&gt;</code>.
+	 * Every line is flushed, so that a crash loses at most the line that is being written.
+	 */
+	private static class Checkpoint implements Closeable {
+		private final BufferedWriter writer;
+
+		Checkpoint(final Path path) throws IOException {
+			writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		}
+
+		static Map<String, Candidate> read(final Path path) throws IOException {
+			final Map<String, Candidate> done = new HashMap<>();
+
+			if(!Files.exists(path)) {
+				return done;
+			}
+
+			for(String line: Files.readAllLines(path, StandardCharsets.UTF_8)) {
+				final String[] fields = line.split("\t", 5);
+
+				// A crash can truncate the last line
+				if(5 != fields.length) {
+					continue;
+				}
+
+				try {
+					final Candidate file = new Candidate(Paths.get(fields[4]), Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+					file.sha512 = fields[2];
+					file.mongoId = fields[3];
+					done.put(fields[4], file);
+				} catch(NumberFormatException e) {
+					continue;
+				}
+			}
+
+			return done;
+		}
+
+		synchronized void append(final Candidate file) throws IOException {
+			writer.write(file.size + "\t" + file.modified + "\t" + file.sha512 + "\t" + file.mongoId + "\t" + file.path);
+			writer.newLine();
+			writer.flush();
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			writer.close();
+		}
+	}
+
+	/**
+	 * The throughput of a stage.
+	 */
+	public static class StageMetrics {
+		private final LongAdder items = new LongAdder();
+		private final LongAdder busy = new LongAdder();
+		private final LongAdder blocked = new LongAdder();
+
+		StageMetrics() {}
+
+		private void record(long nanos, long blocked) {
+			this.busy.add(nanos - blocked);
+			this.blocked.add(blocked);
+		}
+
+		/**
+		 * @return Number of files that have passed the stage.
+		 */
+		public long getItems() {
+			return items.sum();
+		}
+
+		/**
+		 * @param unit
+		 * @return The time the threads of the stage have worked, summed over all threads.
+		 */
+		public long getBusy(final TimeUnit unit) {
+			return unit.convert(busy.sum(), TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * @param unit
+		 * @return The time the threads of the stage have waited for the next stage, summed over all threads. A
+		 * large value means that the next stage is the bottleneck.
+		 */
+		public long getBlocked(final TimeUnit unit) {
+			return unit.convert(blocked.sum(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public String toString() {
+			return "items=" + getItems() + " busy=" + getBusy(TimeUnit.MILLISECONDS) + "ms blocked=" + getBlocked(TimeUnit.MILLISECONDS) + "ms";
+		}
+	}
+
+	/**
+	 * The outcome of {@link RegistrationPipeline#run(Path)}.
+	 */
+	public static class Report {
+		private final Map<Stage, StageMetrics> stages = new EnumMap<>(Stage.class);
+		private final LongAdder walked = new LongAdder();
+		private final LongAdder skipped = new LongAdder();
+		private final LongAdder created = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final Map<Path, Exception> conflicts = Collections.synchronizedMap(new LinkedHashMap<Path, Exception>());
+		private final Map<Path, Exception> failures = Collections.synchronizedMap(new LinkedHashMap<Path, Exception>());
+		private long elapsed;
+
+		Report() {
+			for(Stage stage: Stage.values()) {
+				stages.put(stage, new StageMetrics());
+			}
+		}
+
+		private void fail(final Path path, final Exception e) {
+			failures.put(path, e);
+		}
+
+		private void conflict(final Path path, final Exception e) {
+			conflicts.put(path, e);
+		}
+
+		/**
+		 * @return Number of regular files that have been found.
+		 */
+		public long getWalked() {
+			return walked.sum();
+		}
+
+		/**
+		 * @return Number of files that have been skipped since they are in the checkpoint.
+		 */
+		public long getSkipped() {
+			return skipped.sum();
+		}
+
+		/**
+		 * @return Number of files that have been registered.
+		 */
+		public long getCreated() {
+			return created.sum();
+		}
+
+		/**
+		 * @return Number of bytes that have been hashed.
+		 */
+		public long getBytes() {
+			return bytes.sum();
+		}
+
+		/**
+		 * @return The files whose `uid` is already registered, e.g. by a run that crashed before it could write the
+		 * checkpoint, and whose registered checksum and size match the file. They are added to the checkpoint with
+		 * the `mongo_id` of the registered entry. Registered files that do not match are reported as failures.
+		 */
+		public Map<Path, Exception> getConflicts() {
+			synchronized(conflicts) {
+				return Collections.unmodifiableMap(new LinkedHashMap<>(conflicts));
+			}
+		}
+
+		/**
+		 * @return The files or directories that could not be read, hashed or registered.
+		 */
+		public Map<Path, Exception> getFailures() {
+			synchronized(failures) {
+				return Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+			}
+		}
+
+		/**
+		 * @param stage
+		 * @return The metrics of the stage.
+		 */
+		public StageMetrics getStage(final Stage stage) {
+			return stages.get(stage);
+		}
+
+		/**
+		 * @param unit
+		 * @return Duration of the run.
+		 */
+		public long getElapsed(final TimeUnit unit) {
+			return unit.convert(elapsed, TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public String toString() {
+			return "Report [walked=" + getWalked() + ", skipped=" + getSkipped() + ", created=" + getCreated() + ", conflicts=" + conflicts.size()
+					+ ", failures=" + failures.size() + ", elapsed=" + getElapsed(TimeUnit.MILLISECONDS) + "ms, walk: " + stages.get(Stage.WALK)
+					+ ", hash: " + stages.get(Stage.HASH) + ", submit: " + stages.get(Stage.SUBMIT) + "]";
+		}
+	}
+
+	public static class Builder {
+		private final Client client;
+		private int walkThreads = 2;
+		private int hashThreads = Runtime.getRuntime().availableProcessors();
+		private int submitThreads = 16;
+		private int queueCapacity = 1024;
+		private Path checkpoint = null;
+		private MetadataFactory metadataFactory = DEFAULT_METADATA;
+
+		protected Builder(final Client client) {
+			if(null == client) {
+				throw new IllegalArgumentException("client must not be null");
+			}
+
+			this.client = client;
+		}
+
+		/**
+		 * Sets the number of threads that walk the directories. Default: 2
+		 *
+		 * @param walkThreads
+		 * @return This builder
+		 */
+		public Builder setWalkThreads(int walkThreads) {
+			if(walkThreads < 1) {
+				throw new IllegalArgumentException("walkThreads must be positive");
+			}
+
+			this.walkThreads = walkThreads;
+			return this;
+		}
+
+		/**
+		 * Sets the number of threads that hash the files. Default: the number of processors
+		 *
+		 * @param hashThreads
+		 * @return This builder
+		 */
+		public Builder setHashThreads(int hashThreads) {
+			if(hashThreads < 1) {
+				throw new IllegalArgumentException("hashThreads must be positive");
+			}
+
+			this.hashThreads = hashThreads;
+			return this;
+		}
+
+		/**
+		 * Sets the number of concurrent {@link Client#create(Object)} requests. It should not exceed the size of the
+		 * connection pool of the client. Default: 16
+		 *
+		 * @param submitThreads
+		 * @return This builder
+		 */
+		public Builder setSubmitThreads(int submitThreads) {
+			if(submitThreads < 1) {
+				throw new IllegalArgumentException("submitThreads must be positive");
+			}
+
+			this.submitThreads = submitThreads;
+			return this;
+		}
+
+		/**
+		 * Sets the capacity of the queues between the stages. Default: 1024
+		 *
+		 * @param queueCapacity
+		 * @return This builder
+		 */
+		public Builder setQueueCapacity(int queueCapacity) {
+			if(queueCapacity < 1) {
+				throw new IllegalArgumentException("queueCapacity must be positive");
+			}
+
+			this.queueCapacity = queueCapacity;
+			return this;
+		}
+
+		/**
+		 * Sets the file that records the registered files. It is created if it does not exist. Default: <code>null</code>
+		 *
+		 * @param checkpoint The file or <code>null</code> for no checkpoint
+		 * @return This builder
+		 */
+		public Builder setCheckpoint(final Path checkpoint) {
+			this.checkpoint = checkpoint;
+			return this;
+		}
+
+		/**
+		 * Sets how the metadata of a file is created. Default: {@link RegistrationPipeline#DEFAULT_METADATA}
+		 *
+		 * @param metadataFactory
+		 * @return This builder
+		 */
+		public Builder setMetadataFactory(final MetadataFactory metadataFactory) {
+			if(null == metadataFactory) {
+				throw new IllegalArgumentException("metadataFactory must not be null");
+			}
+
+			this.metadataFactory = metadataFactory;
+			return this;
+		}
+
+		public RegistrationPipeline build() {
+			return new RegistrationPipeline(this);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
+
+/**
+ * Decides whether a request that failed with an {@link Error} is sent again and how long to wait before.
+ *
+ * Only overload errors are retried, by default {@link Error.TooManyRequestsError} (429) and
+ * {@link Error.ServiceUnavailableError} (503). The delay grows exponentially with a random jitter, so that
+ * many clients that have been rejected at the same time do not come back at the same time. If the server
+ * sent a `Retry-After` header, the client waits at least that long.
+ *
+ * Only idempotent requests are retried: GET, HEAD, DELETE and PUT/PATCH that are guarded by an `etag`. A guarded
+ * update cannot be applied twice since the first update changes the `etag`. POST is never retried.
+ *
+ * @see ClientConfig.Builder#setRetryPolicy(RetryPolicy)
+ */
+public class RetryPolicy {
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+
+	/**
+	 * Up to 3 retries with a delay between 100 milliseconds and 10 seconds.
+	 */
+	public static final RetryPolicy DEFAULT = new RetryPolicy(3, 100, 10000, TimeUnit.MILLISECONDS);
+
+	/**
+	 * Never retries.
+	 */
+	public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0, TimeUnit.MILLISECONDS);
+
+	private final int maxRetries;
+	private final long baseDelay;
+	private final long maxDelay;
+	private final Set<Integer> statusCodes;
+
+	/**
+	 * Creates a policy that retries 429 and 503 responses.
+	 *
+	 * @param maxRetries Maximum number of retries per request
+	 * @param baseDelay Delay of the first retry. It is doubled with every retry.
+	 * @param maxDelay Upper bound of the delay. A longer `Retry-After` of the server is respected nevertheless.
+	 * @param unit
+	 */
+	public RetryPolicy(int maxRetries, long baseDelay, long maxDelay, final TimeUnit unit) {
+		this(maxRetries, baseDelay, maxDelay, unit, SC_TOO_MANY_REQUESTS, HttpStatus.SC_SERVICE_UNAVAILABLE);
+	}
+
+	/**
+	 * @param maxRetries Maximum number of retries per request
+	 * @param baseDelay Delay of the first retry. It is doubled with every retry.
+	 * @param maxDelay Upper bound of the delay. A longer `Retry-After` of the server is respected nevertheless.
+	 * @param unit
+	 * @param statusCodes The status codes that are retried
+	 */
+	public RetryPolicy(int maxRetries, long baseDelay, long maxDelay, final TimeUnit unit, final Integer... statusCodes) {
+		if(maxRetries < 0 || baseDelay < 0 || maxDelay < baseDelay) {
+			throw new IllegalArgumentException("Invalid retry policy");
+		}
+
+		this.maxRetries = maxRetries;
+		this.baseDelay = unit.toMillis(baseDelay);
+		this.maxDelay = unit.toMillis(maxDelay);
+		this.statusCodes = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(statusCodes)));
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @param request
+	 * @param error The error of the last attempt
+	 * @param attempt Number of retries so far
+	 * @return <code>true</code> if the request should be sent again.
+	 */
+	public boolean isRetryable(final HttpRequest request, final Error error, int attempt) {
+		return attempt < maxRetries && statusCodes.contains(error.getStatusCode()) && isIdempotent(request);
+	}
+
+	/**
+	 * @param request
+	 * @return <code>true</code> if sending the request twice has the same effect as sending it once.
+	 */
+	public static boolean isIdempotent(final HttpRequest request) {
+		switch(request.getRequestLine().getMethod()) {
+			case "GET":
+			case "HEAD":
+			case "DELETE":
+				return true;
+
+			case "PUT":
+			case "PATCH":
+				// The file catalog expects the etag in `If-None-Match`
+				return request.containsHeader("If-None-Match") || request.containsHeader("If-Match");
+
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Computes the delay before the next retry: a random value between half and the full exponential
+	 * backoff, but at least the `Retry-After` of the server.
+	 *
+	 * @param attempt Number of retries so far
+	 * @param retryAfter `Retry-After` in milliseconds or a negative value if the server did not send it
+	 * @return The delay in milliseconds.
+	 */
+	public long getDelay(int attempt, long retryAfter) {
+		final long backoff = Math.min(maxDelay, baseDelay << Math.min(attempt, 30));
+		final long jittered = backoff / 2 + (backoff > 1 ? ThreadLocalRandom.current().nextLong(backoff - backoff / 2) : 0);
+
+		return Math.max(jittered, retryAfter);
+	}
+
+	/**
+	 * Parses a `Retry-After` header, which contains either seconds or a HTTP date.
+	 *
+	 * @param header
+	 * @return The time to wait in milliseconds or <code>-1</code> if the header is missing or invalid.
+	 */
+	public static long parseRetryAfter(final Header header) {
+		if(null == header || null == header.getValue()) {
+			return -1;
+		}
+
+		final String value = header.getValue().trim();
+
+		try {
+			return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+		} catch(NumberFormatException e) {
+			final Date date = DateUtils.parseDate(value);
+			return null == date ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces concurrent calls with the same key (single flight). The first caller executes the call, all callers
+ * that arrive while it is in flight wait for it and get the same result or exception. A call that arrives after
+ * the first one has completed is executed again, i.e. nothing is cached.
+ *
+ * @param <K>
+ * @param <V>
+ */
+class SingleFlight<K, V> {
+	/**
+	 * A call that may throw the checked exceptions of the {@link Client}.
+	 *
+	 * @param <V>
+	 */
+	interface Call<V> {
+		V call() throws IOException, URISyntaxException;
+	}
+
+	private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+	private final LongAdder coalesced = new LongAdder();
+
+	/**
+	 * Executes the call unless a call with the same key is in flight. In that case, waits for its result.
+	 *
+	 * @param key
+	 * @param call
+	 * @return The result of the call.
+	 * @throws IOException The exception of the call or {@link InterruptedIOException} if the thread has been
+	 * interrupted while waiting.
+	 * @throws URISyntaxException
+	 */
+	V execute(final K key, final Call<V> call) throws IOException, URISyntaxException {
+		return execute(key, call, null);
+	}
+
+	/**
+	 * Executes the call unless a call with the same key is in flight. In that case, waits for its result.
+	 *
+	 * The callers that have joined the call get its result only after <code>share</code> has been applied to it by
+	 * the caller that executed it. If nobody has joined, <code>share</code> is not applied, i.e. preparing the result
+	 * for others (e.g. buffering it) costs nothing in the common case.
+	 *
+	 * @param key
+	 * @param call
+	 * @param share Prepares the result for the callers that have joined or <code>null</code>
+	 * @return The result of the call.
+	 * @throws IOException The exception of the call or {@link InterruptedIOException} if the thread has been
+	 * interrupted while waiting.
+	 * @throws URISyntaxException
+	 */
+	V execute(final K key, final Call<V> call, final Consumer<V> share) throws IOException, URISyntaxException {
+		final Flight<V> flight = new Flight<>();
+		Flight<V> running;
+
+		while(null != (running = inFlight.putIfAbsent(key, flight))) {
+			if(running.follow()) {
+				coalesced.increment();
+				return await(running);
+			}
+
+			// Completed, but not removed yet
+			inFlight.remove(key, running);
+		}
+
+		try {
+			final V value = call.call();
+
+			if(flight.close() > 0 && null != share) {
+				share.accept(value);
+			}
+
+			flight.complete(value);
+			return value;
+		} catch(IOException | URISyntaxException | RuntimeException | java.lang.Error e) {
+			flight.close();
+			flight.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, flight);
+		}
+	}
+
+	/**
+	 * @return The number of calls that have waited for a call in flight instead of being executed.
+	 */
+	long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	private static <V> V await(final CompletableFuture<V> future) throws IOException, URISyntaxException {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a request in flight");
+		} catch(ExecutionException e) {
+			final Throwable cause = e.getCause();
+
+			if(cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if(cause instanceof URISyntaxException) {
+				throw (URISyntaxException) cause;
+			} else if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if(cause instanceof java.lang.Error) {
+				throw (java.lang.Error) cause;
+			} else {
+				throw new IllegalStateException(cause);
+			}
+		}
+	}
+
+	/**
+	 * A call in flight. Callers can join it until the result is known.
+	 */
+	private static class Flight<V> extends CompletableFuture<V> {
+		private int followers = 0;
+		private boolean closed = false;
+
+		/**
+		 * @return <code>false</code> if the call has already returned and the caller must not wait for it.
+		 */
+		synchronized boolean follow() {
+			if(closed) {
+				return false;
+			}
+
+			++followers;
+			return true;
+		}
+
+		/**
+		 * Stops callers from joining.
+		 *
+		 * @return The number of callers that have joined.
+		 */
+		synchronized int close() {
+			closed = true;
+			return followers;
+		}
+	}
+}
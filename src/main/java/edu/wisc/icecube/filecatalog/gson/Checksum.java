@@ -0,0 +1,72 @@
+package edu.wisc.icecube.filecatalog.gson;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The `checksum` of a file. The file catalog stores either a plain sha512 string or an object
+ * with one checksum per algorithm, e.g. <code>{"sha512": "..."}</code>.
+ */
+public class Checksum {
+	private final String sha512;
+	private final Map<String, Object> others;
+	private final boolean plain;
+	
+	/**
+	 * Creates a plain sha512 checksum.
+	 * 
+	 * @param sha512
+	 */
+	public Checksum(final String sha512) {
+		this.sha512 = sha512;
+		this.others = null;
+		this.plain = true;
+	}
+	
+	/**
+	 * @param sha512 The sha512 checksum or <code>null</code>
+	 * @param others Checksums of other algorithms by algorithm name or <code>null</code>. The values are parsed like
+	 * gson parses an {@link Object}, since they are not necessarily strings.
+	 */
+	public Checksum(final String sha512, final Map<String, Object> others) {
+		this.sha512 = sha512;
+		this.others = null == others || others.isEmpty() ? null : others;
+		this.plain = false;
+	}
+	
+	public String getSha512() {
+		return sha512;
+	}
+	
+	/**
+	 * @param algorithm E.g. <code>sha512</code>
+	 * @return The checksum of the algorithm or <code>null</code> if it is missing or not a string
+	 */
+	public String get(final String algorithm) {
+		if("sha512".equals(algorithm)) {
+			return sha512;
+		}
+		
+		final Object checksum = null == others ? null : others.get(algorithm);
+		return checksum instanceof String ? (String) checksum : null;
+	}
+	
+	/**
+	 * @return Checksums of algorithms other than sha512, including the values that are not strings.
+	 */
+	public Map<String, Object> getOthers() {
+		return null == others ? Collections.<String, Object>emptyMap() : others;
+	}
+	
+	/**
+	 * @return <code>true</code> if the checksum is a plain string instead of an object.
+	 */
+	public boolean isPlain() {
+		return plain;
+	}
+	
+	@Override
+	public String toString() {
+		return plain ? sha512 : "{sha512=" + sha512 + (null == others ? "" : ", " + others) + "}";
+	}
+}
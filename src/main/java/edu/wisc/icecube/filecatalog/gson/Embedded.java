@@ -1,13 +1,17 @@
 package edu.wisc.icecube.filecatalog.gson;
 
 public class Embedded {
-	private BasicMetaData[] files;
+	private FileMetadata[] files;
 	
-	public Embedded(final BasicMetaData[] files) {
+	public Embedded(final FileMetadata[] files) {
 		this.files = files;
 	}
 	
-	public BasicMetaData[] getFiles() {
+	/**
+	 * @return The listed files. They contain `mongo_id` and `uid` and, if a projection has been requested, the
+	 * requested keys.
+	 */
+	public FileMetadata[] getFiles() {
 		return files;
 	}
 }
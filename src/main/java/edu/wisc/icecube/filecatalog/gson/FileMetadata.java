@@ -0,0 +1,122 @@
+package edu.wisc.icecube.filecatalog.gson;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed metadata of a file. The common keys are held in fields, all other keys
+ * (e.g. `meta_modify_date` or `_links`) in {@link #getExtras()}.
+ * 
+ * Instances are created by {@link FileMetadataAdapter}, which has to be registered on the {@link com.google.gson.Gson}
+ * instance. The {@link edu.wisc.icecube.filecatalog.Client} does that already.
+ */
+public class FileMetadata extends BasicMetaData {
+	/**
+	 * Value of {@link #getFilesize()} if the metadata has no `filesize`.
+	 */
+	public static final long UNKNOWN_FILESIZE = -1;
+	
+	private final long filesize;
+	private final Location[] locations;
+	private final Checksum checksum;
+	private final Map<String, Object> extras;
+	
+	/**
+	 * @param mongoId
+	 * @param uid
+	 * @param filesize The size in bytes or {@link #UNKNOWN_FILESIZE}
+	 * @param locations Plain paths
+	 * @param checksum
+	 * @param extras All other keys or <code>null</code>
+	 */
+	public FileMetadata(final String mongoId, final String uid, long filesize, final String[] locations, final Checksum checksum, final Map<String, Object> extras) {
+		this(mongoId, uid, filesize, toLocations(locations), checksum, extras);
+	}
+	
+	/**
+	 * @param mongoId
+	 * @param uid
+	 * @param filesize The size in bytes or {@link #UNKNOWN_FILESIZE}
+	 * @param locations
+	 * @param checksum
+	 * @param extras All other keys or <code>null</code>
+	 */
+	public FileMetadata(final String mongoId, final String uid, long filesize, final Location[] locations, final Checksum checksum, final Map<String, Object> extras) {
+		super(mongoId, uid);
+		
+		this.filesize = filesize;
+		this.locations = locations;
+		this.checksum = checksum;
+		this.extras = null == extras || extras.isEmpty() ? null : extras;
+	}
+	
+	private static Location[] toLocations(final String[] paths) {
+		if(null == paths) {
+			return null;
+		}
+		
+		final Location[] locations = new Location[paths.length];
+		for(int i = 0; i < paths.length; ++i) {
+			locations[i] = new Location(paths[i]);
+		}
+		
+		return locations;
+	}
+	
+	/**
+	 * @return The size in bytes or {@link #UNKNOWN_FILESIZE}
+	 */
+	public long getFilesize() {
+		return filesize;
+	}
+	
+	/**
+	 * @return The paths of the locations or <code>null</code>. Locations without `path` are left out.
+	 * @see #getLocationEntries()
+	 */
+	public String[] getLocations() {
+		if(null == locations) {
+			return null;
+		}
+		
+		final List<String> paths = new ArrayList<>(locations.length);
+		for(Location location: locations) {
+			if(null != location.getPath()) {
+				paths.add(location.getPath());
+			}
+		}
+		
+		return paths.toArray(new String[paths.size()]);
+	}
+	
+	/**
+	 * @return The locations including their other keys, e.g. `site`, or <code>null</code>
+	 */
+	public Location[] getLocationEntries() {
+		return locations;
+	}
+	
+	/**
+	 * @return The checksum or <code>null</code>
+	 */
+	public Checksum getChecksum() {
+		return checksum;
+	}
+	
+	/**
+	 * @return All keys that are not represented by a field. The values are parsed like gson parses an {@link Object}.
+	 */
+	public Map<String, Object> getExtras() {
+		return null == extras ? Collections.<String, Object>emptyMap() : extras;
+	}
+	
+	/**
+	 * @param key
+	 * @return The value of a key that is not represented by a field or <code>null</code>
+	 */
+	public Object getExtra(final String key) {
+		return null == extras ? null : extras.get(key);
+	}
+}
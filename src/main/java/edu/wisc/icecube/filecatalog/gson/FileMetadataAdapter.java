@@ -0,0 +1,295 @@
+package edu.wisc.icecube.filecatalog.gson;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Reads and writes {@link FileMetadata} directly from/to the JSON stream, without building an intermediate tree.
+ * 
+ * Locations and checksums keep the form they have in the catalog (a string or an object) and all their keys, so
+ * metadata that has been read can be written back without losing data, e.g. by
+ * {@link edu.wisc.icecube.filecatalog.Client#replace(String, Object)}. A `locations` or `checksum` of an unexpected type
+ * is kept in the extras.
+ * 
+ * An adapter can be restricted to a projection, i.e. to a set of keys. Other keys are skipped without being parsed.
+ * 
+ * <b>Example:</b>
+ * <pre>final Gson gson = new GsonBuilder()
+ * 		.registerTypeAdapter(FileMetadata.class, new FileMetadataAdapter())
+ * 		.create();</pre>
+ */
+public class FileMetadataAdapter extends TypeAdapter<FileMetadata> {
+	private static final TypeAdapter<Object> VALUES = new Gson().getAdapter(Object.class);
+	
+	private final Set<String> keys;
+	
+	/**
+	 * Creates an adapter that reads all keys.
+	 */
+	public FileMetadataAdapter() {
+		this.keys = null;
+	}
+	
+	/**
+	 * Creates an adapter that only reads the given keys.
+	 * 
+	 * @param keys The keys to read or <code>null</code> for all keys
+	 */
+	public FileMetadataAdapter(final Collection<String> keys) {
+		this.keys = null == keys ? null : new HashSet<>(keys);
+	}
+	
+	@Override
+	public FileMetadata read(final JsonReader in) throws IOException {
+		if(JsonToken.NULL == in.peek()) {
+			in.nextNull();
+			return null;
+		}
+		
+		String mongoId = null;
+		String uid = null;
+		long filesize = FileMetadata.UNKNOWN_FILESIZE;
+		Location[] locations = null;
+		Checksum checksum = null;
+		Map<String, Object> extras = null;
+		
+		in.beginObject();
+		
+		while(in.hasNext()) {
+			final String name = in.nextName();
+			
+			if(null != keys && !keys.contains(name)) {
+				in.skipValue();
+				continue;
+			}
+			
+			if(JsonToken.NULL == in.peek()) {
+				in.nextNull();
+				continue;
+			}
+			
+			switch(name) {
+				case "mongo_id":
+					mongoId = in.nextString();
+					break;
+					
+				case "uid":
+					uid = in.nextString();
+					break;
+					
+				case "filesize":
+					if(JsonToken.NUMBER == in.peek()) {
+						final String value = in.nextString();
+						
+						try {
+							filesize = Long.parseLong(value);
+						} catch(NumberFormatException e) {
+							// Not an integer, e.g. 1.5e3, keep it as gson parses it
+							if(null == extras) {
+								extras = new LinkedHashMap<>();
+							}
+							
+							extras.put(name, Double.valueOf(value));
+						}
+						break;
+					}
+					
+					// Keep it as it is
+					extras = putExtra(extras, name, in);
+					break;
+					
+				case "locations":
+					if(JsonToken.BEGIN_ARRAY == in.peek()) {
+						locations = readLocations(in);
+						break;
+					}
+					
+					// Keep it as it is
+					extras = putExtra(extras, name, in);
+					break;
+					
+				case "checksum":
+					if(JsonToken.BEGIN_OBJECT == in.peek() || JsonToken.STRING == in.peek()) {
+						checksum = readChecksum(in);
+						break;
+					}
+					
+					// Keep it as it is
+					extras = putExtra(extras, name, in);
+					break;
+					
+				default:
+					if(null == extras) {
+						extras = new LinkedHashMap<>();
+					}
+					
+					extras.put(name, VALUES.read(in));
+			}
+		}
+		
+		in.endObject();
+		
+		return new FileMetadata(mongoId, uid, filesize, locations, checksum, extras);
+	}
+	
+	private static Map<String, Object> putExtra(Map<String, Object> extras, final String name, final JsonReader in) throws IOException {
+		if(null == extras) {
+			extras = new LinkedHashMap<>();
+		}
+		
+		extras.put(name, VALUES.read(in));
+		return extras;
+	}
+	
+	/**
+	 * Reads the locations. Entries that are neither a string nor an object are skipped.
+	 */
+	private static Location[] readLocations(final JsonReader in) throws IOException {
+		final List<Location> locations = new ArrayList<>();
+		
+		in.beginArray();
+		
+		while(in.hasNext()) {
+			final JsonToken token = in.peek();
+			
+			if(JsonToken.BEGIN_OBJECT == token) {
+				String path = null;
+				Map<String, Object> others = null;
+				
+				in.beginObject();
+				while(in.hasNext()) {
+					final String name = in.nextName();
+					
+					if("path".equals(name) && JsonToken.STRING == in.peek()) {
+						path = in.nextString();
+					} else {
+						others = putExtra(others, name, in);
+					}
+				}
+				in.endObject();
+				
+				locations.add(new Location(path, others));
+			} else if(JsonToken.STRING == token) {
+				locations.add(new Location(in.nextString()));
+			} else {
+				in.skipValue();
+			}
+		}
+		
+		in.endArray();
+		
+		return locations.toArray(new Location[locations.size()]);
+	}
+	
+	/**
+	 * Reads a plain or an object checksum. Values that are not strings (e.g. a number) are kept as they are.
+	 */
+	private static Checksum readChecksum(final JsonReader in) throws IOException {
+		if(JsonToken.BEGIN_OBJECT != in.peek()) {
+			return new Checksum(in.nextString());
+		}
+		
+		String sha512 = null;
+		Map<String, Object> others = null;
+		
+		in.beginObject();
+		
+		while(in.hasNext()) {
+			final String algorithm = in.nextName();
+			
+			if("sha512".equals(algorithm) && JsonToken.STRING == in.peek()) {
+				sha512 = in.nextString();
+			} else {
+				// Keep it as it is, e.g. a number
+				others = putExtra(others, algorithm, in);
+			}
+		}
+		
+		in.endObject();
+		
+		return new Checksum(sha512, others);
+	}
+	
+	@Override
+	public void write(final JsonWriter out, final FileMetadata metadata) throws IOException {
+		if(null == metadata) {
+			out.nullValue();
+			return;
+		}
+		
+		out.beginObject();
+		
+		if(null != metadata.getMongoId()) {
+			out.name("mongo_id").value(metadata.getMongoId());
+		}
+		
+		if(null != metadata.getUid()) {
+			out.name("uid").value(metadata.getUid());
+		}
+		
+		if(FileMetadata.UNKNOWN_FILESIZE != metadata.getFilesize()) {
+			out.name("filesize").value(metadata.getFilesize());
+		}
+		
+		if(null != metadata.getLocationEntries()) {
+			out.name("locations").beginArray();
+			for(Location location: metadata.getLocationEntries()) {
+				if(location.isPlain()) {
+					out.value(location.getPath());
+					continue;
+				}
+				
+				out.beginObject();
+				
+				if(null != location.getPath()) {
+					out.name("path").value(location.getPath());
+				}
+				
+				for(Map.Entry<String, Object> other: location.getOthers().entrySet()) {
+					out.name(other.getKey());
+					VALUES.write(out, other.getValue());
+				}
+				
+				out.endObject();
+			}
+			out.endArray();
+		}
+		
+		final Checksum checksum = metadata.getChecksum();
+		if(null != checksum && checksum.isPlain()) {
+			out.name("checksum").value(checksum.getSha512());
+		} else if(null != checksum) {
+			out.name("checksum").beginObject();
+			
+			if(null != checksum.getSha512()) {
+				out.name("sha512").value(checksum.getSha512());
+			}
+			
+			for(Map.Entry<String, Object> other: checksum.getOthers().entrySet()) {
+				out.name(other.getKey());
+				VALUES.write(out, other.getValue());
+			}
+			
+			out.endObject();
+		}
+		
+		for(Map.Entry<String, Object> extra: metadata.getExtras().entrySet()) {
+			out.name(extra.getKey());
+			VALUES.write(out, extra.getValue());
+		}
+		
+		out.endObject();
+	}
+}
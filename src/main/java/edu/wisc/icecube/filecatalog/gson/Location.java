@@ -0,0 +1,81 @@
+package edu.wisc.icecube.filecatalog.gson;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An entry of the `locations` of a file. The file catalog stores either a plain path or an object
+ * with the `path` and further keys, e.g. <code>{"site": "WIPAC", "path": "/data/exp/file.dat"}</code>.
+ */
+public class Location {
+	private final String path;
+	private final Map<String, Object> others;
+	private final boolean plain;
+
+	/**
+	 * Creates a plain location.
+	 *
+	 * @param path
+	 */
+	public Location(final String path) {
+		this.path = path;
+		this.others = null;
+		this.plain = true;
+	}
+
+	/**
+	 * @param path The path or <code>null</code>
+	 * @param others All other keys of the location, e.g. `site`, or <code>null</code>
+	 */
+	public Location(final String path, final Map<String, Object> others) {
+		this.path = path;
+		this.others = null == others || others.isEmpty() ? null : others;
+		this.plain = false;
+	}
+
+	/**
+	 * @return The path or <code>null</code>
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return The `site` or <code>null</code>
+	 */
+	public String getSite() {
+		final Object site = get("site");
+		return null == site ? null : site.toString();
+	}
+
+	/**
+	 * @param key E.g. <code>site</code>
+	 * @return The value of the key or <code>null</code>. The values are parsed like gson parses an {@link Object}.
+	 */
+	public Object get(final String key) {
+		if("path".equals(key)) {
+			return path;
+		}
+
+		return null == others ? null : others.get(key);
+	}
+
+	/**
+	 * @return All keys other than `path`.
+	 */
+	public Map<String, Object> getOthers() {
+		return null == others ? Collections.<String, Object>emptyMap() : others;
+	}
+
+	/**
+	 * @return <code>true</code> if the location is a plain string instead of an object.
+	 */
+	public boolean isPlain() {
+		return plain;
+	}
+
+	@Override
+	public String toString() {
+		return plain ? path : "{path=" + path + (null == others ? "" : ", " + others) + "}";
+	}
+}
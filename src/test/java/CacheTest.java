@@ -0,0 +1,245 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.wisc.icecube.filecatalog.Cache;
+import edu.wisc.icecube.filecatalog.CacheStats;
+import edu.wisc.icecube.filecatalog.PersistentCache;
+
+public class CacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testMongoId() {
+		final Cache cache = new Cache();
+
+		cache.setMongoId("uid1", "m1");
+		cache.setMongoId("uid2", "m2");
+
+		assertEquals("m1", cache.getMongoId("uid1"));
+		assertTrue(cache.hasMongoId("uid2"));
+		assertNull(cache.getMongoId("uid3"));
+
+		cache.clearCacheByMongoId("m1");
+
+		assertFalse(cache.hasMongoId("uid1"));
+		assertEquals("m2", cache.getMongoId("uid2"));
+	}
+
+	@Test
+	public void testReverseIndex() {
+		final Cache cache = Cache.custom().setInitialCapacity(4).setMaxSize(4).build();
+
+		cache.setMongoId("uid1", "m1");
+		assertEquals("uid1", cache.getUid("m1"));
+
+		// Remap the uid
+		cache.setMongoId("uid1", "m2");
+		assertNull(cache.getUid("m1"));
+		assertEquals("uid1", cache.getUid("m2"));
+
+		// Deleting the old mongo_id does not touch the new mapping
+		cache.deleteMongoId("m1");
+		assertEquals("m2", cache.getMongoId("uid1"));
+
+		cache.deleteUid("uid1");
+		assertNull(cache.getUid("m2"));
+		assertFalse(cache.hasMongoId("uid1"));
+
+		// Evicted entries vanish from both sides
+		for(int i = 0; i < 10; ++i) {
+			cache.setMongoId("uid" + i, "m" + i);
+		}
+
+		assertNull(cache.getUid("m0"));
+		assertEquals("uid9", cache.getUid("m9"));
+	}
+
+	@Test
+	public void testEviction() {
+		final Cache cache = Cache.custom().setInitialCapacity(4).setMaxSize(4).build();
+
+		for(int i = 0; i < 100; ++i) {
+			cache.setMongoId("uid" + i, "m" + i);
+			cache.setEtag("m" + i, "e" + i);
+		}
+
+		final CacheStats stats = cache.getStats();
+
+		assertEquals(4, stats.getMongoIdSize());
+		assertEquals(4, stats.getEtagSize());
+		assertEquals(192, stats.getEvictions());
+
+		// The most recently used entry survives
+		assertEquals("m99", cache.getMongoId("uid99"));
+		assertNull(cache.getMongoId("uid0"));
+	}
+
+	@Test
+	public void testInitialCapacity() {
+		// Not the maximum size
+		final Cache cache = new Cache(4);
+
+		for(int i = 0; i < 100; ++i) {
+			cache.setMongoId("uid" + i, "m" + i);
+		}
+
+		assertEquals(100, cache.getStats().getMongoIdSize());
+		assertEquals(0, cache.getStats().getEvictions());
+	}
+
+	@Test
+	public void testEtagTtl() throws InterruptedException {
+		final Cache cache = Cache.custom().setMaxSize(100).setEtagTtl(20, TimeUnit.MILLISECONDS).build();
+
+		cache.setEtag("m1", "e1");
+		assertEquals("e1", cache.getEtag("m1"));
+
+		Thread.sleep(50);
+
+		assertFalse(cache.hasEtag("m1"));
+		assertNull(cache.getEtag("m1"));
+	}
+
+	@Test
+	public void testStats() {
+		final Cache cache = new Cache();
+
+		cache.setMongoId("uid1", "m1");
+		cache.setEtag("m1", "e1");
+
+		cache.getMongoId("uid1");
+		cache.getMongoId("uid2");
+		cache.getMongoId("uid3");
+		cache.getEtag("m1");
+		cache.getEtag("m2");
+
+		final CacheStats stats = cache.getStats();
+
+		assertEquals(1, stats.getMongoIdHits());
+		assertEquals(2, stats.getMongoIdMisses());
+		assertEquals(1, stats.getEtagHits());
+		assertEquals(1, stats.getEtagMisses());
+		assertEquals(1, stats.getMongoIdSize());
+	}
+
+	@Test
+	public void testConcurrentAccess() throws InterruptedException {
+		final Cache cache = Cache.custom().setInitialCapacity(100).setMaxSize(1000).build();
+		final Thread[] threads = new Thread[8];
+
+		for(int t = 0; t < threads.length; ++t) {
+			final int offset = t * 10000;
+
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int i = offset; i < offset + 10000; ++i) {
+						cache.setMongoId("uid" + i, "m" + i);
+						cache.getMongoId("uid" + (i - 1));
+						cache.clearCacheByMongoId("m" + (i - 2));
+					}
+				}
+			});
+			threads[t].start();
+		}
+
+		for(Thread t: threads) {
+			t.join();
+		}
+
+		assertTrue(cache.getStats().getMongoIdSize() <= 1000);
+	}
+
+	@Test
+	public void testPersistentCache() throws IOException {
+		final Path path = folder.getRoot().toPath().resolve("cache");
+
+		try(final PersistentCache cache = new PersistentCache(path, 4, 0, TimeUnit.MILLISECONDS)) {
+			// More entries than the initial index can hold
+			for(int i = 0; i < 5000; ++i) {
+				cache.setMongoId("uid" + i, "m" + i);
+				cache.setEtag("m" + i, "e" + i);
+			}
+
+			cache.setMongoId("uid1", "m1b");
+			cache.deleteUid("uid2");
+			cache.clearCacheByMongoId("m3");
+		}
+
+		try(final PersistentCache cache = new PersistentCache(path, 4, 0, TimeUnit.MILLISECONDS)) {
+			assertEquals("m0", cache.getMongoId("uid0"));
+			assertEquals("m4999", cache.getMongoId("uid4999"));
+			assertEquals("uid4999", cache.getUid("m4999"));
+			assertEquals("e4999", cache.getEtag("m4999"));
+
+			assertEquals("m1b", cache.getMongoId("uid1"));
+			assertNull(cache.getUid("m1"));
+			assertNull(cache.getMongoId("uid2"));
+			assertNull(cache.getMongoId("uid3"));
+			assertNull(cache.getEtag("m3"));
+			assertEquals("e2", cache.getEtag("m2"));
+
+			assertTrue(cache.getDiskHits() > 0);
+
+			cache.clear();
+			assertNull(cache.getMongoId("uid0"));
+		}
+
+		try(final PersistentCache cache = new PersistentCache(path)) {
+			assertFalse(cache.hasMongoId("uid0"));
+			assertFalse(cache.hasEtag("m4999"));
+		}
+	}
+	
+	@Test
+	public void testPersistentCacheCompaction() throws IOException {
+		final Path path = folder.getRoot().toPath().resolve("cache");
+
+		try(final PersistentCache cache = new PersistentCache(path, 4, 0, TimeUnit.MILLISECONDS)) {
+			for(int i = 0; i < 100; ++i) {
+				cache.setMongoId("uid" + i, "m" + i);
+				cache.setEtag("m" + i, "e" + i);
+			}
+
+			// Unchanged etags are not written again
+			final long size = cache.getDiskSize();
+			for(int i = 0; i < 100; ++i) {
+				cache.setEtag("m" + i, "e" + i);
+			}
+			assertEquals(size, cache.getDiskSize());
+
+			// Changed etags are, until the store is compacted automatically
+			final String padding = new String(new char[1000]).replace('\0', 'x');
+			long max = 0;
+
+			for(int round = 0; round < 3000; ++round) {
+				cache.setEtag("m" + (round % 100), "e" + round + padding);
+				cache.deleteEtag("m" + (round + 1) % 100);
+				max = Math.max(max, cache.getDiskSize());
+			}
+
+			assertTrue(max < 2 * 1024 * 1024 + 2 * 1024);
+			assertTrue(cache.getDiskSize() < max);
+
+			final long before = cache.getDiskSize();
+			cache.compact();
+			assertTrue(cache.getDiskSize() < before);
+		}
+
+		try(final PersistentCache cache = new PersistentCache(path, 4, 0, TimeUnit.MILLISECONDS)) {
+			assertEquals("m0", cache.getMongoId("uid0"));
+			assertEquals("uid99", cache.getUid("m99"));
+			assertEquals("e2998", cache.getEtag("m98").substring(0, 5));
+			assertEquals("e2999", cache.getEtag("m99").substring(0, 5));
+			assertNull(cache.getEtag("m0"));
+		}
+	}
+}
@@ -0,0 +1,109 @@
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import edu.wisc.icecube.filecatalog.ChecksumVerifier;
+import edu.wisc.icecube.filecatalog.ChecksumVerifier.Status;
+import edu.wisc.icecube.filecatalog.Client;
+import edu.wisc.icecube.filecatalog.FileCatalogStub;
+
+public class ChecksumVerifierTest {
+	private static FileCatalogStub stub;
+	private static Client client;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		stub = new FileCatalogStub(8890);
+		client = new Client("http://localhost", 8890);
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		client.close();
+		stub.close();
+	}
+
+	@Test
+	public void testVerify() throws Exception {
+		final Path root = folder.getRoot().toPath();
+
+		// Above and below the size that is memory-mapped
+		put(root, "small.dat", random(1000, 1), null);
+		put(root, "large.dat", random(ChecksumVerifier.BUFFER_SIZE + 12345, 2), null);
+		put(root, "empty.dat", new byte[0], null);
+
+		// Modified after it has been registered
+		put(root, "modified.dat", random(1000, 3), random(1000, 4));
+
+		// Registered, but deleted
+		put(root, "deleted.dat", random(10, 5), null);
+		Files.delete(root.resolve("deleted.dat"));
+
+		// Not a local file
+		final JsonObject remote = metadata("http://www.example.com/remote.dat", random(10, 6));
+		remote.addProperty("filesize", 10);
+		stub.put(remote);
+
+		final ChecksumVerifier.Report report = new ChecksumVerifier(client, root, 2).verify(null, 2);
+
+		assertEquals(3, report.getVerified());
+		assertEquals(1, report.count(Status.MISMATCH));
+		assertEquals(1, report.count(Status.MISSING));
+		assertEquals(0, report.count(Status.ERROR));
+		assertEquals(1, report.getSkipped());
+		assertEquals(2000 + ChecksumVerifier.BUFFER_SIZE + 12345, report.getBytes());
+		assertTrue(report.getProblems().stream().anyMatch(r -> Status.MISMATCH == r.getStatus() && r.getPath().endsWith("modified.dat")));
+	}
+
+	/**
+	 * Writes <code>content</code> and registers the file with the checksum of <code>registered</code>.
+	 */
+	private static void put(final Path root, final String name, final byte[] registered, final byte[] content) throws Exception {
+		Files.write(root.resolve(name), null == content ? registered : content);
+
+		final JsonObject md = metadata("/" + name, registered);
+		md.addProperty("filesize", registered.length);
+		stub.put(md);
+	}
+
+	private static JsonObject metadata(final String location, final byte[] content) throws Exception {
+		final JsonArray locations = new JsonArray();
+		locations.add(location);
+
+		final JsonObject checksum = new JsonObject();
+		final StringBuilder sha512 = new StringBuilder();
+		for(byte b: MessageDigest.getInstance("SHA-512").digest(content)) {
+			sha512.append(String.format("%02x", b));
+		}
+
+		checksum.addProperty("sha512", sha512.toString());
+
+		final JsonObject md = new JsonObject();
+		md.addProperty("uid", location);
+		md.add("locations", locations);
+		md.add("checksum", checksum);
+
+		return md;
+	}
+
+	private static byte[] random(int size, long seed) {
+		final byte[] bytes = new byte[size];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+}
@@ -2,31 +2,65 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.http.client.ClientProtocolException;
+import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.internal.LinkedTreeMap;
 
+import edu.wisc.icecube.filecatalog.AsyncClient;
+import edu.wisc.icecube.filecatalog.BulkResult;
 import edu.wisc.icecube.filecatalog.Client;
+import edu.wisc.icecube.filecatalog.ClientConfig;
 import edu.wisc.icecube.filecatalog.ClientException;
+import edu.wisc.icecube.filecatalog.ClientMetrics;
 import edu.wisc.icecube.filecatalog.Error;
+import edu.wisc.icecube.filecatalog.FileCatalogStub;
+import edu.wisc.icecube.filecatalog.FileListIterator;
+import edu.wisc.icecube.filecatalog.RecordingClientMetrics;
 import edu.wisc.icecube.filecatalog.Error.BadRequestError;
 import edu.wisc.icecube.filecatalog.Error.ConflictError;
 import edu.wisc.icecube.filecatalog.Error.NotFoundError;
+import edu.wisc.icecube.filecatalog.Error.PreconditionFailedError;
 import edu.wisc.icecube.filecatalog.gson.BasicMetaData;
 import edu.wisc.icecube.filecatalog.gson.Creation;
 import edu.wisc.icecube.filecatalog.gson.FileList;
+import edu.wisc.icecube.filecatalog.gson.FileMetadata;
+import edu.wisc.icecube.filecatalog.gson.FileMetadataAdapter;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class ClientTest {
+	private static FileCatalogStub stub;
 	private static Client client;
 	private static String metadata;
 	private static String metadataReplica;
@@ -41,6 +75,13 @@ public class ClientTest {
 	
 	@BeforeClass
 	public static void setUpBeforeClass() throws Exception {
+		// Use a live file_catalog server on port 8888 if there is one, the stub otherwise
+		try {
+			new Socket("localhost", 8888).close();
+		} catch(ConnectException e) {
+			stub = new FileCatalogStub(8888);
+		}
+		
 		client = new Client("http://localhost", 8888);
 		
 		gson = new Gson();
@@ -68,6 +109,15 @@ public class ClientTest {
 		replaceBadMetadata = replaceBadMetadata.replace('\'', '"');
 	}
 
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		client.close();
+		
+		if(null != stub) {
+			stub.close();
+		}
+	}
+
 	@Test
 	public void testCreate1() throws Error, ClientProtocolException, IOException, URISyntaxException {
 		final Creation creation = client.create(metadata);
@@ -93,6 +143,64 @@ public class ClientTest {
 		assertEquals(mongoId, Client.getMongoIdFromPath(creation.getFile()));
 	}
 	
+	@Test
+	public void testZCreate4All() throws Exception {
+		final Map<String, Object> map = new HashMap<>();
+		map.put("uid", uid + "_map");
+		map.put("locations", Arrays.asList("/path/to/map.dat"));
+		map.put("checksum", getFakeSHA512(43));
+		
+		final String json = ("{'uid': '" + uid + "_json', 'locations': ['/path/to/json.dat'], 'checksum': '" + getFakeSHA512(44) + "'}").replace('\'', '"');
+		
+		final BulkResult<Creation> result = client.createAll(Arrays.asList(json, map, updateBadMetadata), 2);
+		
+		assertEquals(3, result.size());
+		assertEquals(2, result.getSucceeded());
+		assertEquals(BadRequestError.class, result.getItems().get(2).getError().getClass());
+		
+		assertEquals(Client.getMongoIdFromPath(result.getItems().get(1).getResult().getFile()), client.getCache().getMongoId(uid + "_map"));
+		
+		client.deleteByUids(Arrays.asList(uid + "_json", uid + "_map"));
+	}
+	
+	@Test
+	public void testZCreate5Streaming() throws Exception {
+		final Map<String, Object> map = new HashMap<>();
+		map.put("uid", uid + "_stream_map");
+		map.put("locations", Arrays.asList("/path/to/stream.dat"));
+		map.put("checksum", getFakeSHA512(45));
+		
+		final Creation fromMap = client.create(map);
+		assertEquals(Client.getMongoIdFromPath(fromMap.getFile()), client.getCache().getMongoId(uid + "_stream_map"));
+		
+		final Creation fromWriter = client.create(writer -> {
+			writer.beginObject();
+			writer.name("checksum").value(getFakeSHA512(46));
+			writer.name("locations").beginArray();
+			for(int i = 0; i < 1000; ++i) {
+				writer.value("/path/to/stream-" + i + ".dat");
+			}
+			writer.endArray();
+			writer.name("uid").value(uid + "_stream_writer");
+			writer.endObject();
+		});
+		final String mongoId = Client.getMongoIdFromPath(fromWriter.getFile());
+		assertEquals(mongoId, client.getCache().getMongoId(uid + "_stream_writer"));
+		assertEquals(1000, ((List<?>) client.get(mongoId).get("locations")).size());
+		
+		assertEquals(true, client.update(mongoId, Collections.singletonMap("backup", true)).get("backup"));
+		
+		final LinkedTreeMap<?, ?> replaced = client.replace(mongoId, writer -> {
+			writer.beginObject();
+			writer.name("checksum").value(getFakeSHA512(46));
+			writer.name("locations").beginArray().value("/path/to/replaced.dat").endArray();
+			writer.endObject();
+		});
+		assertEquals(Arrays.asList("/path/to/replaced.dat"), replaced.get("locations"));
+		
+		client.deleteByUids(Arrays.asList(uid + "_stream_map", uid + "_stream_writer"));
+	}
+	
 	@Test
 	public void testGetList1() throws Error, ClientProtocolException, IOException, URISyntaxException {
 		final FileList list = client.getList();
@@ -144,6 +252,63 @@ public class ClientTest {
 		assertEquals(1, list.getFiles().length);
 	}
 	
+	@Test
+	public void testGetList2Iterate() throws Exception {
+		final FileList list = client.getList();
+		
+		// Walk the same list with tiny pages
+		try(final FileListIterator it = client.iterate(null, 1)) {
+			for(BasicMetaData md: list.getEmbedded().getFiles()) {
+				assertTrue(it.hasNext());
+				assertEquals(md.getMongoId(), it.next().getMongoId());
+			}
+			
+			assertFalse(it.hasNext());
+		}
+		
+		assertEquals(1, client.stream(("{'uid': '" + uid + "'}").replace('\'', '"'), 10).count());
+	}
+	
+	@Test
+	public void testGetList2Keyset() throws Exception {
+		final FileList list = client.getList();
+		final String query = ("{'uid': '" + uid + "'}").replace('\'', '"');
+		
+		try(final Client c = new Client("http://localhost", 8888, ClientConfig.custom().setKeysetPagination(true).build())) {
+			try(final FileListIterator it = c.iterate(null, 1)) {
+				for(BasicMetaData md: list.getEmbedded().getFiles()) {
+					assertTrue(it.hasNext());
+					assertEquals(md.getMongoId(), it.next().getMongoId());
+				}
+				
+				assertFalse(it.hasNext());
+			}
+			
+			assertEquals(1, c.stream(query, 10).count());
+			assertEquals(1, c.getListAfter(query, 10, null).getFiles().length);
+			assertEquals(0, c.getListAfter(query, 10, mongoId).getFiles().length);
+			assertEquals(mongoId, c.resolveMongoIds(Arrays.asList(uid)).get(uid));
+		}
+	}
+	
+	@Test
+	public void testGetList2Parallel() throws Exception {
+		final Set<String> expected = new HashSet<>();
+		for(BasicMetaData md: client.getList().getEmbedded().getFiles()) {
+			expected.add(md.getMongoId());
+		}
+		
+		final List<String> partitions = Client.mongoIdRanges(mongoId);
+		
+		try(final Stream<FileMetadata> stream = client.parallelStream(null, 1, partitions)) {
+			assertEquals(expected, stream.map(FileMetadata::getMongoId).collect(Collectors.toSet()));
+		}
+		
+		final Set<String> scanned = ConcurrentHashMap.newKeySet();
+		assertEquals(expected.size(), client.scan(null, 1, partitions, 2, md -> scanned.add(md.getMongoId())));
+		assertEquals(expected, scanned);
+	}
+	
 	@Test(expected = BadRequestError.class)
 	public void testGetList3() throws Error, ClientProtocolException, IOException, URISyntaxException {
 		client.getList(-1, null);
@@ -189,6 +354,281 @@ public class ClientTest {
 		client.get("000000000000000000000000");
 	}
 	
+	@Test
+	public void testGet4WithoutStackTrace() throws Exception {
+		try(final Client c = new Client("http://localhost", 8888, ClientConfig.custom().setErrorStackTraces(false).build())) {
+			c.get("000000000000000000000000");
+			fail();
+		} catch(NotFoundError e) {
+			assertEquals(404, e.getStatusCode());
+			assertEquals(0, e.getStackTrace().length);
+		}
+		
+		assertTrue(Error.errorFactory(412, "", false) instanceof PreconditionFailedError);
+		assertTrue(Error.errorFactory(409, "") instanceof ConflictError);
+		assertTrue(Error.errorFactory(409, "").getStackTrace().length > 0);
+		assertEquals(Error.class, Error.errorFactory(418, "").getClass());
+		assertEquals(Error.class, Error.errorFactory(1000, "").getClass());
+	}
+	
+	@Test
+	public void testGet4Metrics() throws Exception {
+		final RecordingClientMetrics metrics = new RecordingClientMetrics();
+		
+		try(final Client c = new Client("http://localhost", 8888, ClientConfig.custom().setMetrics(metrics).build())) {
+			c.getByUid(uid);
+			c.getByUid(uid);
+			
+			try {
+				c.get("000000000000000000000000");
+				fail();
+			} catch(NotFoundError e) {
+			}
+		}
+		
+		assertEquals(1, metrics.getLatency(ClientMetrics.Operation.GET_LIST).getCount());
+		assertEquals(3, metrics.getLatency(ClientMetrics.Operation.GET).getCount());
+		assertEquals(Long.valueOf(2), metrics.getStatusCodes(ClientMetrics.Operation.GET).get(200));
+		assertEquals(Long.valueOf(1), metrics.getErrors(ClientMetrics.Operation.GET).get(NotFoundError.class));
+		assertTrue(metrics.getBytes(ClientMetrics.Operation.GET) > 0);
+		assertEquals(1, metrics.getCacheHits(ClientMetrics.Lookup.MONGO_ID));
+		assertEquals(1, metrics.getCacheMisses(ClientMetrics.Lookup.MONGO_ID));
+		assertEquals(4, metrics.getLeaseWait().getCount());
+	}
+	
+	@Test
+	public void testGet5Async() throws Exception {
+		try(final AsyncClient asyncClient = new AsyncClient(new URI("http://localhost:8888"), ClientConfig.DEFAULT, client.getCache())) {
+			final LinkedTreeMap<?, ?> result = asyncClient.getByUid(uid).get();
+			
+			assertEquals(mongoId, result.get("mongo_id"));
+			assertEquals(client.getByUid(uid).get("uid"), result.get("uid"));
+			
+			// Invalid arguments fail the future instead of throwing
+			assertTrue(asyncClient.create((String) null).isCompletedExceptionally());
+			assertTrue(asyncClient.update(mongoId, "").isCompletedExceptionally());
+			assertTrue(asyncClient.delete("").isCompletedExceptionally());
+		}
+	}
+	
+	@Test
+	public void testGet5AsyncPipelining() throws Exception {
+		final ClientConfig config = ClientConfig.custom().setPipelineDepth(8).setMaxPerRoute(2).build();
+		
+		try(final AsyncClient asyncClient = new AsyncClient(new URI("http://localhost:8888"), config)) {
+			final List<CompletableFuture<LinkedTreeMap<?, ?>>> results = new ArrayList<>();
+			
+			for(int i = 0; i < 50; i++) {
+				results.add(asyncClient.get(mongoId));
+			}
+			
+			final CompletableFuture<LinkedTreeMap<?, ?>> notFound = asyncClient.get("000000000000000000000000");
+			
+			for(final CompletableFuture<LinkedTreeMap<?, ?>> result : results) {
+				assertEquals(uid, result.get().get("uid"));
+			}
+			
+			// Not pipelined, but sent over the same client
+			final String locations = "{\"locations\": " + new Gson().toJson(results.get(0).get().get("locations")) + "}";
+			assertEquals(uid, asyncClient.update(mongoId, locations).get().get("uid"));
+			
+			try {
+				notFound.get();
+				fail();
+			} catch(ExecutionException e) {
+				assertTrue(e.getCause() instanceof NotFoundError);
+			}
+		}
+	}
+	
+	@Test
+	public void testGet6Resolve() throws Exception {
+		try(final Client c = new Client("http://localhost", 8888, ClientConfig.custom().setResolveChunkSize(1).build())) {
+			final Map<String, String> mongoIds = c.resolveMongoIds(Arrays.asList(uid + "does not exist", uid, uid));
+			
+			assertEquals(1, mongoIds.size());
+			assertEquals(mongoId, mongoIds.get(uid));
+			
+			assertEquals(uid, c.getByUids(Arrays.asList(uid)).get(uid).get("uid"));
+		}
+	}
+	
+	@Test
+	public void testGet6ResolveAsync() throws Exception {
+		final ClientConfig config = ClientConfig.custom().setResolveChunkSize(2).build();
+		
+		try(final AsyncClient asyncClient = new AsyncClient(new URI("http://localhost:8888"), config)) {
+			final Map<String, String> mongoIds = asyncClient.resolveMongoIds(Arrays.asList(uid + "does not exist", uid, uid)).get();
+			
+			assertEquals(1, mongoIds.size());
+			assertEquals(mongoId, mongoIds.get(uid));
+			
+			try {
+				asyncClient.getByUid(uid + "does not exist").get();
+				fail();
+			} catch(ExecutionException e) {
+				assertTrue(e.getCause() instanceof ClientException);
+			}
+		}
+		
+		// Pages by the last mongo_id
+		try(final AsyncClient asyncClient = new AsyncClient(new URI("http://localhost:8888"), ClientConfig.copy(config).setKeysetPagination(true).build())) {
+			final Map<String, String> mongoIds = asyncClient.resolveMongoIds(Arrays.asList(uid + "does not exist", uid)).get();
+			
+			assertEquals(1, mongoIds.size());
+			assertEquals(mongoId, mongoIds.get(uid));
+		}
+	}
+	
+	@Test
+	public void testGet7Typed() throws Exception {
+		final FileMetadata result = client.getByUid(uid, FileMetadata.class);
+		final LinkedTreeMap<?, ?> expectation = client.getByUid(uid);
+		
+		assertEquals(mongoId, result.getMongoId());
+		assertEquals(uid, result.getUid());
+		assertArrayEquals(((List<?>) expectation.get("locations")).toArray(), result.getLocations());
+		assertEquals(expectation.get("checksum"), result.getChecksum().getSha512());
+		assertEquals(FileMetadata.UNKNOWN_FILESIZE, result.getFilesize());
+		assertEquals(expectation.get("meta_modify_date"), result.getExtra("meta_modify_date"));
+		
+		// Written back, it is the same JSON
+		final Gson typed = new GsonBuilder().registerTypeAdapter(FileMetadata.class, new FileMetadataAdapter()).create();
+		assertEquals(expectation, gson.fromJson(typed.toJson(result), Object.class));
+	}
+	
+	@Test
+	public void testGet7TypedStructured() throws Exception {
+		final String json = ("{'uid': 'x', 'locations': ['/a.dat', {'site': 'WIPAC', 'path': '/b.dat', 'online': true}, {'site': 'DESY'}],"
+				+ " 'checksum': {'sha512': 'abc', 'md5': null, 'crc': 42}}").replace('\'', '"');
+		final Gson typed = new GsonBuilder().registerTypeAdapter(FileMetadata.class, new FileMetadataAdapter()).create();
+		
+		final FileMetadata result = typed.fromJson(json, FileMetadata.class);
+		
+		assertArrayEquals(new String[] {"/a.dat", "/b.dat"}, result.getLocations());
+		assertEquals(3, result.getLocationEntries().length);
+		assertEquals("WIPAC", result.getLocationEntries()[1].getSite());
+		assertEquals(true, result.getLocationEntries()[1].get("online"));
+		assertEquals("DESY", result.getLocationEntries()[2].getSite());
+		
+		// Values that are not strings are kept
+		assertEquals("abc", result.getChecksum().getSha512());
+		assertEquals(42.0, result.getChecksum().getOthers().get("crc"));
+		assertNull(result.getChecksum().get("crc"));
+		
+		// The locations and the checksum survive a round trip
+		final Map<?, ?> written = gson.fromJson(typed.toJson(result), Map.class);
+		assertEquals(((Map<?, ?>) gson.fromJson(json, Map.class)).get("locations"), written.get("locations"));
+		assertEquals(42.0, ((Map<?, ?>) written.get("checksum")).get("crc"));
+		
+		// A filesize that is not an integer is kept as extra
+		final FileMetadata fractional = typed.fromJson("{\"uid\": \"a\", \"filesize\": 1.5e3}", FileMetadata.class);
+		assertEquals(FileMetadata.UNKNOWN_FILESIZE, fractional.getFilesize());
+		assertEquals(1500.0, fractional.getExtra("filesize"));
+		
+		final FileMetadata text = typed.fromJson("{\"uid\": \"a\", \"filesize\": \"big\"}", FileMetadata.class);
+		assertEquals(FileMetadata.UNKNOWN_FILESIZE, text.getFilesize());
+		assertEquals("big", text.getExtra("filesize"));
+	}
+	
+	@Test
+	public void testGet8Projection() throws Exception {
+		final FileMetadata result = client.get(mongoId, FileMetadata.class, "checksum");
+		
+		assertEquals(uid, result.getUid());
+		assertEquals(getFakeSHA512(42), result.getChecksum().getSha512());
+		assertNull(result.getLocations());
+		assertTrue(result.getExtras().isEmpty());
+		
+		final FileList list = client.getList(("{'uid': '" + uid + "'}").replace('\'', '"'), null, null, "locations");
+		
+		assertEquals(1, list.getEmbedded().getFiles().length);
+		assertEquals(mongoId, list.getEmbedded().getFiles()[0].getMongoId());
+		assertArrayEquals(new String[] {"/path/to/file.dat"}, list.getEmbedded().getFiles()[0].getLocations());
+		assertNull(list.getEmbedded().getFiles()[0].getChecksum());
+	}
+	
+	@Test
+	public void testGet9Coalesce() throws Exception {
+		final int threads = 8;
+		
+		if(null != stub) {
+			stub.setLatency(200);
+		}
+		
+		try(final Client c = new Client("http://localhost", 8888)) {
+			final ExecutorService executor = Executors.newFixedThreadPool(threads);
+			final CountDownLatch start = new CountDownLatch(1);
+			final List<Future<LinkedTreeMap<?, ?>>> results = new ArrayList<>();
+			final long requests = null == stub ? 0 : stub.getRequestCount();
+			
+			for(int i = 0; i < threads; i++) {
+				final boolean byUid = i % 2 == 0;
+				results.add(executor.submit(() -> {
+					start.await();
+					return byUid ? c.getByUid(uid) : c.get(mongoId);
+				}));
+			}
+			
+			start.countDown();
+			
+			// Equal, but not shared
+			final LinkedTreeMap<?, ?> first = results.get(0).get();
+			for(int i = 1; i < threads; i++) {
+				assertEquals(first, results.get(i).get());
+				assertNotSame(first, results.get(i).get());
+			}
+			
+			executor.shutdown();
+			
+			if(null != stub) {
+				assertTrue(c.getCoalescedRequests() > 0);
+				assertTrue(stub.getRequestCount() - requests < threads);
+			}
+		} finally {
+			if(null != stub) {
+				stub.setLatency(0);
+			}
+		}
+	}
+	
+	@Test
+	public void testJoinURIs() throws Exception {
+		final String[] bases = {"http://localhost:8888/api", "http://localhost:8888/api/", "https://user@example.com/x%20y"};
+		final String[] ids = {"57fd49163a7d4957ca064089", "bad mongo_id", "a/b", "%2F", "_-.*", "\u00e4"};
+		
+		for(final String base : bases) {
+			assertEquals(legacyJoinURIs(new URI(base), "files", "/x/", "y"), Client.joinURIs(new URI(base), "files", "/x/", "y").toString());
+			
+			final URI files = Client.joinURIs(new URI(base), "files");
+			for(final String id : ids) {
+				assertEquals(legacyJoinURIs(files, URLEncoder.encode(id, "UTF-8")), Client.fileUri(files, id).toString());
+			}
+		}
+	}
+	
+	/**
+	 * The original implementation of {@link Client#joinURIs(URI, String...)}
+	 */
+	private static String legacyJoinURIs(final URI base, final String... uris) throws URISyntaxException {
+		URI uri = base;
+		
+		for(String u: uris) {
+			final char lastChar = uri.toString().charAt(uri.toString().length() - 1);
+			final char firstChar = u.charAt(0);
+			
+			if(lastChar != '/' && firstChar != '/') {
+				uri = new URI(uri.toString() + "/" + u);
+			} else if(lastChar == '/' && firstChar == '/') {
+				uri = new URI(uri.toString() + u.substring(1));
+			} else {
+				uri = new URI(uri.toString() + u);
+			}
+		}
+		
+		return uri.toString();
+	}
+	
 	@SuppressWarnings("unchecked")
 	@Test
 	public void testUpdate1() throws Error, ClientProtocolException, UnsupportedEncodingException, ClientException, IOException, URISyntaxException {
@@ -210,6 +650,92 @@ public class ClientTest {
 		client.updateByUid(uid, updateBadMetadata);
 	}
 	
+	@Test
+	public void testUpdate3BodyCache() throws Exception {
+		try(final Client c = new Client("http://localhost", 8888, ClientConfig.custom().setBodyCacheEntries(10).build())) {
+			final LinkedTreeMap<?, ?> first = c.get(mongoId);
+			
+			// Not modified
+			assertEquals(first, c.get(mongoId));
+			assertEquals(1, c.getBodyCacheHits());
+			
+			// Modified by this client
+			c.update(mongoId, "{\"backup\": false}");
+			assertEquals(false, c.get(mongoId).get("backup"));
+			assertEquals(false, c.get(mongoId).get("backup"));
+			assertEquals(2, c.getBodyCacheHits());
+			
+			// Modified by another client
+			client.update(mongoId, updateMetadata, true);
+			assertEquals(true, c.get(mongoId).get("backup"));
+			assertEquals(2, c.getBodyCacheHits());
+		}
+	}
+	
+	@Test
+	public void testUpdate4Optimistic() throws Exception {
+		try(final Client c = new Client("http://localhost", 8888, ClientConfig.custom().setOptimisticUpdates(true).build())) {
+			final int requests = null == stub ? 0 : stub.getRequestCount();
+			
+			// No etag: the update is rejected with the current etag and sent again
+			assertEquals(false, c.update(mongoId, "{\"backup\": false}").get("backup"));
+			
+			// Cached etag, even though the cache should be cleared
+			assertEquals(true, c.update(mongoId, updateMetadata, true).get("backup"));
+			
+			if(null != stub) {
+				assertEquals(3, stub.getRequestCount() - requests);
+			}
+			
+			// Stale etag
+			client.update(mongoId, "{\"backup\": false}", true);
+			assertEquals(true, c.update(mongoId, updateMetadata).get("backup"));
+			
+			// The etag of the other client is stale now
+			client.get(mongoId);
+		}
+	}
+	
+	@Test
+	public void testUpdate5All() throws Exception {
+		final String sweep = uid + "_sweep";
+		final List<String> uids = new ArrayList<>();
+		
+		for(int i = 0; i < 4; i++) {
+			final Map<String, Object> map = new HashMap<>();
+			map.put("uid", sweep + i);
+			map.put("locations", Arrays.asList("/path/to/sweep" + i + ".dat"));
+			map.put("checksum", getFakeSHA512(50 + i));
+			map.put("sweep", sweep);
+			
+			client.create(map);
+			uids.add(sweep + i);
+		}
+		
+		final RecordingClientMetrics metrics = new RecordingClientMetrics();
+		
+		// Fresh cache, the etags come from the listing
+		try(final Client c = new Client("http://localhost", 8888, ClientConfig.custom().setMetrics(metrics).build())) {
+			final int requests = null == stub ? 0 : stub.getRequestCount();
+			final String query = "{\"sweep\": \"" + sweep + "\"}";
+			
+			assertEquals(4, c.updateAll(query, 2, "{\"backup\": true}"));
+			
+			if(null != stub) {
+				// One per file plus one per page
+				assertEquals(4 + 3, stub.getRequestCount() - requests);
+				assertEquals(4, metrics.getCacheHits(ClientMetrics.Lookup.LISTED_ETAG));
+				assertEquals(0, metrics.getCacheMisses(ClientMetrics.Lookup.LISTED_ETAG));
+			}
+			
+			for(LinkedTreeMap<?, ?> file: c.getByUids(uids).values()) {
+				assertEquals(true, file.get("backup"));
+			}
+		}
+		
+		client.deleteByUids(uids);
+	}
+	
 	@SuppressWarnings("unchecked")
 	@Test
 	public void testYReplace1() throws Error, ClientProtocolException, UnsupportedEncodingException, ClientException, IOException, URISyntaxException {
@@ -0,0 +1,67 @@
+import static org.junit.Assert.*;
+
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.junit.Test;
+
+import edu.wisc.icecube.filecatalog.ClientMetrics.Operation;
+import edu.wisc.icecube.filecatalog.Error.NotFoundError;
+import edu.wisc.icecube.filecatalog.RecordingClientMetrics;
+import edu.wisc.icecube.filecatalog.RecordingClientMetrics.Histogram;
+
+public class RecordingClientMetricsTest {
+	@Test
+	public void testOperation() {
+		assertEquals(Operation.GET_LIST, Operation.of(new HttpGet("http://localhost/api/files")));
+		assertEquals(Operation.GET_LIST, Operation.of(new HttpGet("http://localhost/api/files?query=%7B%7D&limit=10")));
+		assertEquals(Operation.GET, Operation.of(new HttpGet("http://localhost/api/files/1")));
+		assertEquals(Operation.GET, Operation.of(new HttpGet("http://localhost/api/files/1?keys=uid")));
+		assertEquals(Operation.CREATE, Operation.of(new HttpPost("http://localhost/api/files")));
+		assertEquals(Operation.UPDATE, Operation.of(new HttpPatch("http://localhost/api/files/1")));
+		assertEquals(Operation.REPLACE, Operation.of(new HttpPut("http://localhost/api/files/1")));
+		assertEquals(Operation.DELETE, Operation.of(new HttpDelete("http://localhost/api/files/1")));
+	}
+
+	@Test
+	public void testHistogram() {
+		final Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getPercentile(0.99));
+
+		for(long i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMax());
+		assertEquals(500500, histogram.getMean(), 0.001);
+
+		// At most 25% above the true value
+		assertTrue(histogram.getPercentile(0.5) >= 500000);
+		assertTrue(histogram.getPercentile(0.5) <= 625000);
+		assertTrue(histogram.getPercentile(0.99) >= 990000);
+		assertEquals(1000000, histogram.getPercentile(1));
+
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, histogram.getPercentile(1));
+	}
+
+	@Test
+	public void testRecord() {
+		final RecordingClientMetrics metrics = new RecordingClientMetrics();
+
+		metrics.onResponse(Operation.GET, 200, 1000, 42);
+		metrics.onResponse(Operation.GET, 404, 2000, 10);
+		metrics.onError(Operation.GET, new NotFoundError(""));
+		metrics.onRetry(Operation.UPDATE, 1);
+
+		assertEquals(2, metrics.getLatency(Operation.GET).getCount());
+		assertEquals(52, metrics.getBytes(Operation.GET));
+		assertEquals(Long.valueOf(1), metrics.getStatusCodes(Operation.GET).get(404));
+		assertEquals(Long.valueOf(1), metrics.getErrors(Operation.GET).get(NotFoundError.class));
+		assertEquals(1, metrics.getRetries(Operation.UPDATE));
+		assertEquals(0, metrics.getLatency(Operation.DELETE).getCount());
+	}
+}
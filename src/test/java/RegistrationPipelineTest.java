@@ -0,0 +1,102 @@
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.wisc.icecube.filecatalog.ChecksumVerifier;
+import edu.wisc.icecube.filecatalog.Client;
+import edu.wisc.icecube.filecatalog.FileCatalogStub;
+import edu.wisc.icecube.filecatalog.RegistrationPipeline;
+import edu.wisc.icecube.filecatalog.RegistrationPipeline.Stage;
+
+public class RegistrationPipelineTest {
+	private static FileCatalogStub stub;
+	private static Client client;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		stub = new FileCatalogStub(8893);
+		client = new Client("http://localhost", 8893);
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		client.close();
+		stub.close();
+	}
+
+	@Test
+	public void testRun() throws Exception {
+		final Path data = folder.newFolder("data").toPath();
+		final Path checkpoint = folder.getRoot().toPath().resolve("checkpoint");
+		final Random random = new Random(42);
+
+		for(int i = 0; i < 20; ++i) {
+			final Path directory = data.resolve("run-" + i % 3).resolve("sub-" + i % 2);
+			Files.createDirectories(directory);
+
+			final byte[] content = new byte[random.nextInt(10000)];
+			random.nextBytes(content);
+			Files.write(directory.resolve("file-" + i + ".dat"), content);
+		}
+
+		final RegistrationPipeline pipeline = RegistrationPipeline.custom(client)
+				.setHashThreads(2)
+				.setSubmitThreads(3)
+				.setQueueCapacity(2)
+				.setCheckpoint(checkpoint)
+				.build();
+
+		final RegistrationPipeline.Report first = pipeline.run(data);
+
+		assertEquals(20, first.getWalked());
+		assertEquals(20, first.getCreated());
+		assertEquals(20, first.getStage(Stage.HASH).getItems());
+		assertTrue(first.getFailures().isEmpty());
+
+		// The registered checksums match the files
+		final ChecksumVerifier.Report verified = new ChecksumVerifier(client, null, 2).verify(null, 5);
+		assertEquals(20, verified.getVerified());
+		assertTrue(verified.getProblems().isEmpty());
+
+		// The second run resumes from the checkpoint and only hashes the modified file
+		Files.write(data.resolve("run-0").resolve("sub-0").resolve("file-0.dat"), new byte[] {1, 2, 3});
+
+		final RegistrationPipeline.Report second = pipeline.run(data);
+
+		assertEquals(20, second.getWalked());
+		assertEquals(19, second.getSkipped());
+		assertEquals(1, second.getStage(Stage.HASH).getItems());
+		assertEquals(0, second.getCreated());
+
+		// The catalog still has the old checksum, so the modified file is a failure and not checkpointed
+		assertTrue(second.getConflicts().isEmpty());
+		assertEquals(1, second.getFailures().size());
+		assertTrue(second.getFailures().containsKey(data.resolve("run-0").resolve("sub-0").resolve("file-0.dat")));
+
+		final RegistrationPipeline.Report third = pipeline.run(data);
+
+		assertEquals(19, third.getSkipped());
+		assertEquals(1, third.getStage(Stage.HASH).getItems());
+		assertEquals(1, third.getFailures().size());
+
+		// Without the checkpoint, the unmodified files conflict with matching entries and are checkpointed again
+		Files.delete(checkpoint);
+
+		final RegistrationPipeline.Report fourth = pipeline.run(data);
+
+		assertEquals(19, fourth.getConflicts().size());
+		assertEquals(1, fourth.getFailures().size());
+		assertEquals(19, pipeline.run(data).getSkipped());
+	}
+}
@@ -0,0 +1,72 @@
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicHeader;
+import org.junit.Test;
+
+import edu.wisc.icecube.filecatalog.Error;
+import edu.wisc.icecube.filecatalog.Error.NotFoundError;
+import edu.wisc.icecube.filecatalog.Error.TooManyRequestsError;
+import edu.wisc.icecube.filecatalog.RateLimiter;
+import edu.wisc.icecube.filecatalog.RetryPolicy;
+
+public class RetryPolicyTest {
+	@Test
+	public void testRetryable() {
+		final RetryPolicy policy = new RetryPolicy(2, 100, 1000, TimeUnit.MILLISECONDS);
+		final Error overload = new TooManyRequestsError("");
+
+		assertTrue(policy.isRetryable(new HttpGet("http://localhost/api/files"), overload, 1));
+		assertFalse(policy.isRetryable(new HttpGet("http://localhost/api/files"), overload, 2));
+		assertFalse(policy.isRetryable(new HttpGet("http://localhost/api/files"), new NotFoundError(""), 0));
+		assertFalse(policy.isRetryable(new HttpPost("http://localhost/api/files"), overload, 0));
+
+		// PATCH only if guarded by an etag
+		final HttpPatch patch = new HttpPatch("http://localhost/api/files/1");
+		assertFalse(policy.isRetryable(patch, overload, 0));
+
+		patch.addHeader("If-None-Match", "etag");
+		assertTrue(policy.isRetryable(patch, overload, 0));
+	}
+
+	@Test
+	public void testDelay() {
+		final RetryPolicy policy = new RetryPolicy(10, 100, 1000, TimeUnit.MILLISECONDS);
+
+		for(int i = 0; i < 100; ++i) {
+			final long first = policy.getDelay(0, -1);
+			assertTrue(first >= 50 && first <= 100);
+
+			final long capped = policy.getDelay(8, -1);
+			assertTrue(capped >= 500 && capped <= 1000);
+		}
+
+		// Retry-After wins
+		assertEquals(5000, policy.getDelay(0, 5000));
+		assertEquals(2000, RetryPolicy.parseRetryAfter(new BasicHeader("Retry-After", "2")));
+		assertEquals(-1, RetryPolicy.parseRetryAfter(null));
+	}
+
+	@Test
+	public void testRateLimiter() {
+		final RateLimiter limiter = new RateLimiter(100, 1, 1000, 10, 0.5, 1);
+
+		// The first token is available, the next one in 10 ms
+		assertEquals(0, limiter.reserve());
+		assertTrue(limiter.reserve() > TimeUnit.MILLISECONDS.toNanos(5));
+
+		limiter.onError(new TooManyRequestsError(""));
+		assertEquals(50, limiter.getRate(), 0.001);
+
+		// Decreased at most once per second
+		limiter.onError(new TooManyRequestsError(""));
+		assertEquals(50, limiter.getRate(), 0.001);
+
+		limiter.onSuccess();
+		assertEquals(50.2, limiter.getRate(), 0.001);
+	}
+}
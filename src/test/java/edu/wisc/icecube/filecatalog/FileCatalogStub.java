@@ -0,0 +1,610 @@
+package edu.wisc.icecube.filecatalog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the file_catalog REST API. It implements the subset of the
+ * server that {@link Client} talks to (listing with `query`/`limit`/`start`/`keys`,
+ * create, get, update, replace and delete including the etag handling) on top of the
+ * JDK's built-in HTTP server, so that tests and benchmarks can run without a live
+ * catalog and without MongoDB.
+ *
+ * <b>Note:</b> Only the query operators the client uses are supported: equality,
+ * `$in`, `$gt`, `$gte`, `$lt`, `$lte`, `$exists` and `$and`.
+ */
+public class FileCatalogStub implements Closeable {
+	private static final String FILES = "/api/files";
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final TreeMap<String, JsonObject> files = new TreeMap<>();
+	private final Map<String, String> uids = new HashMap<>();
+	private final AtomicLong counter = new AtomicLong();
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile int throttleEvery = 0;
+	private volatile int retryAfterSeconds = 0;
+	private volatile long latencyMillis = 0;
+	private double capacity = 0;
+	private double capacityTokens = 0;
+	private long capacityRefilled = System.nanoTime();
+
+	static {
+		// Otherwise Nagle's algorithm adds ~40 ms to every response
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	public FileCatalogStub() throws IOException {
+		this(0);
+	}
+
+	public FileCatalogStub(int port) throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		this.executor = Executors.newCachedThreadPool();
+		this.server.createContext("/api", new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				try {
+					dispatch(exchange);
+				} catch(RuntimeException e) {
+					send(exchange, 500, message(e.toString()), null);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		this.server.setExecutor(executor);
+		this.server.start();
+	}
+
+	/**
+	 * @return The base URI of the stub, e.g. <code>http://localhost:54321</code>.
+	 */
+	public URI getUri() {
+		return URI.create("http://localhost:" + server.getAddress().getPort());
+	}
+
+	/**
+	 * @return Number of requests the stub has received so far.
+	 */
+	public int getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * Makes the stub answer every <code>every</code>-th request with
+	 * <code>429 Too Many Requests</code>. Pass <code>0</code> to disable.
+	 *
+	 * @param every
+	 * @param retryAfterSeconds Value of the `Retry-After` header, <code>0</code> to omit it.
+	 */
+	public void throttle(int every, int retryAfterSeconds) {
+		this.throttleEvery = every;
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	/**
+	 * Delays every response, e.g. to simulate a remote server.
+	 *
+	 * @param millis <code>0</code> disables the delay.
+	 */
+	public void setLatency(long millis) {
+		this.latencyMillis = millis;
+	}
+
+	/**
+	 * Rejects requests with 429 once more than <code>perSecond</code> requests per second arrive.
+	 * <code>0</code> disables the limit.
+	 *
+	 * @param perSecond
+	 */
+	public synchronized void limitRate(double perSecond) {
+		this.capacity = perSecond;
+		this.capacityTokens = perSecond / 10;
+		this.capacityRefilled = System.nanoTime();
+	}
+
+	private synchronized boolean overCapacity() {
+		if(capacity <= 0) {
+			return false;
+		}
+
+		final long now = System.nanoTime();
+		capacityTokens = Math.min(capacity / 10, capacityTokens + (now - capacityRefilled) / 1e9 * capacity);
+		capacityRefilled = now;
+
+		if(capacityTokens < 1) {
+			return true;
+		}
+
+		capacityTokens -= 1;
+		return false;
+	}
+
+	/**
+	 * Inserts a file directly into the stub's store.
+	 *
+	 * @param metadata
+	 * @return The `mongo_id`.
+	 */
+	public synchronized String put(final JsonObject metadata) {
+		final String mongoId = nextMongoId();
+		final JsonObject md = copy(metadata);
+		md.addProperty("mongo_id", mongoId);
+		touch(md);
+		files.put(mongoId, md);
+		uids.put(md.get("uid").getAsString(), mongoId);
+		return mongoId;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void dispatch(final HttpExchange exchange) throws IOException {
+		final int n = requests.incrementAndGet();
+		final JsonObject body = body(exchange);
+
+		if(latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if((throttleEvery > 0 && 0 == n % throttleEvery) || overCapacity()) {
+			final Map<String, String> headers = new HashMap<>();
+			if(retryAfterSeconds > 0) {
+				headers.put("Retry-After", Integer.toString(retryAfterSeconds));
+			}
+			send(exchange, 429, message("Too many requests"), headers);
+			return;
+		}
+
+		final String path = exchange.getRequestURI().getPath();
+		final String method = exchange.getRequestMethod();
+
+		if(path.equals(FILES) || path.equals(FILES + "/")) {
+			if("GET".equals(method)) {
+				list(exchange);
+			} else if("POST".equals(method)) {
+				create(exchange, body);
+			} else {
+				send(exchange, 405, message("Method not allowed"), null);
+			}
+		} else if(path.startsWith(FILES + "/")) {
+			final String mongoId = path.substring(FILES.length() + 1);
+
+			if(!mongoId.matches("[0-9a-f]{24}")) {
+				send(exchange, 400, message("Not a valid mongo_id"), null);
+				return;
+			}
+
+			switch(method) {
+				case "GET":
+					get(exchange, mongoId);
+					break;
+				case "PATCH":
+				case "PUT":
+					updateOrReplace(exchange, mongoId, body, "PUT".equals(method));
+					break;
+				case "DELETE":
+					delete(exchange, mongoId);
+					break;
+				default:
+					send(exchange, 405, message("Method not allowed"), null);
+			}
+		} else {
+			send(exchange, 404, message("Not found"), null);
+		}
+	}
+
+	private void list(final HttpExchange exchange) throws IOException {
+		final Map<String, String> params = parameters(exchange.getRequestURI().getRawQuery());
+
+		int limit = 10000;
+		int start = 0;
+		JsonObject query = new JsonObject();
+		String[] keys = {"uid", "mongo_id"};
+
+		try {
+			if(params.containsKey("limit")) {
+				limit = Integer.parseInt(params.get("limit"));
+			}
+			if(params.containsKey("start")) {
+				start = Integer.parseInt(params.get("start"));
+			}
+			if(params.containsKey("query")) {
+				query = new JsonParser().parse(params.get("query")).getAsJsonObject();
+			}
+			if(params.containsKey("keys")) {
+				keys = params.get("keys").split("\\|");
+			}
+		} catch(RuntimeException e) {
+			send(exchange, 400, message("Bad parameters"), null);
+			return;
+		}
+
+		if(limit < 1 || start < 0) {
+			send(exchange, 400, message("`limit` must be positive and `start` must not be negative"), null);
+			return;
+		}
+
+		final JsonArray embedded = new JsonArray();
+		final JsonArray paths = new JsonArray();
+
+		synchronized(this) {
+			int skipped = 0;
+
+			for(JsonObject md: files.values()) {
+				if(embedded.size() >= limit) {
+					break;
+				}
+
+				if(!matches(md, query)) {
+					continue;
+				}
+
+				if(skipped++ < start) {
+					continue;
+				}
+
+				final JsonObject projection = new JsonObject();
+				for(String key: keys) {
+					if(md.has(key)) {
+						projection.add(key, copy(md.get(key)));
+					} else if("etag".equals(key)) {
+						projection.addProperty("etag", etag(md));
+					}
+				}
+
+				embedded.add(projection);
+				paths.add(new JsonPrimitive(FILES + "/" + md.get("mongo_id").getAsString()));
+			}
+		}
+
+		final JsonObject result = links(FILES, "/api");
+		final JsonObject e = new JsonObject();
+		e.add("files", embedded);
+		result.add("_embedded", e);
+		result.add("files", paths);
+
+		send(exchange, 200, result, null);
+	}
+
+	private void create(final HttpExchange exchange, final JsonObject md) throws IOException {
+		if(null == md || !md.has("uid") || !md.has("checksum") || !md.has("locations") || md.has("mongo_id")) {
+			send(exchange, 400, message("Validation error"), null);
+			return;
+		}
+
+		synchronized(this) {
+			final String existing = uids.get(md.get("uid").getAsString());
+
+			if(null != existing) {
+				final JsonObject old = files.get(existing);
+
+				if(!old.get("checksum").equals(md.get("checksum"))) {
+					send(exchange, 409, message("Conflict with existing file (checksum differs)"), null);
+					return;
+				}
+
+				final JsonArray locations = old.getAsJsonArray("locations");
+				boolean added = false;
+				for(JsonElement l: md.getAsJsonArray("locations")) {
+					if(!locations.contains(l)) {
+						locations.add(l);
+						added = true;
+					}
+				}
+
+				if(!added) {
+					send(exchange, 409, message("Conflict with existing file (location already exists)"), null);
+					return;
+				}
+
+				touch(old);
+
+				final JsonObject result = links(FILES, "/api");
+				result.addProperty("file", FILES + "/" + existing);
+				send(exchange, 200, result, null);
+				return;
+			}
+
+			final String mongoId = put(md);
+			final JsonObject result = links(FILES, "/api");
+			result.addProperty("file", FILES + "/" + mongoId);
+			send(exchange, 201, result, null);
+		}
+	}
+
+	private void get(final HttpExchange exchange, final String mongoId) throws IOException {
+		final Map<String, String> params = parameters(exchange.getRequestURI().getRawQuery());
+		final JsonObject md;
+
+		synchronized(this) {
+			final JsonObject stored = files.get(mongoId);
+			md = null == stored ? null : copy(stored);
+		}
+
+		if(null == md) {
+			send(exchange, 404, message("File not found"), null);
+			return;
+		}
+
+		final String etag = etag(md);
+		if(etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			send(exchange, 304, null, etagHeader(etag));
+			return;
+		}
+
+		final JsonObject result = links(FILES + "/" + mongoId, FILES);
+
+		if(params.containsKey("keys")) {
+			for(String key: params.get("keys").split("\\|")) {
+				if(md.has(key)) {
+					result.add(key, md.get(key));
+				}
+			}
+		} else {
+			for(Map.Entry<String, JsonElement> e: md.entrySet()) {
+				result.add(e.getKey(), e.getValue());
+			}
+		}
+
+		send(exchange, 200, result, etagHeader(etag));
+	}
+
+	private void updateOrReplace(final HttpExchange exchange, final String mongoId, final JsonObject md, final boolean replace) throws IOException {
+		synchronized(this) {
+			final JsonObject old = files.get(mongoId);
+
+			if(null == old) {
+				send(exchange, 404, message("File not found"), null);
+				return;
+			}
+
+			if(null == md || md.has("mongo_id")
+					|| (md.has("uid") && !md.get("uid").equals(old.get("uid")))) {
+				send(exchange, 400, message("Validation error"), null);
+				return;
+			}
+
+			final String etag = etag(old);
+			if(!etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				send(exchange, 409, message("Conflict (etag mismatch)"), etagHeader(etag));
+				return;
+			}
+
+			final JsonObject updated = replace ? new JsonObject() : old;
+
+			if(replace) {
+				updated.add("uid", old.get("uid"));
+				updated.add("mongo_id", old.get("mongo_id"));
+			}
+
+			for(Map.Entry<String, JsonElement> e: md.entrySet()) {
+				updated.add(e.getKey(), e.getValue());
+			}
+
+			touch(updated);
+			files.put(mongoId, updated);
+
+			final JsonObject result = links(FILES + "/" + mongoId, FILES);
+			for(Map.Entry<String, JsonElement> e: updated.entrySet()) {
+				result.add(e.getKey(), e.getValue());
+			}
+
+			send(exchange, 200, result, etagHeader(etag(updated)));
+		}
+	}
+
+	private void delete(final HttpExchange exchange, final String mongoId) throws IOException {
+		synchronized(this) {
+			final JsonObject old = files.remove(mongoId);
+
+			if(null == old) {
+				send(exchange, 404, message("File not found"), null);
+				return;
+			}
+
+			uids.remove(old.get("uid").getAsString());
+		}
+
+		send(exchange, 204, null, null);
+	}
+
+	private static boolean matches(final JsonObject md, final JsonObject query) {
+		for(Map.Entry<String, JsonElement> e: query.entrySet()) {
+			if("$and".equals(e.getKey())) {
+				for(JsonElement q: e.getValue().getAsJsonArray()) {
+					if(!matches(md, q.getAsJsonObject())) {
+						return false;
+					}
+				}
+				continue;
+			}
+
+			final JsonElement value = md.get(e.getKey());
+
+			if(e.getValue().isJsonObject()) {
+				for(Map.Entry<String, JsonElement> op: e.getValue().getAsJsonObject().entrySet()) {
+					if(!matches(value, op.getKey(), op.getValue())) {
+						return false;
+					}
+				}
+			} else if(!e.getValue().equals(value)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean matches(final JsonElement value, final String operator, final JsonElement operand) {
+		switch(operator) {
+			case "$exists":
+				return operand.getAsBoolean() == (null != value);
+			case "$in":
+				return null != value && operand.getAsJsonArray().contains(value);
+			case "$gt":
+				return null != value && compare(value, operand) > 0;
+			case "$gte":
+				return null != value && compare(value, operand) >= 0;
+			case "$lt":
+				return null != value && compare(value, operand) < 0;
+			case "$lte":
+				return null != value && compare(value, operand) <= 0;
+			default:
+				throw new IllegalArgumentException("Unsupported operator " + operator);
+		}
+	}
+
+	private static int compare(final JsonElement a, final JsonElement b) {
+		if(a.getAsJsonPrimitive().isNumber()) {
+			return Double.compare(a.getAsDouble(), b.getAsDouble());
+		}
+
+		return a.getAsString().compareTo(b.getAsString());
+	}
+
+	private synchronized String nextMongoId() {
+		return String.format("%08x%016x", (int) (System.currentTimeMillis() / 1000), counter.incrementAndGet());
+	}
+
+	private void touch(final JsonObject md) {
+		md.addProperty("meta_modify_date", Long.toString(counter.incrementAndGet()));
+	}
+
+	private static String etag(final JsonObject md) {
+		return Integer.toHexString(md.toString().hashCode()) + md.get("meta_modify_date").getAsString();
+	}
+
+	private static <T extends JsonElement> T copy(final T element) {
+		@SuppressWarnings("unchecked")
+		final T copy = (T) new JsonParser().parse(element.toString());
+		return copy;
+	}
+
+	private static Map<String, String> etagHeader(final String etag) {
+		final Map<String, String> headers = new HashMap<>();
+		headers.put("Etag", etag);
+		return headers;
+	}
+
+	private static JsonObject links(final String self, final String parent) {
+		final JsonObject links = new JsonObject();
+		final JsonObject s = new JsonObject();
+		s.addProperty("href", self);
+		final JsonObject p = new JsonObject();
+		p.addProperty("href", parent);
+		links.add("self", s);
+		links.add("parent", p);
+
+		final JsonObject result = new JsonObject();
+		result.add("_links", links);
+		return result;
+	}
+
+	private static JsonObject message(final String message) {
+		final JsonObject result = new JsonObject();
+		result.addProperty("message", message);
+		return result;
+	}
+
+	private static JsonObject body(final HttpExchange exchange) throws IOException {
+		final InputStream in = exchange.getRequestBody();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8192];
+
+		int r;
+		while((r = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, r);
+		}
+
+		if(0 == out.size()) {
+			return null;
+		}
+
+		try {
+			return new JsonParser().parse(new String(out.toByteArray(), StandardCharsets.UTF_8)).getAsJsonObject();
+		} catch(RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static Map<String, String> parameters(final String query) throws IOException {
+		final Map<String, String> params = new HashMap<>();
+
+		if(null == query) {
+			return params;
+		}
+
+		for(String pair: query.split("&")) {
+			final int eq = pair.indexOf('=');
+			if(eq > 0) {
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		}
+
+		return params;
+	}
+
+	private static void send(final HttpExchange exchange, int status, final JsonObject body, final Map<String, String> headers) throws IOException {
+		if(null != headers) {
+			for(Map.Entry<String, String> h: headers.entrySet()) {
+				exchange.getResponseHeaders().set(h.getKey(), h.getValue());
+			}
+		}
+
+		if(null == body) {
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+
+		final byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+
+		final OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	/**
+	 * Runs the stub standalone, e.g. on port 8888 for the integration tests in <code>ClientTest</code>.
+	 *
+	 * @param args Optional port (default: 8888)
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		final FileCatalogStub stub = new FileCatalogStub(args.length > 0 ? Integer.parseInt(args[0]) : 8888);
+		System.out.println("file_catalog stub listening on " + stub.getUri());
+	}
+}